@@ -0,0 +1,328 @@
+package physics.plasma.particlepush;
+
+import java.util.Arrays;
+
+/**
+ * AdaptiveIntegrator
+ *
+ * This takes each of the manager's steps in as many smaller steps as it needs to keep its
+ * error under a tolerance. It uses the Bogacki-Shampine pair: four evaluations of the rates
+ * of change give both a third order step and a second order one, and the difference between
+ * them estimates the error of the step. If it's too big the step is tried again shorter;
+ * either way the next step is sized from how big it was. The last evaluation of a step is
+ * at the point the step ends, so it doubles as the first evaluation of the next one, and an
+ * accepted step costs three field evaluations.
+ *
+ * The error is measured on every particle and the worst one sets the step, so one particle
+ * in a tight spot slows everyone down. The step it settled on is remembered from one of the
+ * manager's steps to the next.
+ *
+ * The acceleration is the full Lorentz force, q/m (E + v x B). Only particles that are
+ * awake are moved.
+ */
+public class AdaptiveIntegrator implements Integrator {
+
+    // The most steps a single manager step can throw away. After that each try is kept
+    // whatever its error, so a step that can't be made accurate can't hang the simulation,
+    // but the tries are still sized from their errors and never jump to the end.
+    private static final int MAX_REJECTIONS = 64;
+
+    // How much error a step can make in a particle's position and velocity.
+    private float positionTolerance;
+    private float velocityTolerance;
+
+    // The size of the last step taken, in seconds, and how many steps and rejections there
+    // were in the last advance.
+    private float lastStep;
+    private int steps;
+    private int rejections;
+
+    // Each particle's charge to mass ratio, its position and velocity at the start of the
+    // step being tried, its rates of change there, the weighted sum of rates that makes up
+    // the step, the weighted sum that makes up the error, and the rates at the end.
+    private float[] ratio = new float[0];
+    private float[][] start = new float[4][0];
+    private float[][] rates = new float[4][0];
+    private float[][] sum = new float[4][0];
+    private float[][] error = new float[4][0];
+    private float[][] end = new float[4][0];
+
+    // The position and velocity columns, looked up again each advance in case the store grew,
+    // and each worker's worst error in the step being tried.
+    private final float[][] state = new float[4][];
+    private float[] worst = new float[0];
+
+    // The stage being worked out, for the loop bodies below: the system, the step size, the
+    // rates it's built from and what they count for in the step and the error, whether it
+    // starts the sums afresh, and how far along the rates it goes, or along the sums if that's
+    // negative. Then the rates being written, and the error scales for positions and velocities.
+    private SystemManager stepSystem;
+    private float stepH;
+    private float[][] stepRates;
+    private float stepSumWeight;
+    private float stepErrorWeight;
+    private boolean stepFresh;
+    private float stepAlong;
+    private float[][] stepInto;
+    private float stepPositionScale;
+    private float stepVelocityScale;
+
+    // The loop bodies, made once so a step doesn't allocate anything.
+    private final ParallelRunner.Task stageLoop = new ParallelRunner.Task() {
+        @Override
+        public void run(int from, int to, int worker) {
+            stage(from, to);
+        }
+    };
+
+    private final ParallelRunner.Task ratesLoop = new ParallelRunner.Task() {
+        @Override
+        public void run(int from, int to, int worker) {
+            rates(stepSystem, stepInto, from, to);
+        }
+    };
+
+    private final ParallelRunner.Task errorLoop = new ParallelRunner.Task() {
+        @Override
+        public void run(int from, int to, int worker) {
+            worst[worker] = Math.max(worst[worker], error(from, to));
+        }
+    };
+
+    /**
+     * AdaptiveIntegrator
+     *
+     * Creates an integrator that keeps the error of each step in every particle's position
+     * and velocity under the given tolerances.
+     */
+    public AdaptiveIntegrator(float positionTolerance, float velocityTolerance){
+
+        this.positionTolerance = positionTolerance;
+        this.velocityTolerance = velocityTolerance;
+
+    }
+
+    @Override
+    public void advance(SystemManager system, float dt){
+
+        ParticleStore store = system.particles;
+        int n = system.active();
+        ensureCapacity(store.capacity(), n, system.workers());
+        system.chargeToMass(ratio, n);
+
+        state[0] = store.column(system.X);
+        state[1] = store.column(system.Y);
+        state[2] = store.column(system.VX);
+        state[3] = store.column(system.VY);
+        stepSystem = system;
+
+        // The rates at the start, and the start itself.
+        system.computeFields(0, n);
+        stepInto = rates;
+        system.forEachChunk(ratesLoop, n);
+        for(int c=0;c<4;c++){
+            System.arraycopy(state[c], 0, start[c], 0, n);
+        }
+
+        float remaining = dt;
+        float h = lastStep>0.0f ? Math.min(lastStep, dt) : dt;
+        steps = 0;
+        rejections = 0;
+
+        while(remaining>0.0f){
+
+            // Don't leave a sliver of the step for the end.
+            h = remaining-h<1.0e-3f*dt ? remaining : Math.min(h, remaining);
+            boolean forced = rejections>=MAX_REJECTIONS;
+            stepH = h;
+
+            // Second stage at half a step along the first rates.
+            stage(system, rates, 2.0f/9.0f, -5.0f/72.0f, true, 0.5f, n);
+
+            // Third stage at three quarters of a step along the second rates.
+            stage(system, end, 1.0f/3.0f, 1.0f/12.0f, false, 0.75f, n);
+
+            // The third order step, and the rates where it ends.
+            stage(system, end, 4.0f/9.0f, 1.0f/9.0f, false, -1.0f, n);
+
+            // How far off the second order step is, relative to the tolerances.
+            stepPositionScale = h/positionTolerance;
+            stepVelocityScale = h/velocityTolerance;
+            Arrays.fill(worst, 0.0f);
+            system.forEachChunk(errorLoop, n);
+            float largest = 0.0f;
+            for(float w : worst){
+                largest = Math.max(largest, w);
+            }
+
+            if(largest<=1.0f || forced){
+                // Keep it: the end becomes the start of the next step.
+                for(int c=0;c<4;c++){
+                    System.arraycopy(state[c], 0, start[c], 0, n);
+                }
+                float[][] swap = rates;
+                rates = end;
+                end = swap;
+                remaining -= h;
+                steps++;
+            }
+            else{
+                rejections++;
+            }
+
+            // Size the next step for an error just under the tolerance.
+            float factor = largest>0.0f ? 0.9f*(float) Math.pow(largest, -1.0/3.0) : 5.0f;
+            h *= Math.max(0.2f, Math.min(5.0f, factor));
+            lastStep = h;
+        }
+
+        // A rejected last try leaves the columns wherever it got to, so put back the last good state.
+        for(int c=0;c<4;c++){
+            System.arraycopy(start[c], 0, state[c], 0, n);
+        }
+
+        stepSystem = null;
+        stepRates = null;
+        stepInto = null;
+    }
+
+    /**
+     * setTolerances
+     *
+     * Changes how much error a step can make in a particle's position and velocity.
+     */
+    public void setTolerances(float position, float velocity){
+        positionTolerance = position;
+        velocityTolerance = velocity;
+    }
+
+    /**
+     * steps
+     *
+     * Returns how many steps the last advance was split into.
+     */
+    public int steps(){
+        return steps;
+    }
+
+    /**
+     * rejections
+     *
+     * Returns how many steps were tried and thrown away in the last advance.
+     */
+    public int rejections(){
+        return rejections;
+    }
+
+    /**
+     * stage
+     *
+     * Adds the given rates into the step's sums with the given weights, starting them afresh if
+     * fresh is true, moves every particle to where the next rates are wanted, along the rates
+     * or along the sums if along is negative, and works out the field and rates there into end.
+     */
+    private void stage(SystemManager system, float[][] k, float sumWeight, float errorWeight,
+                       boolean fresh, float along, int n){
+
+        stepRates = k;
+        stepSumWeight = sumWeight;
+        stepErrorWeight = errorWeight;
+        stepFresh = fresh;
+        stepAlong = along;
+        system.forEachChunk(stageLoop, n);
+
+        system.computeFields(0, n);
+        stepInto = end;
+        system.forEachChunk(ratesLoop, n);
+    }
+
+    /**
+     * stage
+     *
+     * The loop body of the stage above, for particles from..to-1.
+     */
+    private void stage(int from, int to){
+
+        float h = stepH;
+        float step = stepAlong*h;
+        for(int c=0;c<4;c++){
+            float[] k = stepRates[c];
+            float[] s = sum[c];
+            float[] e = error[c];
+            float[] a = start[c];
+            float[] y = state[c];
+            for(int i=from;i<to;i++){
+                s[i] = (stepFresh ? 0.0f : s[i]) + stepSumWeight*k[i];
+                e[i] = (stepFresh ? 0.0f : e[i]) + stepErrorWeight*k[i];
+                y[i] = stepAlong<0.0f ? a[i] + h*s[i] : a[i] + step*k[i];
+            }
+        }
+    }
+
+    /**
+     * error
+     *
+     * Returns the worst error of particles from..to-1 in the step being tried, relative to
+     * the tolerances, from the error sums and the rates at the end.
+     */
+    private float error(int from, int to){
+
+        float largest = 0.0f;
+        for(int c=0;c<4;c++){
+            float[] k = end[c];
+            float[] e = error[c];
+            float scale = c<2 ? stepPositionScale : stepVelocityScale;
+            for(int i=from;i<to;i++){
+                largest = Math.max(largest, Math.abs(e[i] - 0.125f*k[i])*scale);
+            }
+        }
+
+        return largest;
+    }
+
+    /**
+     * rates
+     *
+     * Works out the rates of change of the positions and velocities of particles from..to-1
+     * where they are now.
+     */
+    private void rates(SystemManager system, float[][] into, int from, int to){
+
+        ParticleStore store = system.particles;
+        float[] x = store.column(system.X);
+        float[] y = store.column(system.Y);
+        float[] vx = store.column(system.VX);
+        float[] vy = store.column(system.VY);
+        float[] ex = store.column(system.EX);
+        float[] ey = store.column(system.EY);
+        BorisPusher pusher = system.pusher;
+
+        for(int i=from;i<to;i++){
+            float b = pusher.magneticField(x[i], y[i]);
+            into[0][i] = vx[i];
+            into[1][i] = vy[i];
+            into[2][i] = ratio[i]*(ex[i] + vy[i]*b);
+            into[3][i] = ratio[i]*(ey[i] - vx[i]*b);
+        }
+    }
+
+    /**
+     * ensureCapacity
+     *
+     * Makes sure there's room for every particle and every worker.
+     */
+    private void ensureCapacity(int capacity, int n, int workers){
+
+        if(ratio.length<n){
+            ratio = new float[capacity];
+            start = new float[4][capacity];
+            rates = new float[4][capacity];
+            sum = new float[4][capacity];
+            error = new float[4][capacity];
+            end = new float[4][capacity];
+        }
+        if(worst.length!=workers){
+            worst = new float[workers];
+        }
+    }
+}
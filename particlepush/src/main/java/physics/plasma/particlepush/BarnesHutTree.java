@@ -0,0 +1,506 @@
+package physics.plasma.particlepush;
+
+import java.util.Arrays;
+
+/**
+ * BarnesHutTree
+ *
+ * This works out the long range inverse square field (Coulomb, or gravity if the source is
+ * mass) at every particle without summing over every pair, which would cost O(n^2).
+ *
+ * Every step the particles are sorted into a quadtree: the square around all of them is
+ * split into four, and each quarter is split again until it holds only a handful of particles.
+ * Each cell remembers the total charge inside it, the center of that charge, and its dipole
+ * moment. A particle far enough away from a cell sees the whole cell as that one charge and
+ * dipole instead of every particle in it. "Far enough" is when the cell's size divided by the
+ * distance is below the opening angle theta: smaller theta is more accurate, larger is faster.
+ * That brings the cost down to O(n log n).
+ *
+ * Cells are stored in flat arrays that are reused from step to step instead of as node
+ * objects, so rebuilding the tree allocates nothing once it has grown big enough.
+ *
+ * Because plasma has charges of both signs, the center of a cell is weighted by the size
+ * of each charge rather than the charge itself, and the dipole term picks up what the
+ * total charge misses when the cell is close to neutral.
+ */
+public class BarnesHutTree implements ForceProvider {
+
+    // Most particles a cell holds before it's split, and the deepest the tree gets,
+    // which stops particles sitting on top of each other from splitting forever.
+    private static final int LEAF_SIZE = 8;
+    private static final int MAX_DEPTH = 24;
+
+    // Marks a cell with no children, or the end of a list of particles.
+    private static final int EMPTY = -1;
+
+    // Which quality is the source of the field, and the constant in front of the force law.
+    private final int sourceQuality;
+    private float coupling;
+
+    // The opening angle squared, and the softening length squared that keeps
+    // the field finite when two particles get very close.
+    private float theta2;
+    private float softening2;
+
+    // The cells: their geometric center and half width, their first child (children are
+    // always four in a row), the first particle in them if they're a leaf, and how many
+    // particles are inside them all together.
+    private int nodeCount;
+    private float[] centerX = new float[0];
+    private float[] centerY = new float[0];
+    private float[] half = new float[0];
+    private int[] child = new int[0];
+    private int[] head = new int[0];
+    private int[] count = new int[0];
+
+    // Each cell's total charge, total size of charge, center of charge, and dipole moment.
+    private float[] charge = new float[0];
+    private float[] weight = new float[0];
+    private float[] comX = new float[0];
+    private float[] comY = new float[0];
+    private float[] dipoleX = new float[0];
+    private float[] dipoleY = new float[0];
+
+    // For each particle, the next particle in the same leaf.
+    private int[] next = new int[0];
+
+    // The source values copied out of the store, which might not keep them as a plain column.
+    private float[] charges = new float[0];
+
+    // The positions and source values the tree was built from.
+    private float[] x;
+    private float[] y;
+    private float[] source;
+
+    // Each worker's list of cells still to be visited while walking the tree,
+    // and where it puts the field at each particle.
+    private int[][] stacks = new int[0][];
+    private float[][] results = new float[0][];
+
+    // The list of cells to visit for a single query from outside the step.
+    private final int[] queryStack = new int[4*MAX_DEPTH+4];
+
+    // Goes up whenever a setting changes the field.
+    private volatile int changes;
+
+    /**
+     * BarnesHutTree
+     *
+     * Creates a tree for the field of the given source quality (normally charge).
+     * coupling is the constant in front of the force law, theta the opening angle,
+     * and softening the distance below which the force stops growing.
+     */
+    public BarnesHutTree(int source, float coupling, float theta, float softening){
+
+        sourceQuality = source;
+        this.coupling = coupling;
+        theta2 = theta*theta;
+        softening2 = softening*softening;
+        grow(1024);
+
+    }
+
+    @Override
+    public void prepare(SystemManager system){
+
+        ParticleStore store = system.particles;
+        int n = store.size();
+
+        if(charges.length<n){
+            charges = new float[store.capacity()];
+        }
+        system.read(sourceQuality, 0, n, charges);
+
+        build(store.column(system.X), store.column(system.Y), charges, n);
+
+        int workers = system.workers();
+        if(stacks.length<workers){
+            stacks = new int[workers][];
+            results = new float[workers][];
+            for(int w=0;w<workers;w++){
+                stacks[w] = new int[4*MAX_DEPTH+4];
+                results[w] = new float[2];
+            }
+        }
+    }
+
+    @Override
+    public void accumulate(SystemManager system, int from, int to, int worker){
+
+        ParticleStore store = system.particles;
+        float[] ex = store.column(system.EX);
+        float[] ey = store.column(system.EY);
+        float[] out = results[worker];
+        int[] todo = stacks[worker];
+
+        for(int i=from;i<to;i++){
+            field(x[i], y[i], i, out, todo);
+            ex[i] += out[0];
+            ey[i] += out[1];
+        }
+    }
+
+    /**
+     * build
+     *
+     * Sorts particles 0..n-1 into the tree and works out every cell's charge and moments.
+     * The arrays are kept, not copied, so they shouldn't change until the field has been found.
+     */
+    public void build(float[] px, float[] py, float[] q, int n){
+
+        x = px;
+        y = py;
+        source = q;
+        if(next.length<n){
+            next = new int[Math.max(n, 2*next.length)];
+        }
+
+        // The root is the smallest square around every particle.
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for(int i=0;i<n;i++){
+            minX = Math.min(minX, px[i]);
+            maxX = Math.max(maxX, px[i]);
+            minY = Math.min(minY, py[i]);
+            maxY = Math.max(maxY, py[i]);
+        }
+        if(n==0){
+            minX = maxX = minY = maxY = 0.0f;
+        }
+        float size = Math.max(maxX-minX, maxY-minY)*0.5f*1.0001f + 1.0e-6f;
+
+        nodeCount = 0;
+        newNode((minX+maxX)*0.5f, (minY+maxY)*0.5f, size);
+
+        for(int i=0;i<n;i++){
+            insert(i);
+        }
+
+        moments();
+    }
+
+    /**
+     * field
+     *
+     * Works out the field at the given point, leaving out the particle numbered self
+     * (pass -1 to leave nobody out), and puts its x and y parts in out. Every call shares
+     * one list of cells to visit, so this shouldn't be called from two threads at once.
+     */
+    public void field(float px, float py, int self, float[] out){
+        field(px, py, self, out, queryStack);
+    }
+
+    /**
+     * field
+     *
+     * Works out the field at the given point using the given stack, so several threads
+     * can walk the tree at once.
+     */
+    private void field(float px, float py, int self, float[] out, int[] todo){
+
+        float[] sx = x;
+        float[] sy = y;
+        float[] q = source;
+        float eps2 = softening2;
+        float t2 = theta2;
+
+        float ex = 0.0f;
+        float ey = 0.0f;
+
+        int sp = 0;
+        todo[sp++] = 0;
+
+        while(sp>0){
+
+            int node = todo[--sp];
+            if(count[node]==0){
+                continue;
+            }
+
+            // A leaf is summed directly, particle by particle.
+            if(child[node]==EMPTY){
+                for(int p=head[node];p!=EMPTY;p=next[p]){
+                    if(p==self){
+                        continue;
+                    }
+                    float dx = px-sx[p];
+                    float dy = py-sy[p];
+                    float r2 = dx*dx + dy*dy + eps2;
+                    float inverse = 1.0f/(float) Math.sqrt(r2);
+                    float f = q[p]*inverse*inverse*inverse;
+                    ex += f*dx;
+                    ey += f*dy;
+                }
+                continue;
+            }
+
+            // A cell we're outside of and far enough from is treated as one charge and dipole.
+            float dx = px-comX[node];
+            float dy = py-comY[node];
+            float d2 = dx*dx + dy*dy;
+            float h = half[node];
+            float width = 2.0f*h;
+            boolean outside = Math.abs(px-centerX[node])>h || Math.abs(py-centerY[node])>h;
+            if(outside && width*width<t2*d2){
+
+                float r2 = d2 + eps2;
+                float inverse = 1.0f/(float) Math.sqrt(r2);
+                float inverse3 = inverse*inverse*inverse;
+                float inverse5 = inverse3*inverse*inverse;
+
+                float px_ = dipoleX[node];
+                float py_ = dipoleY[node];
+                float pDotD = px_*dx + py_*dy;
+
+                ex += charge[node]*dx*inverse3 + 3.0f*pDotD*dx*inverse5 - px_*inverse3;
+                ey += charge[node]*dy*inverse3 + 3.0f*pDotD*dy*inverse5 - py_*inverse3;
+                continue;
+            }
+
+            // Otherwise look inside it.
+            int first = child[node];
+            todo[sp++] = first;
+            todo[sp++] = first+1;
+            todo[sp++] = first+2;
+            todo[sp++] = first+3;
+        }
+
+        out[0] = coupling*ex;
+        out[1] = coupling*ey;
+    }
+
+    /**
+     * setTheta
+     *
+     * Changes the opening angle: smaller is more accurate, larger is faster.
+     */
+    public void setTheta(float theta){
+        theta2 = theta*theta;
+        changes++;
+    }
+
+    /**
+     * setSoftening
+     *
+     * Changes the distance below which the force between two particles stops growing.
+     */
+    public void setSoftening(float softening){
+        softening2 = softening*softening;
+        changes++;
+    }
+
+    /**
+     * setCoupling
+     *
+     * Changes the constant in front of the force law.
+     */
+    public void setCoupling(float value){
+        coupling = value;
+        changes++;
+    }
+
+    /**
+     * nodeCount
+     *
+     * Returns how many cells the tree was last built with.
+     */
+    public int nodeCount(){
+        return nodeCount;
+    }
+
+    /**
+     * insert
+     *
+     * Walks particle i down to the leaf it belongs in and adds it there,
+     * splitting the leaf if it's now too full.
+     */
+    private void insert(int i){
+
+        float px = x[i];
+        float py = y[i];
+        int node = 0;
+        int depth = 0;
+
+        while(child[node]!=EMPTY){
+            count[node]++;
+            node = child[node] + quadrant(node, px, py);
+            depth++;
+        }
+
+        next[i] = head[node];
+        head[node] = i;
+        count[node]++;
+
+        if(count[node]>LEAF_SIZE && depth<MAX_DEPTH){
+            split(node, depth);
+        }
+    }
+
+    /**
+     * split
+     *
+     * Turns a leaf into four children and hands its particles down to them.
+     */
+    private void split(int node, int depth){
+
+        float h = half[node]*0.5f;
+        float cx = centerX[node];
+        float cy = centerY[node];
+
+        // Children are in the order: lower left, lower right, upper left, upper right.
+        int first = newNode(cx-h, cy-h, h);
+        newNode(cx+h, cy-h, h);
+        newNode(cx-h, cy+h, h);
+        newNode(cx+h, cy+h, h);
+        child[node] = first;
+
+        int p = head[node];
+        head[node] = EMPTY;
+        while(p!=EMPTY){
+            int following = next[p];
+            int c = first + quadrant(node, x[p], y[p]);
+            next[p] = head[c];
+            head[c] = p;
+            count[c]++;
+            p = following;
+        }
+
+        for(int c=first;c<first+4;c++){
+            if(count[c]>LEAF_SIZE && depth+1<MAX_DEPTH){
+                split(c, depth+1);
+            }
+        }
+    }
+
+    /**
+     * moments
+     *
+     * Works out every cell's charge, center of charge, and dipole. Children always come
+     * after their parents in the arrays, so going backwards does the leaves first.
+     */
+    private void moments(){
+
+        float[] q = source;
+
+        for(int node=nodeCount-1;node>=0;node--){
+
+            float total = 0.0f;
+            float size = 0.0f;
+            float sumX = 0.0f;
+            float sumY = 0.0f;
+            float dx = 0.0f;
+            float dy = 0.0f;
+
+            if(child[node]==EMPTY){
+                for(int p=head[node];p!=EMPTY;p=next[p]){
+                    float a = Math.abs(q[p]);
+                    total += q[p];
+                    size += a;
+                    sumX += a*x[p];
+                    sumY += a*y[p];
+                }
+                setCenter(node, size, sumX, sumY);
+                for(int p=head[node];p!=EMPTY;p=next[p]){
+                    dx += q[p]*(x[p]-comX[node]);
+                    dy += q[p]*(y[p]-comY[node]);
+                }
+            }
+            else{
+                int first = child[node];
+                for(int c=first;c<first+4;c++){
+                    total += charge[c];
+                    size += weight[c];
+                    sumX += weight[c]*comX[c];
+                    sumY += weight[c]*comY[c];
+                }
+                setCenter(node, size, sumX, sumY);
+                for(int c=first;c<first+4;c++){
+                    dx += dipoleX[c] + charge[c]*(comX[c]-comX[node]);
+                    dy += dipoleY[c] + charge[c]*(comY[c]-comY[node]);
+                }
+            }
+
+            charge[node] = total;
+            weight[node] = size;
+            dipoleX[node] = dx;
+            dipoleY[node] = dy;
+        }
+    }
+
+    /**
+     * setCenter
+     *
+     * Puts a cell's center of charge at the weighted average position,
+     * or at its geometric center if it has no charge at all.
+     */
+    private void setCenter(int node, float size, float sumX, float sumY){
+
+        if(size>0.0f){
+            comX[node] = sumX/size;
+            comY[node] = sumY/size;
+        }
+        else{
+            comX[node] = centerX[node];
+            comY[node] = centerY[node];
+        }
+    }
+
+    /**
+     * quadrant
+     *
+     * Returns which of a cell's four children a point falls in.
+     */
+    private int quadrant(int node, float px, float py){
+        return (px>=centerX[node] ? 1 : 0) + (py>=centerY[node] ? 2 : 0);
+    }
+
+    /**
+     * newNode
+     *
+     * Adds an empty leaf cell and returns its index.
+     */
+    private int newNode(float cx, float cy, float h){
+
+        if(nodeCount==child.length){
+            grow(child.length*2);
+        }
+
+        int node = nodeCount++;
+        centerX[node] = cx;
+        centerY[node] = cy;
+        half[node] = h;
+        child[node] = EMPTY;
+        head[node] = EMPTY;
+        count[node] = 0;
+
+        return node;
+    }
+
+    /**
+     * grow
+     *
+     * Makes room for the given number of cells.
+     */
+    private void grow(int capacity){
+
+        centerX = Arrays.copyOf(centerX, capacity);
+        centerY = Arrays.copyOf(centerY, capacity);
+        half = Arrays.copyOf(half, capacity);
+        child = Arrays.copyOf(child, capacity);
+        head = Arrays.copyOf(head, capacity);
+        count = Arrays.copyOf(count, capacity);
+        charge = Arrays.copyOf(charge, capacity);
+        weight = Arrays.copyOf(weight, capacity);
+        comX = Arrays.copyOf(comX, capacity);
+        comY = Arrays.copyOf(comY, capacity);
+        dipoleX = Arrays.copyOf(dipoleX, capacity);
+        dipoleY = Arrays.copyOf(dipoleY, capacity);
+    }
+
+    @Override
+    public int changes(){
+        return changes;
+    }
+}
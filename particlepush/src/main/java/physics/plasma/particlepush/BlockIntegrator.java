@@ -0,0 +1,426 @@
+package physics.plasma.particlepush;
+
+import java.util.Arrays;
+
+/**
+ * BlockIntegrator
+ *
+ * This is velocity Verlet with a step of its own for every particle. Particles being
+ * thrown around hard, near a pointer or in a tight cluster, need much smaller steps than
+ * the rest, and making everybody take the smallest one wastes nearly all the field
+ * evaluations on particles that are barely doing anything.
+ *
+ * Each step every particle is given a level from how hard it's being pushed: level 0 takes
+ * the whole step, level 1 two halves, level 2 four quarters, and so on, down to the smallest
+ * step a particle's acceleration calls for. Steps being powers of two apart means a level's
+ * steps always end where the coarser levels' do. The particles are then sorted so each level
+ * is a block of the store, coarsest first, which makes the particles whose step ends at any
+ * moment a single run at the end of the store, and the field only has to be added up for them.
+ *
+ * Between their own kicks particles just drift. The field of a particle that isn't being
+ * worked out is extrapolated from its last two evaluations, so the EX and EY columns stay
+ * a reasonable guess for anything reading them. Everybody is evaluated at the end of the
+ * step, and that field starts the next one, like plain velocity Verlet.
+ *
+ * Sorting moves every particle in the store, and everything that remembers particles by index
+ * has to catch up after it, so the blocks are only sorted again when they have to be. A particle
+ * whose acceleration only needs a coarser step than its block's can just go on taking the finer
+ * one, which is accurate, only wasteful, and the blocks are left alone until more than a quarter
+ * of the particles are in a finer block than they need. A particle that needs a finer step than
+ * its block can't wait, so that sorts the blocks straight away, and it's put a level finer than
+ * it needs, so one that's still speeding up doesn't force another sort the next step.
+ * Particles in the same level keep the order they were in, so the manager's spatial ordering
+ * survives inside each block.
+ *
+ * Only the particles that are awake are moved; sleepers at the end of the store are left
+ * where they are, and out of the blocks.
+ *
+ * Only the field is saved by the blocks, not the forces' setup. Every particle drifts every
+ * tick, so at each of the 2^deepest ticks of a step every force builds its sources again
+ * from everybody, the tree, the mesh or the neighbor grid, before adding up the field for
+ * the particles whose steps end then. That setup is the same cost plain velocity Verlet pays
+ * once a step, so this only wins when adding up the field is the bulk of the work, like a
+ * tree walk or a sum over pairs. sourceBuilds() counts it next to evaluations().
+ */
+public class BlockIntegrator implements Integrator {
+
+    // The most levels there can be.
+    private static final int MAX_LEVELS = 16;
+
+    // The fraction of particles that can be in a finer block than they need before the
+    // blocks are sorted again.
+    private static final float WASTE = 0.25f;
+
+    // How many times a step can be halved, and the constants in each particle's wanted step:
+    // accuracy times the square root of length over its acceleration.
+    private int maxLevel;
+    private float accuracy;
+    private float length;
+
+    // Each particle's charge to mass ratio, the level of the block it's in, and the level
+    // its acceleration calls for this step.
+    private float[] ratio = new float[0];
+    private int[] level = new int[0];
+    private int[] wanted = new int[0];
+
+    // The order that sorts the particles by level, and where each level's block starts,
+    // with one extra entry at the end.
+    private int[] order = new int[0];
+    private final int[] blockStart = new int[MAX_LEVELS+2];
+    private final int[] nextSlot = new int[MAX_LEVELS+1];
+
+    // Each particle's field at its last evaluation, how fast it was changing, and when,
+    // counted from the start of the step.
+    private float[] lastEx = new float[0];
+    private float[] lastEy = new float[0];
+    private float[] rateEx = new float[0];
+    private float[] rateEy = new float[0];
+    private float[] lastTime = new float[0];
+    private float[] spare = new float[0];
+
+    // The system, particle count, awake count, reorder count and the manager's field epoch the
+    // field and the arrays above are good for.
+    private SystemManager primedSystem;
+    private int primedCount = -1;
+    private int primedActive;
+    private int primedReorders;
+    private int primedEpoch;
+
+    // How many times the blocks have been sorted.
+    private long sorts;
+
+    // How many particles' fields were worked out in the last step, how many times the forces
+    // built their sources for it, and the finest level in it.
+    private long evaluations;
+    private int sourceBuilds;
+    private int deepest;
+
+    /**
+     * BlockIntegrator
+     *
+     * Creates an integrator that halves a particle's step up to maxLevel times, until it's
+     * no more than accuracy * sqrt(length/acceleration). The length is the scale over which
+     * the field changes a lot, like a force's softening.
+     */
+    public BlockIntegrator(int maxLevel, float accuracy, float length){
+
+        if(maxLevel<0 || maxLevel>=MAX_LEVELS){
+            throw new IllegalArgumentException("Steps can be halved between 0 and " + (MAX_LEVELS-1) + " times.");
+        }
+
+        this.maxLevel = maxLevel;
+        this.accuracy = accuracy;
+        this.length = length;
+
+    }
+
+    @Override
+    public void advance(SystemManager system, float dt){
+
+        ParticleStore store = system.particles;
+        int count = store.size();
+        int n = system.active();
+        ensureCapacity(store.capacity(), count);
+        int epoch = system.fieldEpoch();
+        evaluations = 0;
+        sourceBuilds = 0;
+
+        boolean primed = primedSystem==system && primedCount==count && primedActive==n && primedEpoch==epoch;
+        boolean continuing = primed && primedReorders==system.reorders();
+        if(!primed){
+            system.computeFields(0, n);
+            evaluations += n;
+            sourceBuilds++;
+        }
+        system.chargeToMass(ratio, n);
+
+        // Work out the level everybody's acceleration calls for, and sort the blocks again if they need it.
+        if(assignLevels(store.column(system.EX), store.column(system.EY), n, count, dt, continuing)){
+            system.reorder(order);
+            sorts++;
+            if(continuing){
+                gather(lastEx, n);
+                gather(lastEy, n);
+                gather(rateEx, n);
+                gather(rateEy, n);
+            }
+            fillLevels();
+            system.chargeToMass(ratio, n);
+        }
+        if(!continuing){
+            System.arraycopy(store.column(system.EX), 0, lastEx, 0, n);
+            System.arraycopy(store.column(system.EY), 0, lastEy, 0, n);
+            Arrays.fill(rateEx, 0, n, 0.0f);
+            Arrays.fill(rateEy, 0, n, 0.0f);
+        }
+        Arrays.fill(lastTime, 0, n, 0.0f);
+
+        float[] x = store.column(system.X);
+        float[] y = store.column(system.Y);
+        float[] vx = store.column(system.VX);
+        float[] vy = store.column(system.VY);
+        float[] ex = store.column(system.EX);
+        float[] ey = store.column(system.EY);
+        BorisPusher pusher = system.pusher;
+
+        int ticks = 1<<deepest;
+        float h = dt/ticks;
+
+        for(int tick=0;tick<ticks;tick++){
+
+            // Open the steps starting now with half a kick each.
+            for(int l=firstLevel(tick);l<=deepest;l++){
+                pusher.kick(x, y, vx, vy, ex, ey, ratio, blockStart[l], blockStart[l+1], 0.5f*dt/(1<<l));
+            }
+
+            for(int i=0;i<n;i++){
+                x[i] += vx[i]*h;
+                y[i] += vy[i]*h;
+            }
+
+            // Work out the field for the steps ending now, and guess it for everyone else.
+            float t = (tick+1)*h;
+            int first = firstLevel(tick+1);
+            int from = blockStart[first];
+            system.computeFields(from, n);
+            evaluations += n-from;
+            sourceBuilds++;
+
+            for(int i=from;i<n;i++){
+                float elapsed = t-lastTime[i];
+                rateEx[i] = (ex[i]-lastEx[i])/elapsed;
+                rateEy[i] = (ey[i]-lastEy[i])/elapsed;
+                lastEx[i] = ex[i];
+                lastEy[i] = ey[i];
+                lastTime[i] = t;
+            }
+            for(int i=0;i<from;i++){
+                float elapsed = t-lastTime[i];
+                ex[i] = lastEx[i] + rateEx[i]*elapsed;
+                ey[i] = lastEy[i] + rateEy[i]*elapsed;
+            }
+
+            // Close them with the other half kick.
+            for(int l=first;l<=deepest;l++){
+                pusher.kick(x, y, vx, vy, ex, ey, ratio, blockStart[l], blockStart[l+1], 0.5f*dt/(1<<l));
+            }
+        }
+
+        primedSystem = system;
+        primedCount = count;
+        primedActive = n;
+        primedReorders = system.reorders();
+        primedEpoch = epoch;
+    }
+
+    /**
+     * reset
+     *
+     * Forgets the field left over from the last step, so the next step works it out afresh.
+     * Call this after changing anything that pushes the particles.
+     */
+    public void reset(){
+        primedSystem = null;
+    }
+
+    /**
+     * setAccuracy
+     *
+     * Changes the constants in each particle's wanted step.
+     */
+    public void setAccuracy(float accuracy, float length){
+        this.accuracy = accuracy;
+        this.length = length;
+    }
+
+    /**
+     * evaluations
+     *
+     * Returns how many particle fields were added up in the last step, counting a fresh start
+     * if the field left over couldn't be used. Everybody taking the finest step would have
+     * cost the particle count times 2^deepestLevel(). It leaves out the forces building their
+     * sources, which sourceBuilds() counts.
+     */
+    public long evaluations(){
+        return evaluations;
+    }
+
+    /**
+     * sourceBuilds
+     *
+     * Returns how many times the forces built their sources from every particle in the last
+     * step: once per tick, 2^deepestLevel(), and once more if it had to start afresh.
+     */
+    public int sourceBuilds(){
+        return sourceBuilds;
+    }
+
+    /**
+     * deepestLevel
+     *
+     * Returns the finest level anybody was on in the last step.
+     */
+    public int deepestLevel(){
+        return deepest;
+    }
+
+    /**
+     * sorts
+     *
+     * Returns how many times the particles have been sorted into blocks.
+     */
+    public long sorts(){
+        return sorts;
+    }
+
+    /**
+     * level
+     *
+     * Returns the level of the block the particle at the given index was in for the last step.
+     */
+    public int level(int index){
+        return level[index];
+    }
+
+    /**
+     * assignLevels
+     *
+     * Works out the level every awake particle's acceleration calls for. If the blocks from the
+     * last step still do, they're kept and this returns false. Otherwise every particle gets a
+     * new level, and if they aren't already in blocks, coarsest first, this works out the order
+     * that puts them there, keeping particles in the same level in the order they were, and
+     * returns true.
+     */
+    private boolean assignLevels(float[] ex, float[] ey, int n, int count, float dt, boolean continuing){
+
+        int violations = 0;
+        int wasted = 0;
+
+        for(int i=0;i<n;i++){
+
+            float acceleration = Math.abs(ratio[i])*(float) Math.sqrt(ex[i]*ex[i] + ey[i]*ey[i]);
+            float step = accuracy*(float) Math.sqrt(length/acceleration);
+
+            int l = 0;
+            float taken = dt;
+            while(taken>step && l<maxLevel){
+                taken *= 0.5f;
+                l++;
+            }
+            wanted[i] = l;
+
+            if(continuing){
+                if(l>level[i]){
+                    violations++;
+                }
+                else if(l<level[i]){
+                    wasted++;
+                }
+            }
+        }
+
+        if(continuing && violations==0 && wasted<=WASTE*n){
+            return false;
+        }
+
+        // New blocks. Particles that outgrew theirs get a level to spare.
+        int[] counts = blockStart;
+        Arrays.fill(counts, 0);
+        deepest = 0;
+        boolean sorted = true;
+        for(int i=0;i<n;i++){
+
+            int l = wanted[i];
+            if(continuing && l>level[i]){
+                l = Math.min(maxLevel, l+1);
+            }
+            if(i>0 && l<level[i-1]){
+                sorted = false;
+            }
+            level[i] = l;
+            counts[l+1]++;
+            deepest = Math.max(deepest, l);
+        }
+
+        for(int l=0;l<=MAX_LEVELS;l++){
+            counts[l+1] += counts[l];
+        }
+        if(sorted){
+            return false;
+        }
+
+        int[] next = nextSlot;
+        System.arraycopy(counts, 0, next, 0, MAX_LEVELS+1);
+        for(int i=0;i<n;i++){
+            order[next[level[i]]++] = i;
+        }
+        for(int i=n;i<count;i++){
+            order[i] = i;
+        }
+
+        return true;
+    }
+
+    /**
+     * firstLevel
+     *
+     * Returns the coarsest level whose steps start or end at the given tick.
+     * Every level finer than that does too.
+     */
+    private int firstLevel(int tick){
+
+        if(tick==0){
+            return 0;
+        }
+
+        return Math.max(0, deepest-Integer.numberOfTrailingZeros(tick));
+    }
+
+    /**
+     * gather
+     *
+     * Puts one of this integrator's arrays in the order the particles were just put in.
+     */
+    private void gather(float[] values, int n){
+
+        float[] s = spare;
+        for(int k=0;k<n;k++){
+            s[k] = values[order[k]];
+        }
+        System.arraycopy(s, 0, values, 0, n);
+    }
+
+    /**
+     * fillLevels
+     *
+     * Writes every particle's level again after they've been sorted into blocks.
+     */
+    private void fillLevels(){
+
+        for(int l=0;l<=deepest;l++){
+            Arrays.fill(level, blockStart[l], blockStart[l+1], l);
+        }
+    }
+
+    /**
+     * ensureCapacity
+     *
+     * Makes sure every array can hold n particles.
+     */
+    private void ensureCapacity(int capacity, int n){
+
+        if(ratio.length<n){
+            ratio = new float[capacity];
+            level = new int[capacity];
+            wanted = new int[capacity];
+            order = new int[capacity];
+            lastEx = new float[capacity];
+            lastEy = new float[capacity];
+            rateEx = new float[capacity];
+            rateEy = new float[capacity];
+            lastTime = new float[capacity];
+            spare = new float[capacity];
+            primedSystem = null;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package physics.plasma.particlepush;
+
+/**
+ * BorisPusher
+ *
+ * This moves charged particles through electric and magnetic fields with the Boris method,
+ * the standard push in plasma codes. Each step it:
+ *
+ *      1. Kicks the velocity with half a step of the electric field.
+ *      2. Rotates the velocity around the magnetic field by the angle a particle would
+ *         gyrate through in one step.
+ *      3. Kicks it with the other half step of electric field.
+ *      4. Drifts the position with the new velocity.
+ *
+ * The rotation never changes a particle's speed, so a magnetic field alone can't pump
+ * energy in or out no matter how large the step is, and the whole thing is time reversible.
+ * That's what keeps long runs stable with big steps, where a plain Euler update spirals
+ * outwards.
+ *
+ * The particles move in the plane, so the magnetic field that matters is the part pointing
+ * out of the screen. It can be the same everywhere, or given on a grid and interpolated
+ * at each particle.
+ */
+public class BorisPusher {
+
+    // How many particles are pushed at a time; a chunk of charges and masses is read at once.
+    private static final int CHUNK = 256;
+
+    // How many sums the push adds up for the diagnostics: kinetic energy, momentum across
+    // and up, charge, and mass.
+    private static final int SUMS = 5;
+
+    // The magnetic field when it's the same everywhere.
+    private float uniformField;
+
+    // The magnetic field on a grid, row by row, when there is one: its lower left corner,
+    // how many points across and up, and how far apart they are.
+    private float[] fieldGrid;
+    private float gridX;
+    private float gridY;
+    private int gridNx;
+    private int gridNy;
+    private float inverseDx;
+    private float inverseDy;
+
+    // Each worker's room for charges and masses, which aren't stored as plain columns,
+    // and for the sums a chunk adds to the diagnostics.
+    private float[][] chargeScratch = new float[0][];
+    private float[][] massScratch = new float[0][];
+    private float[][] sumScratch = new float[0][];
+
+    /**
+     * setUniformField
+     *
+     * Makes the magnetic field the same everywhere, pointing out of the screen.
+     */
+    public void setUniformField(float bz){
+        uniformField = bz;
+        fieldGrid = null;
+    }
+
+    /**
+     * setFieldGrid
+     *
+     * Gives the magnetic field at the points of an nx by ny grid, row by row, starting
+     * at (x, y) and spaced dx and dy apart. It's interpolated between the points and held
+     * at the nearest edge outside the grid. The array is kept, not copied, so changing it
+     * changes the field.
+     */
+    public void setFieldGrid(float[] bz, float x, float y, int nx, int ny, float dx, float dy){
+
+        if(bz.length<nx*ny || nx<2 || ny<2){
+            throw new IllegalArgumentException("The field grid needs at least 2 by 2 points.");
+        }
+
+        fieldGrid = bz;
+        gridX = x;
+        gridY = y;
+        gridNx = nx;
+        gridNy = ny;
+        inverseDx = 1.0f/dx;
+        inverseDy = 1.0f/dy;
+    }
+
+    /**
+     * ensureWorkers
+     *
+     * Makes sure every worker has its own scratch memory.
+     */
+    public void ensureWorkers(int workers){
+
+        if(chargeScratch.length<workers){
+            chargeScratch = new float[workers][CHUNK];
+            massScratch = new float[workers][CHUNK];
+            sumScratch = new float[workers][SUMS];
+        }
+    }
+
+    /**
+     * push
+     *
+     * Pushes particles from..to-1 of the system for dt seconds with the field in its EX and EY
+     * columns. Different workers can push different particles at the same time.
+     * Their energy, momentum and so on are added to the system's diagnostics on the way.
+     */
+    public void push(SystemManager system, int from, int to, int worker, float dt){
+
+        ParticleStore store = system.particles;
+        float[] x = store.column(system.X);
+        float[] y = store.column(system.Y);
+        float[] vx = store.column(system.VX);
+        float[] vy = store.column(system.VY);
+        float[] ex = store.column(system.EX);
+        float[] ey = store.column(system.EY);
+        float[] q = chargeScratch[worker];
+        float[] m = massScratch[worker];
+        float[] sums = sumScratch[worker];
+        Diagnostics diagnostics = system.diagnostics;
+
+        for(int start=from;start<to;start+=CHUNK){
+
+            int end = Math.min(to, start+CHUNK);
+            system.read(system.CHARGE, start, end, q);
+            system.read(system.MASS, start, end, m);
+            push(x, y, vx, vy, ex, ey, q, m, start, end, dt, sums);
+            diagnostics.add(worker, sums[0], sums[1], sums[2], sums[3], sums[4], end-start);
+        }
+    }
+
+    /**
+     * push
+     *
+     * Pushes particles from..to-1 of plain arrays for dt seconds. Their charges and masses
+     * are in q and m starting at index 0, the way the store reads them out.
+     */
+    public void push(float[] x, float[] y, float[] vx, float[] vy, float[] ex, float[] ey,
+                     float[] q, float[] m, int from, int to, float dt){
+        push(x, y, vx, vy, ex, ey, q, m, from, to, dt, null);
+    }
+
+    /**
+     * push
+     *
+     * Pushes particles from..to-1 of plain arrays like the push above, and if sums isn't null,
+     * writes their kinetic energy, momentum across and up, charge, and mass into it. The
+     * velocities are averaged over the kick, so they line up in time with the positions.
+     */
+    public void push(float[] x, float[] y, float[] vx, float[] vy, float[] ex, float[] ey,
+                     float[] q, float[] m, int from, int to, float dt, float[] sums){
+
+        float halfDt = 0.5f*dt;
+        float kinetic = 0.0f;
+        float momentumX = 0.0f;
+        float momentumY = 0.0f;
+        float charge = 0.0f;
+        float mass = 0.0f;
+
+        for(int i=from;i<to;i++){
+
+            float qi = q[i-from];
+            float mi = m[i-from];
+            float ratio = qi/mi*halfDt;
+            float oldX = vx[i];
+            float oldY = vy[i];
+
+            // Half the electric kick.
+            float ux = vx[i] + ratio*ex[i];
+            float uy = vy[i] + ratio*ey[i];
+
+            // Rotate around the magnetic field. t is the tangent of half the rotation angle.
+            float t = ratio*magneticField(x[i], y[i]);
+            float s = 2.0f*t/(1.0f + t*t);
+            float wx = ux + uy*t;
+            float wy = uy - ux*t;
+            ux += wy*s;
+            uy -= wx*s;
+
+            // The other half of the electric kick, then drift.
+            ux += ratio*ex[i];
+            uy += ratio*ey[i];
+            vx[i] = ux;
+            vy[i] = uy;
+            x[i] += ux*dt;
+            y[i] += uy*dt;
+
+            // What the diagnostics want, while everything's still in registers.
+            kinetic += 0.25f*mi*(oldX*oldX + oldY*oldY + ux*ux + uy*uy);
+            momentumX += 0.5f*mi*(oldX+ux);
+            momentumY += 0.5f*mi*(oldY+uy);
+            charge += qi;
+            mass += mi;
+        }
+
+        if(sums!=null){
+            sums[0] = kinetic;
+            sums[1] = momentumX;
+            sums[2] = momentumY;
+            sums[3] = charge;
+            sums[4] = mass;
+        }
+    }
+
+    /**
+     * push
+     *
+     * Pushes particles from..to-1 of the system for dt seconds like the push above, when they're
+     * all of the given species, so nothing about their charge or mass has to be read.
+     * Their energy and so on are only added to the diagnostics if measure is true, so a
+     * species taking several steps can be counted on its last one only.
+     */
+    public void push(SystemManager system, Species species, int from, int to, int worker, float dt, boolean measure){
+
+        ParticleStore store = system.particles;
+        float[] sums = sumScratch[worker];
+        push(store.column(system.X), store.column(system.Y), store.column(system.VX), store.column(system.VY),
+                store.column(system.EX), store.column(system.EY), species.charge, species.mass, from, to, dt,
+                measure ? sums : null);
+        if(measure){
+            system.diagnostics.add(worker, sums[0], sums[1], sums[2], sums[3], sums[4], to-from);
+        }
+    }
+
+    /**
+     * push
+     *
+     * Pushes particles from..to-1 of plain arrays that all have the same charge and mass,
+     * and if sums isn't null, writes what the diagnostics want into it like the push above.
+     * The charge to mass ratio is worked out once, and where the magnetic field is the same
+     * everywhere so is the rotation, which leaves the loop nothing to look up.
+     */
+    public void push(float[] x, float[] y, float[] vx, float[] vy, float[] ex, float[] ey,
+                     float q, float m, int from, int to, float dt, float[] sums){
+
+        float ratio = q/m*0.5f*dt;
+        boolean uniform = fieldGrid==null;
+        float uniformT = ratio*uniformField;
+        float uniformS = 2.0f*uniformT/(1.0f + uniformT*uniformT);
+        float speeds2 = 0.0f;
+        float velocityX = 0.0f;
+        float velocityY = 0.0f;
+
+        for(int i=from;i<to;i++){
+
+            float oldX = vx[i];
+            float oldY = vy[i];
+
+            float ux = vx[i] + ratio*ex[i];
+            float uy = vy[i] + ratio*ey[i];
+
+            float t = uniformT;
+            float s = uniformS;
+            if(!uniform){
+                t = ratio*magneticField(x[i], y[i]);
+                s = 2.0f*t/(1.0f + t*t);
+            }
+            float wx = ux + uy*t;
+            float wy = uy - ux*t;
+            ux += wy*s;
+            uy -= wx*s;
+
+            ux += ratio*ex[i];
+            uy += ratio*ey[i];
+            vx[i] = ux;
+            vy[i] = uy;
+            x[i] += ux*dt;
+            y[i] += uy*dt;
+
+            // Every particle weighs the same, so the mass is left until the end.
+            speeds2 += oldX*oldX + oldY*oldY + ux*ux + uy*uy;
+            velocityX += oldX+ux;
+            velocityY += oldY+uy;
+        }
+
+        if(sums!=null){
+            int count = to-from;
+            sums[0] = 0.25f*m*speeds2;
+            sums[1] = 0.5f*m*velocityX;
+            sums[2] = 0.5f*m*velocityY;
+            sums[3] = q*count;
+            sums[4] = m*count;
+        }
+    }
+
+    /**
+     * kick
+     *
+     * Changes the velocities of particles from..to-1 the way h seconds of the fields would,
+     * without moving them: half the electric kick, the magnetic rotation, and the other half.
+     * Their charge to mass ratios are in ratio at the same indices.
+     */
+    public void kick(float[] x, float[] y, float[] vx, float[] vy, float[] ex, float[] ey,
+                     float[] ratio, int from, int to, float h){
+
+        float halfH = 0.5f*h;
+
+        for(int i=from;i<to;i++){
+
+            float r = ratio[i]*halfH;
+            float ux = vx[i] + r*ex[i];
+            float uy = vy[i] + r*ey[i];
+
+            float t = r*magneticField(x[i], y[i]);
+            float s = 2.0f*t/(1.0f + t*t);
+            float wx = ux + uy*t;
+            float wy = uy - ux*t;
+            ux += wy*s;
+            uy -= wx*s;
+
+            vx[i] = ux + r*ex[i];
+            vy[i] = uy + r*ey[i];
+        }
+    }
+
+    /**
+     * magneticField
+     *
+     * Returns the magnetic field at the given point.
+     */
+    public float magneticField(float px, float py){
+
+        float[] grid = fieldGrid;
+        if(grid==null){
+            return uniformField;
+        }
+
+        float gx = Math.max(0.0f, Math.min(gridNx-1.001f, (px-gridX)*inverseDx));
+        float gy = Math.max(0.0f, Math.min(gridNy-1.001f, (py-gridY)*inverseDy));
+        int i = (int) gx;
+        int j = (int) gy;
+        float fx = gx-i;
+        float fy = gy-j;
+        int k = j*gridNx+i;
+
+        return (1.0f-fy)*((1.0f-fx)*grid[k] + fx*grid[k+1])
+                + fy*((1.0f-fx)*grid[k+gridNx] + fx*grid[k+gridNx+1]);
+    }
+}
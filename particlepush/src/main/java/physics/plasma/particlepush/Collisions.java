@@ -0,0 +1,314 @@
+package physics.plasma.particlepush;
+
+/**
+ * Collisions
+ *
+ * This stops particles with a size from passing through each other. Each particle is a disk
+ * with its own radius, and touching disks bounce apart.
+ *
+ * Finding who touches whom is done by sweep and prune. Every particle covers an interval
+ * along x, from x - radius to x + radius, and the particles are kept sorted by where their
+ * intervals start. Walking that list, each particle only has to be checked against the ones
+ * after it whose intervals start before its own ends. Particles barely move from one step to
+ * the next, so last step's order is nearly sorted already, and an insertion sort puts it right
+ * in close to O(n). Pairs whose intervals overlap in y too are then checked as disks.
+ *
+ * Touching disks that are moving towards each other get equal and opposite kicks along the
+ * line between their centers, sized by their masses and by how bouncy the collision is:
+ * a restitution of 1 keeps all the energy, 0 makes them stick. Any overlap left is pushed
+ * apart too, so disks don't sink into each other. A sleeping particle that gets bumped or
+ * pushed is woken.
+ */
+public class Collisions {
+
+    // How much of the overlap is pushed out each step. Less than all of it keeps piles steady.
+    private static final float CORRECTION = 0.8f;
+
+    // The system whose particles collide, and the ids of their radius and mass qualities.
+    private final SystemManager system;
+    public final int RADIUS;
+
+    // How much of the speed along the line of impact is kept.
+    private float restitution;
+
+    // Particle indices sorted by where their intervals start, and how many there are.
+    private int[] order = new int[0];
+    private int count;
+
+    // Where each particle's interval starts, by particle index, and its radius and mass.
+    private float[] lower = new float[0];
+    private float[] radii = new float[0];
+    private float[] masses = new float[0];
+
+    // Pairs of touching particles found in the last step, two indices per pair.
+    private int[] pairs = new int[64];
+    private int pairCount;
+
+    /**
+     * Collisions
+     *
+     * Gives every particle of the system a radius, starting at the given one,
+     * and makes them bounce with the given restitution.
+     */
+    public Collisions(SystemManager manager, float radius, float restitution){
+
+        system = manager;
+        RADIUS = manager.qualities.defineSparse("radius", Quality.Type.CONTINUOUS, radius, "length").id;
+        this.restitution = restitution;
+
+    }
+
+    /**
+     * resolve
+     *
+     * Finds every pair of touching particles and bounces them apart.
+     */
+    public void resolve(){
+
+        ParticleStore store = system.particles;
+        int n = store.size();
+        ensureCapacity(store.capacity(), n);
+
+        store.read(RADIUS, 0, n, radii);
+        system.read(system.MASS, 0, n, masses);
+        float[] x = store.column(system.X);
+        for(int i=0;i<n;i++){
+            lower[i] = x[i]-radii[i];
+        }
+
+        track(n);
+        sort();
+        sweep(x, store.column(system.Y));
+        float kinetic = respond(x, store.column(system.Y), store.column(system.VX), store.column(system.VY));
+
+        // The push has already added up this step's energy without the bounces, so add everything
+        // they changed, and the step reports the energy the bounces left the particles with.
+        // Anything measuring after this sees the bounced velocities anyway.
+        Diagnostics diagnostics = system.diagnostics;
+        if(diagnostics.measured() && kinetic!=0.0f){
+            diagnostics.add(0, kinetic, 0.0f, 0.0f, 0.0f, 0.0f, 0);
+        }
+    }
+
+    /**
+     * setRestitution
+     *
+     * Changes how bouncy collisions are, from 0 (they stick) to 1 (no energy lost).
+     */
+    public void setRestitution(float value){
+        restitution = value;
+    }
+
+    /**
+     * pairCount
+     *
+     * Returns how many pairs of particles were touching in the last step.
+     */
+    public int pairCount(){
+        return pairCount;
+    }
+
+    /**
+     * remap
+     *
+     * Follows the particles to new indices after they've been put in a new order,
+     * rank[i] being where particle i went, so the sort doesn't have to start over.
+     */
+    public void remap(int[] rank){
+
+        int n = system.particles.size();
+        ensureCapacity(system.particles.capacity(), n);
+        track(n);
+        for(int k=0;k<count;k++){
+            order[k] = rank[order[k]];
+        }
+    }
+
+    /**
+     * track
+     *
+     * Keeps the order holding every particle index exactly once as particles come and go.
+     * Particles removed since last time leave indices past the end, which are dropped,
+     * and new ones are added at the end for the sort to move into place.
+     */
+    private void track(int n){
+
+        if(n<count){
+            int kept = 0;
+            for(int k=0;k<count;k++){
+                if(order[k]<n){
+                    order[kept++] = order[k];
+                }
+            }
+            count = kept;
+        }
+        while(count<n){
+            order[count] = count;
+            count++;
+        }
+    }
+
+    /**
+     * sort
+     *
+     * Insertion sorts the order by where each interval starts. On last step's
+     * nearly sorted order this only moves the few particles that passed each other.
+     */
+    private void sort(){
+
+        int[] o = order;
+        float[] key = lower;
+        for(int k=1;k<count;k++){
+            int id = o[k];
+            float value = key[id];
+            int j = k-1;
+            while(j>=0 && key[o[j]]>value){
+                o[j+1] = o[j];
+                j--;
+            }
+            o[j+1] = id;
+        }
+    }
+
+    /**
+     * sweep
+     *
+     * Walks the sorted intervals collecting pairs of disks that touch.
+     */
+    private void sweep(float[] x, float[] y){
+
+        int[] o = order;
+        float[] key = lower;
+        float[] r = radii;
+        pairCount = 0;
+
+        for(int k=0;k<count;k++){
+
+            int a = o[k];
+            float upper = x[a]+r[a];
+
+            for(int m=k+1;m<count;m++){
+
+                int b = o[m];
+                if(key[b]>upper){
+                    break;
+                }
+
+                float reach = r[a]+r[b];
+                float dy = y[b]-y[a];
+                if(dy>reach || dy<-reach){
+                    continue;
+                }
+                float dx = x[b]-x[a];
+                if(dx*dx + dy*dy<reach*reach){
+                    addPair(a, b);
+                }
+            }
+        }
+    }
+
+    /**
+     * respond
+     *
+     * Bounces every touching pair that's moving together apart, and pushes them out of each other.
+     * Sleepers that get moved are woken. Two sleepers touching are left alone; they were at rest
+     * like that when they fell asleep. Returns how much kinetic energy the bounces changed by.
+     * Each kick is equal and opposite, so momentum doesn't change.
+     */
+    private float respond(float[] x, float[] y, float[] vx, float[] vy){
+
+        float[] r = radii;
+        float[] m = masses;
+        float bounce = 1.0f+restitution;
+        SleepTracker sleep = system.sleep;
+        int awake = system.active();
+        float kinetic = 0.0f;
+
+        for(int p=0;p<pairCount;p++){
+
+            int a = pairs[2*p];
+            int b = pairs[2*p+1];
+            if(a>=awake && b>=awake){
+                continue;
+            }
+
+            float dx = x[b]-x[a];
+            float dy = y[b]-y[a];
+            float distance = (float) Math.sqrt(dx*dx + dy*dy);
+
+            // Disks right on top of each other get pushed apart along x.
+            float nx = 1.0f;
+            float ny = 0.0f;
+            if(distance>0.0f){
+                nx = dx/distance;
+                ny = dy/distance;
+            }
+
+            float inverseA = 1.0f/m[a];
+            float inverseB = 1.0f/m[b];
+            float inverseTotal = 1.0f/(inverseA+inverseB);
+
+            // Only kick them if they're moving towards each other.
+            float closing = (vx[b]-vx[a])*nx + (vy[b]-vy[a])*ny;
+            if(closing<0.0f){
+                float before = m[a]*(vx[a]*vx[a] + vy[a]*vy[a]) + m[b]*(vx[b]*vx[b] + vy[b]*vy[b]);
+                float impulse = -bounce*closing*inverseTotal;
+                vx[a] -= impulse*inverseA*nx;
+                vy[a] -= impulse*inverseA*ny;
+                vx[b] += impulse*inverseB*nx;
+                vy[b] += impulse*inverseB*ny;
+                float after = m[a]*(vx[a]*vx[a] + vy[a]*vy[a]) + m[b]*(vx[b]*vx[b] + vy[b]*vy[b]);
+                kinetic += 0.5f*(after-before);
+            }
+
+            // Push them out of each other, the lighter one further.
+            float overlap = (r[a]+r[b]-distance)*CORRECTION*inverseTotal;
+            x[a] -= overlap*inverseA*nx;
+            y[a] -= overlap*inverseA*ny;
+            x[b] += overlap*inverseB*nx;
+            y[b] += overlap*inverseB*ny;
+
+            if(sleep!=null){
+                sleep.disturb(a);
+                sleep.disturb(b);
+            }
+        }
+
+        return kinetic;
+    }
+
+    /**
+     * addPair
+     *
+     * Remembers a pair of touching particles.
+     */
+    private void addPair(int a, int b){
+
+        if(2*pairCount+2>pairs.length){
+            int[] bigger = new int[2*pairs.length];
+            System.arraycopy(pairs, 0, bigger, 0, 2*pairCount);
+            pairs = bigger;
+        }
+
+        pairs[2*pairCount] = a;
+        pairs[2*pairCount+1] = b;
+        pairCount++;
+    }
+
+    /**
+     * ensureCapacity
+     *
+     * Makes sure there's room for every particle, keeping the order.
+     */
+    private void ensureCapacity(int capacity, int n){
+
+        if(order.length<n){
+            int[] bigger = new int[capacity];
+            System.arraycopy(order, 0, bigger, 0, count);
+            order = bigger;
+            lower = new float[capacity];
+            radii = new float[capacity];
+            masses = new float[capacity];
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package physics.plasma.particlepush;
+
+import java.util.Arrays;
+
+/**
+ * Diagnostics
+ *
+ * This keeps track of the totals that tell whether a run is behaving: the particles'
+ * kinetic energy, their momentum, their temperature, and their total charge.
+ *
+ * Going over every particle again just to add these up would cost as much memory traffic as
+ * a push, so instead the push adds them up as it goes, since it has every particle's mass,
+ * charge and velocity in hand anyway. Each worker adds into its own partial sums, and at the
+ * end of the step they're merged into the totals. Integrators that don't use the push get
+ * one pass over the velocities at the end of the step instead.
+ *
+ * Velocities in the leapfrog push are half a step out of time with positions, so the kinetic
+ * energy is taken from the average of each particle's squared speed before and after its kick.
+ * The temperature is the kinetic energy left once the motion of the whole is taken out, per
+ * particle, in units where Boltzmann's constant is 1 and particles move in two dimensions.
+ *
+ * Every step's totals are also written into a ring buffer of fixed size, made up front,
+ * so a time series of the last few thousand steps is always there for the asking.
+ */
+public class Diagnostics {
+
+    // Which total is which, in the partial sums and in the time series.
+    public static final int TIME = 0;
+    public static final int KINETIC_ENERGY = 1;
+    public static final int MOMENTUM_X = 2;
+    public static final int MOMENTUM_Y = 3;
+    public static final int TEMPERATURE = 4;
+    public static final int CHARGE = 5;
+    public static final int MASS = 6;
+    public static final int COUNT = 7;
+    public static final int QUANTITIES = 8;
+
+    // How long each worker's row of partial sums is. It's padded out past the quantities so
+    // two workers' sums never share a cache line, or every add would fight over it.
+    private static final int STRIDE = 16;
+
+    // Each worker's partial sums for this step, and whether anyone has added to them.
+    private double[][] partial = new double[1][STRIDE];
+    private volatile boolean measured;
+
+    // The totals from the last step.
+    private final double[] totals = new double[QUANTITIES];
+
+    // The last steps' totals, one row per quantity, oldest overwritten first:
+    // where the next one goes and how many there are.
+    private final float[][] series;
+    private int head;
+    private int length;
+
+    // The most particles measured separately at a time.
+    private static final int CHUNK = 256;
+
+    // Each worker's room for the charges and masses of a chunk when measuring separately.
+    private float[][] chargeScratch = new float[1][0];
+    private float[][] massScratch = new float[1][0];
+
+    /**
+     * Diagnostics
+     *
+     * Creates diagnostics that keep the given number of steps of history.
+     */
+    public Diagnostics(int historyLength){
+
+        if(historyLength<1){
+            throw new IllegalArgumentException("The history needs room for at least one step.");
+        }
+
+        series = new float[QUANTITIES][historyLength];
+
+    }
+
+    /**
+     * ensureWorkers
+     *
+     * Makes sure every worker has its own partial sums, and room to measure a chunk of
+     * a store with the given capacity, so measuring never has to allocate.
+     */
+    public void ensureWorkers(int workers, int capacity){
+
+        int size = Math.min(CHUNK, Math.max(1, capacity));
+        if(partial.length<workers || chargeScratch[0].length<size){
+            partial = new double[Math.max(workers, partial.length)][STRIDE];
+            chargeScratch = new float[partial.length][size];
+            massScratch = new float[partial.length][size];
+        }
+    }
+
+    /**
+     * begin
+     *
+     * Clears the partial sums at the start of a step.
+     */
+    public void begin(){
+
+        for(double[] sums : partial){
+            Arrays.fill(sums, 0.0);
+        }
+        measured = false;
+    }
+
+    /**
+     * add
+     *
+     * Adds a chunk's kinetic energy, momentum, charge, mass, and particle count
+     * into a worker's partial sums.
+     */
+    public void add(int worker, float kinetic, float momentumX, float momentumY, float charge, float mass, int count){
+
+        double[] sums = partial[worker];
+        sums[KINETIC_ENERGY] += kinetic;
+        sums[MOMENTUM_X] += momentumX;
+        sums[MOMENTUM_Y] += momentumY;
+        sums[CHARGE] += charge;
+        sums[MASS] += mass;
+        sums[COUNT] += count;
+        measured = true;
+    }
+
+    /**
+     * measure
+     *
+     * Adds up particles from..to-1 of the system straight from their velocities, for
+     * integrators that don't push through the Boris pusher. Runs in chunks like any other loop.
+     */
+    public void measure(SystemManager system, int from, int to, int worker){
+
+        ParticleStore store = system.particles;
+        float[] vx = store.column(system.VX);
+        float[] vy = store.column(system.VY);
+        float[] q = chargeScratch[worker];
+        float[] m = massScratch[worker];
+
+        for(int start=from;start<to;start+=q.length){
+
+            int end = Math.min(to, start+q.length);
+            system.read(system.CHARGE, start, end, q);
+            system.read(system.MASS, start, end, m);
+
+            float kinetic = 0.0f;
+            float momentumX = 0.0f;
+            float momentumY = 0.0f;
+            float charge = 0.0f;
+            float mass = 0.0f;
+            for(int i=start;i<end;i++){
+                float mi = m[i-start];
+                float px = mi*vx[i];
+                float py = mi*vy[i];
+                kinetic += 0.5f*(px*vx[i] + py*vy[i]);
+                momentumX += px;
+                momentumY += py;
+                charge += q[i-start];
+                mass += mi;
+            }
+
+            add(worker, kinetic, momentumX, momentumY, charge, mass, end-start);
+        }
+    }
+
+    /**
+     * measured
+     *
+     * Tells whether anything has been added this step.
+     */
+    public boolean measured(){
+        return measured;
+    }
+
+    /**
+     * end
+     *
+     * Merges every worker's partial sums into the totals at the end of a step,
+     * and records them in the time series.
+     */
+    public synchronized void end(double time){
+
+        Arrays.fill(totals, 0.0);
+        for(double[] sums : partial){
+            for(int k=0;k<QUANTITIES;k++){
+                totals[k] += sums[k];
+            }
+        }
+
+        totals[TIME] = time;
+        double count = totals[COUNT];
+        double mass = totals[MASS];
+        double bulk = 0.0;
+        if(mass>0.0){
+            bulk = 0.5*(totals[MOMENTUM_X]*totals[MOMENTUM_X] + totals[MOMENTUM_Y]*totals[MOMENTUM_Y])/mass;
+        }
+        totals[TEMPERATURE] = count>0.0 ? (totals[KINETIC_ENERGY]-bulk)/count : 0.0;
+
+        for(int k=0;k<QUANTITIES;k++){
+            series[k][head] = (float) totals[k];
+        }
+        head = (head+1)%series[0].length;
+        length = Math.min(length+1, series[0].length);
+    }
+
+    /**
+     * get
+     *
+     * Returns one of the totals from the last step, by quantity id.
+     */
+    public synchronized double get(int quantity){
+        return totals[quantity];
+    }
+
+    /**
+     * kineticEnergy
+     *
+     * Returns the particles' total kinetic energy at the last step.
+     */
+    public double kineticEnergy(){
+        return get(KINETIC_ENERGY);
+    }
+
+    /**
+     * temperature
+     *
+     * Returns the particles' temperature at the last step.
+     */
+    public double temperature(){
+        return get(TEMPERATURE);
+    }
+
+    /**
+     * series
+     *
+     * Copies the recorded history of one quantity into dst, as many of the latest steps
+     * as fit, oldest first, and returns how many steps were copied.
+     */
+    public synchronized int series(int quantity, float[] dst){
+
+        int capacity = series[0].length;
+        int copied = Math.min(length, dst.length);
+        int start = (head-copied+capacity)%capacity;
+        float[] row = series[quantity];
+        for(int k=0;k<copied;k++){
+            dst[k] = row[(start+k)%capacity];
+        }
+
+        return copied;
+    }
+
+    /**
+     * seriesLength
+     *
+     * Returns how many steps of history there are.
+     */
+    public synchronized int seriesLength(){
+        return length;
+    }
+}
@@ -0,0 +1,359 @@
+package physics.plasma.particlepush;
+
+/**
+ * FFT
+ *
+ * This is a fast Fourier transform of one fixed length, planned once up front so that
+ * transforming allocates nothing and works out no sines or cosines.
+ *
+ * Data is complex and interleaved: element k's real part is data[2k] and its imaginary
+ * part data[2k+1]. The transform is done in place.
+ *
+ * Real data of twice the length can be transformed too, with forwardReal() and inverseReal().
+ * The even samples go in as the real parts and the odd ones as the imaginary parts of one
+ * complex transform, and the two spectra are pulled apart afterwards, which costs about
+ * half of transforming the real data as complex. Only the first half of a real signal's
+ * spectrum is kept, since the rest is its mirror image.
+ *
+ * A power of two length uses the classic radix-2 transform: shuffle the elements into
+ * bit reversed order, then combine pairs, then pairs of pairs, and so on. Any other length
+ * is split into its prime factors (taking fours first) and done in stages of those sizes,
+ * Stockham style, bouncing between the data and a work array of the same size. That keeps
+ * lengths like 96 or 384 fast, though lengths with a large prime factor are slower.
+ */
+public class FFT {
+
+    // How many complex elements are transformed.
+    private final int n;
+
+    // cos and sin of 2 pi t/n for every t, which covers every twiddle factor either path needs.
+    private final float[] cos;
+    private final float[] sin;
+
+    // For power of two lengths, where each element goes when shuffled into bit reversed order.
+    private final int[] reversed;
+
+    // For other lengths, the factors to do stages of, a work array to bounce between,
+    // and room for one butterfly's inputs and outputs.
+    private final int[] factors;
+    private final float[] work;
+    private final float[] inputs;
+    private final float[] outputs;
+
+    // For real transforms, cos and sin of pi t/n for t from 0 to n, which are the twiddles
+    // that join the even and odd halves, and room for the packed complex data.
+    private final float[] halfCos;
+    private final float[] halfSin;
+    private final float[] packed;
+
+    /**
+     * FFT
+     *
+     * Plans transforms of the given length.
+     */
+    public FFT(int length){
+
+        if(length<1){
+            throw new IllegalArgumentException("Transforms need at least one element.");
+        }
+
+        n = length;
+        cos = new float[n];
+        sin = new float[n];
+        for(int t=0;t<n;t++){
+            double angle = 2.0*Math.PI*t/n;
+            cos[t] = (float) Math.cos(angle);
+            sin[t] = (float) Math.sin(angle);
+        }
+        halfCos = new float[n+1];
+        halfSin = new float[n+1];
+        for(int t=0;t<=n;t++){
+            double angle = Math.PI*t/n;
+            halfCos[t] = (float) Math.cos(angle);
+            halfSin[t] = (float) Math.sin(angle);
+        }
+        packed = new float[2*n];
+
+        if((n&(n-1))==0){
+
+            reversed = new int[n];
+            int bits = Integer.numberOfTrailingZeros(n);
+            for(int i=0;i<n;i++){
+                reversed[i] = bits==0 ? 0 : Integer.reverse(i)>>>(32-bits);
+            }
+            factors = null;
+            work = null;
+            inputs = null;
+            outputs = null;
+
+        }
+        else{
+
+            reversed = null;
+            factors = factor(n);
+            int largest = 0;
+            for(int p : factors){
+                largest = Math.max(largest, p);
+            }
+            work = new float[2*n];
+            inputs = new float[2*largest];
+            outputs = new float[2*largest];
+
+        }
+    }
+
+    /**
+     * size
+     *
+     * Returns how many complex elements this transforms.
+     */
+    public int size(){
+        return n;
+    }
+
+    /**
+     * forward
+     *
+     * Replaces data with its discrete Fourier transform, sum over j of data[j] exp(-2 pi i jk/n).
+     */
+    public void forward(float[] data){
+
+        if(reversed!=null){
+            radix2(data);
+        }
+        else{
+            mixed(data);
+        }
+    }
+
+    /**
+     * inverse
+     *
+     * Undoes forward(), including the division by n.
+     */
+    public void inverse(float[] data){
+
+        // The inverse is the forward transform of the conjugate, conjugated.
+        for(int k=1;k<2*n;k+=2){
+            data[k] = -data[k];
+        }
+        forward(data);
+        float scale = 1.0f/n;
+        for(int k=0;k<2*n;k+=2){
+            data[k] *= scale;
+            data[k+1] *= -scale;
+        }
+    }
+
+    /**
+     * forwardReal
+     *
+     * Transforms 2*size() real samples into the first size()+1 complex elements of their
+     * spectrum, interleaved the same way as forward() leaves them, so spectrum needs
+     * 2*size()+2 floats. The real data is left alone.
+     */
+    public void forwardReal(float[] real, float[] spectrum){
+
+        float[] z = packed;
+        System.arraycopy(real, 0, z, 0, 2*n);
+        forward(z);
+
+        for(int k=0;k<=n;k++){
+
+            // Pull the spectra of the even and odd samples apart.
+            int a = 2*(k%n);
+            int b = 2*((n-k)%n);
+            float evenRe = 0.5f*(z[a] + z[b]);
+            float evenIm = 0.5f*(z[a+1] - z[b+1]);
+            float oddRe = 0.5f*(z[a+1] + z[b+1]);
+            float oddIm = -0.5f*(z[a] - z[b]);
+
+            // And join them, twisting the odd one by exp(-i pi k/n).
+            float wr = halfCos[k];
+            float wi = -halfSin[k];
+            spectrum[2*k] = evenRe + oddRe*wr - oddIm*wi;
+            spectrum[2*k+1] = evenIm + oddRe*wi + oddIm*wr;
+        }
+    }
+
+    /**
+     * inverseReal
+     *
+     * Undoes forwardReal(), turning the first size()+1 elements of a real signal's spectrum
+     * back into its 2*size() samples, including the division by the length.
+     * The spectrum is left alone.
+     */
+    public void inverseReal(float[] spectrum, float[] real){
+
+        float[] z = packed;
+        for(int k=0;k<n;k++){
+
+            // Element k+n of the whole spectrum is the conjugate of element n-k.
+            int a = 2*k;
+            int b = 2*(n-k);
+            float evenRe = 0.5f*(spectrum[a] + spectrum[b]);
+            float evenIm = 0.5f*(spectrum[a+1] - spectrum[b+1]);
+            float diffRe = 0.5f*(spectrum[a] - spectrum[b]);
+            float diffIm = 0.5f*(spectrum[a+1] + spectrum[b+1]);
+
+            // Untwist the odd half by exp(i pi k/n), then pack it in as the imaginary part.
+            float wr = halfCos[k];
+            float wi = halfSin[k];
+            float oddRe = diffRe*wr - diffIm*wi;
+            float oddIm = diffRe*wi + diffIm*wr;
+            z[a] = evenRe - oddIm;
+            z[a+1] = evenIm + oddRe;
+        }
+
+        inverse(z);
+        System.arraycopy(z, 0, real, 0, 2*n);
+    }
+
+    /**
+     * radix2
+     *
+     * The in place power of two transform.
+     */
+    private void radix2(float[] data){
+
+        int[] order = reversed;
+        for(int i=0;i<n;i++){
+            int j = order[i];
+            if(i<j){
+                float re = data[2*i];
+                float im = data[2*i+1];
+                data[2*i] = data[2*j];
+                data[2*i+1] = data[2*j+1];
+                data[2*j] = re;
+                data[2*j+1] = im;
+            }
+        }
+
+        for(int size=2;size<=n;size*=2){
+            int half = size/2;
+            int step = n/size;
+            for(int start=0;start<n;start+=size){
+                for(int k=0;k<half;k++){
+
+                    float wr = cos[k*step];
+                    float wi = -sin[k*step];
+                    int a = 2*(start+k);
+                    int b = 2*(start+k+half);
+
+                    float tr = data[b]*wr - data[b+1]*wi;
+                    float ti = data[b]*wi + data[b+1]*wr;
+                    data[b] = data[a]-tr;
+                    data[b+1] = data[a+1]-ti;
+                    data[a] += tr;
+                    data[a+1] += ti;
+                }
+            }
+        }
+    }
+
+    /**
+     * mixed
+     *
+     * The mixed radix transform: one Stockham stage per factor. Each stage takes
+     * groups of p elements n/p apart, twists them by the twiddle factors, does a
+     * length p transform on them, and spreads the results out so no shuffle is needed.
+     */
+    private void mixed(float[] data){
+
+        float[] from = data;
+        float[] to = work;
+        float[] in = inputs;
+        float[] out = outputs;
+
+        // How long the transforms finished so far are.
+        int done = 1;
+
+        for(int p : factors){
+
+            int stride = n/p;
+            int span = done*p;
+            int scale = n/span;
+            int unit = n/p;
+
+            for(int j=0;j<stride;j++){
+
+                int k = j%done;
+
+                // Gather and twist the inputs.
+                for(int r=0;r<p;r++){
+                    int source = 2*(j + r*stride);
+                    int t = r*k*scale;
+                    float wr = cos[t];
+                    float wi = -sin[t];
+                    float re = from[source];
+                    float im = from[source+1];
+                    in[2*r] = re*wr - im*wi;
+                    in[2*r+1] = re*wi + im*wr;
+                }
+
+                // A plain length p transform of them.
+                for(int s=0;s<p;s++){
+                    float re = 0.0f;
+                    float im = 0.0f;
+                    for(int r=0;r<p;r++){
+                        int t = ((r*s)%p)*unit;
+                        float wr = cos[t];
+                        float wi = -sin[t];
+                        re += in[2*r]*wr - in[2*r+1]*wi;
+                        im += in[2*r]*wi + in[2*r+1]*wr;
+                    }
+                    out[2*s] = re;
+                    out[2*s+1] = im;
+                }
+
+                // Spread them out to where the next stage wants them.
+                int base = (j/done)*span + k;
+                for(int s=0;s<p;s++){
+                    to[2*(base + s*done)] = out[2*s];
+                    to[2*(base + s*done)+1] = out[2*s+1];
+                }
+            }
+
+            float[] swap = from;
+            from = to;
+            to = swap;
+            done = span;
+        }
+
+        if(from!=data){
+            System.arraycopy(from, 0, data, 0, 2*n);
+        }
+    }
+
+    /**
+     * factor
+     *
+     * Splits a length into the sizes of the stages to do it in: fours first,
+     * then whatever twos, threes, fives and other primes are left.
+     */
+    private static int[] factor(int length){
+
+        int[] found = new int[32];
+        int count = 0;
+        int rest = length;
+
+        while(rest%4==0){
+            found[count++] = 4;
+            rest /= 4;
+        }
+        for(int p=2;p*p<=rest;p++){
+            while(rest%p==0){
+                found[count++] = p;
+                rest /= p;
+            }
+        }
+        if(rest>1){
+            found[count++] = rest;
+        }
+
+        int[] result = new int[count];
+        System.arraycopy(found, 0, result, 0, count);
+
+        return result;
+    }
+}
@@ -0,0 +1,42 @@
+package physics.plasma.particlepush;
+
+/**
+ * ForceProvider
+ *
+ * This is anything that pushes particles around: long range Coulomb forces, short range
+ * screened forces, a field solver, and so on. The System Manager keeps a list of them and
+ * asks each one for its contribution every step.
+ *
+ * What a provider adds is the electric field at each particle, into the manager's
+ * EX and EY columns. The integrator turns that into an acceleration with each particle's
+ * charge to mass ratio, so providers never need to know about the particle being pushed.
+ */
+public interface ForceProvider {
+
+    /**
+     * prepare
+     *
+     * Called once per step before any accumulate, on the simulation thread.
+     * This is where a provider builds whatever it needs from the particles' current positions,
+     * like a tree or a grid, and makes sure it has scratch memory for system.workers() workers.
+     */
+    void prepare(SystemManager system);
+
+    /**
+     * accumulate
+     *
+     * Adds this provider's field at particles from..to-1 into the EX and EY columns.
+     * Different ranges can be accumulated at the same time on different threads, each with its
+     * own worker number, so anything written besides those particles' fields has to be per worker.
+     */
+    void accumulate(SystemManager system, int from, int to, int worker);
+
+    /**
+     * changes
+     *
+     * Returns a count that goes up whenever something other than the particles moving changes
+     * the field this provider gives, like one of its settings. Integrators reuse the field from
+     * the end of one step at the start of the next, and this is how they know it's gone stale.
+     */
+    int changes();
+}
@@ -0,0 +1,93 @@
+package physics.plasma.particlepush;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FrameExchange
+ *
+ * This hands complete frames of particle data from the simulation to the renderer
+ * without either of them ever waiting on the other. It's a triple buffer:
+ *
+ *      The simulation always writes into its own back buffer.
+ *      When a frame is done it swaps the back buffer with the middle one in a single atomic step.
+ *      The renderer always draws its own front buffer, and when the middle one holds
+ *      a newer frame it swaps that in, again in a single atomic step.
+ *
+ * Neither side ever touches a buffer the other one owns, so the renderer can't see
+ * a half written frame and there's no locking or per-value volatile traffic at all.
+ * The simulation and renderer can also run at completely different rates; if the
+ * simulation is faster the renderer just skips to the newest frame.
+ */
+public class FrameExchange {
+
+    // The middle buffer's index lives in the low bits, with a flag above it
+    // set when the middle holds a frame the renderer hasn't picked up yet.
+    private static final int INDEX = 3;
+    private static final int FRESH = 4;
+
+    // The three buffers that rotate between the two threads.
+    private final ParticleVertexBuffer[] buffers;
+
+    // Index of the middle buffer plus the fresh flag, shared by both threads.
+    private final AtomicInteger middle;
+
+    // Only ever touched by the simulation thread.
+    private int back;
+
+    // Only ever touched by the rendering thread.
+    private int front;
+
+    /**
+     * FrameExchange
+     *
+     * Creates the three buffers, each with room for the given number of particles.
+     */
+    public FrameExchange(int capacity){
+
+        buffers = new ParticleVertexBuffer[3];
+        for(int i=0;i<buffers.length;i++){
+            buffers[i] = new ParticleVertexBuffer(capacity);
+        }
+
+        front = 0;
+        middle = new AtomicInteger(1);
+        back = 2;
+    }
+
+    /**
+     * back
+     *
+     * Returns the buffer the simulation should write the next frame into.
+     * Only call this from the simulation thread.
+     */
+    public ParticleVertexBuffer back(){
+        return buffers[back];
+    }
+
+    /**
+     * publish
+     *
+     * Makes the frame in the back buffer available to the renderer and takes
+     * the old middle buffer as the new back buffer.
+     * Only call this from the simulation thread.
+     */
+    public void publish(){
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    /**
+     * acquire
+     *
+     * Returns the newest complete frame. If nothing new has been published since
+     * the last call, it's the same frame as last time.
+     * Only call this from the rendering thread.
+     */
+    public ParticleVertexBuffer acquire(){
+
+        if((middle.get() & FRESH)!=0){
+            front = middle.getAndSet(front) & INDEX;
+        }
+
+        return buffers[front];
+    }
+}
@@ -22,6 +22,9 @@ public class GLTouchSurfaceView extends GLSurfaceView {
     // Coordinate value array that can be accessed across threads
     volatile public float[] coords = new float[10];
 
+    // The manager's pointers, which every touch is handed to once a manager is attached.
+    public PointerField pointers;
+
     /**
      * TouchSurfaceView
      *
@@ -54,7 +57,6 @@ public class GLTouchSurfaceView extends GLSurfaceView {
     @Override
     public boolean onTouchEvent(MotionEvent e){
 
-        // TODO Change touch interface to interact with the new Pointer class.
         // Determine what to do based on the current type of action in the gesture
         switch (e.getActionMasked()){
 
@@ -69,6 +71,7 @@ public class GLTouchSurfaceView extends GLSurfaceView {
                     coords[(2*i)+1] = e.getY(i);
                 }
                 renderer.setCoords(coords);
+                touch(e);
 
                 break;
 
@@ -83,6 +86,7 @@ public class GLTouchSurfaceView extends GLSurfaceView {
                     coords[(2*i)+1] = e.getY(i);
                 }
                 renderer.setCoords(coords);
+                touch(e);
 
                 break;
 
@@ -96,6 +100,7 @@ public class GLTouchSurfaceView extends GLSurfaceView {
                     coords[(2*i)+1] = e.getY(i);
                 }
                 renderer.setCoords(coords);
+                touch(e);
 
                 break;
 
@@ -104,15 +109,43 @@ public class GLTouchSurfaceView extends GLSurfaceView {
             // Although it may be that only one still has touch coordinates.
             case MotionEvent.ACTION_POINTER_UP:
 
+                // Lift the pointer of the finger that came up.
+                if(pointers!=null){
+                    pointers.release(e.getPointerId(e.getActionIndex()));
+                }
+
                 break;
 
             // This is called when the last pointer comes up;
             // There should only be one pointer in this kind of event,
             // and it should have invalid touch coordinates. (Since it lifted off the screen)
             case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+
+                // Lift every pointer.
+                if(pointers!=null){
+                    pointers.releaseAll();
+                }
 
                 break;
         }
         return true;
     }
+
+    /**
+     * touch
+     *
+     * Moves every finger's pointer to where the finger is now, putting down new ones
+     * for new fingers, in the coordinates the particles live in.
+     */
+    private void touch(MotionEvent e){
+
+        if(pointers==null){
+            return;
+        }
+
+        for(int i=0;i<e.getPointerCount();i++){
+            pointers.touch(e.getPointerId(i), renderer.worldX(e.getX(i)), renderer.worldY(e.getY(i)));
+        }
+    }
 }
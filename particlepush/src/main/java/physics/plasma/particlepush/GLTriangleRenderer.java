@@ -25,13 +25,16 @@ public class GLTriangleRenderer implements GLSurfaceView.Renderer{
     // Open GL coordinates for positioning triangles
     private float[] coords = new float[10];
 
+    // Frames of particle vertex data published by the System Manager, drawn as points.
+    private FrameExchange particleFrames;
+
     // Names are pretty self evident. Based on orientation though, so they change.
     private float screenWidth;
     private float screenHeight;
 
     /** This is the data that sets up the buffers passed into OpenGL */
     // How many bytes per float.
-    private final int mBytesPerFloat = 4;
+    private final int mBytesPerFloat = ParticleVertexBuffer.BYTES_PER_FLOAT;
     // How many elements per vertex.
     private final int mStrideBytes = 7 * mBytesPerFloat;
     // Offset of the position data.
@@ -41,7 +44,7 @@ public class GLTriangleRenderer implements GLSurfaceView.Renderer{
     // Offset of the color data.
     private final int mColorOffset = 3;
     // Size of the color data in elements.
-    private final int mColorDataSize = 4;
+    private final int mColorDataSize = ParticleVertexBuffer.COLOR_SIZE;
 
     /**
      * Transformation Matrices:
@@ -70,6 +73,13 @@ public class GLTriangleRenderer implements GLSurfaceView.Renderer{
     private int mPositionHandle;
     // This will be used to pass in model color information.
     private int mColorHandle;
+    // These will be used to pass in where particles were a step ago,
+    // and how far to blend from there to where they are now.
+    private int mPreviousPositionHandle;
+    private int mAlphaHandle;
+    // Particles' y coordinates, now and a step ago, which come in their own buffers.
+    private int mYHandle;
+    private int mPreviousYHandle;
 
     /**
      * GLTriangleRenderer
@@ -117,9 +127,13 @@ public class GLTriangleRenderer implements GLSurfaceView.Renderer{
 
         final String vertexShader =
           "uniform mat4 u_MVPMatrix;      \n"		// A constant representing the combined model/view/projection matrix.
+        + "uniform float u_Alpha;         \n"		// How far to blend from the previous position to the current one.
 
         + "attribute vec4 a_Position;     \n"		// Per-vertex position information we will pass in.
         + "attribute vec4 a_Color;        \n"		// Per-vertex color information we will pass in.
+        + "attribute vec4 a_PreviousPosition;\n"	// Per-vertex position one simulation step earlier.
+        + "attribute float a_Y;           \n"		// Particles' x and y come in separate buffers, so
+        + "attribute float a_PreviousY;   \n"		// their y is added on here. It's 0 for triangles.
 
         + "varying vec4 v_Color;          \n"		// This will be passed into the fragment shader.
 
@@ -127,9 +141,14 @@ public class GLTriangleRenderer implements GLSurfaceView.Renderer{
         + "{                              \n"
         + "   v_Color = a_Color;          \n"		// Pass the color through to the fragment shader.
                                                     // It will be interpolated across the triangle.
+        + "   vec4 before = a_PreviousPosition + vec4(0.0, a_PreviousY, 0.0, 0.0);\n"
+        + "   vec4 now = a_Position + vec4(0.0, a_Y, 0.0, 0.0);\n"
         + "   gl_Position = u_MVPMatrix   \n" 	    // gl_Position is a special variable used to store the final position.
-        + "               * a_Position;   \n"       // Multiply the vertex by the matrix to get the final point in
-        + "}                              \n";      // normalized screen coordinates.
+        + "     * mix(before, now, u_Alpha);\n"     // Multiply the vertex, blended between the last two steps,
+                                                    // by the matrix to get the final point in
+                                                    // normalized screen coordinates.
+        + "   gl_PointSize = 6.0;         \n"       // Size of a particle when drawn as a point. Ignored for triangles.
+        + "}                              \n";
 
         final String fragmentShader =
           "precision mediump float;       \n"		// Set the default precision to medium. We don't need as high of a
@@ -164,6 +183,9 @@ public class GLTriangleRenderer implements GLSurfaceView.Renderer{
             // Bind attributes
             GLES20.glBindAttribLocation(programHandle, 0, "a_Position");
             GLES20.glBindAttribLocation(programHandle, 1, "a_Color");
+            GLES20.glBindAttribLocation(programHandle, 2, "a_PreviousPosition");
+            GLES20.glBindAttribLocation(programHandle, 3, "a_Y");
+            GLES20.glBindAttribLocation(programHandle, 4, "a_PreviousY");
 
             // Link the two shaders together into the program.
             GLES20.glLinkProgram(programHandle);
@@ -191,6 +213,10 @@ public class GLTriangleRenderer implements GLSurfaceView.Renderer{
         mMVPMatrixHandle = GLES20.glGetUniformLocation(programHandle, "u_MVPMatrix");
         mPositionHandle = GLES20.glGetAttribLocation(programHandle, "a_Position");
         mColorHandle = GLES20.glGetAttribLocation(programHandle, "a_Color");
+        mPreviousPositionHandle = GLES20.glGetAttribLocation(programHandle, "a_PreviousPosition");
+        mAlphaHandle = GLES20.glGetUniformLocation(programHandle, "u_Alpha");
+        mYHandle = GLES20.glGetAttribLocation(programHandle, "a_Y");
+        mPreviousYHandle = GLES20.glGetAttribLocation(programHandle, "a_PreviousY");
 
         // Tell OpenGL to use the created program when rendering.
         GLES20.glUseProgram(programHandle);
@@ -273,6 +299,71 @@ public class GLTriangleRenderer implements GLSurfaceView.Renderer{
         for(int i=0;(2*i)<coords.length;i++){
             drawTriangle(triangle.getModelBuffer(coords[2*i],coords[(2*i)+1],angleInDegrees));
         }
+
+        // Draw every particle out of the newest complete frame the simulation published.
+        if(particleFrames!=null){
+            drawParticles(particleFrames.acquire());
+        }
+    }
+
+    /**
+     * drawParticles
+     *
+     * Draws every particle in the given vertex buffer as a point, in a single draw call.
+     * The positions are already in world coordinates, so there's no model matrix
+     * and no per-particle work at all on this thread.
+     */
+    public void drawParticles(final ParticleVertexBuffer aParticleBuffer){
+
+        int count = aParticleBuffer.count();
+        if(count==0){
+            return;
+        }
+
+        // Pass in the position information. X goes in as the first component of the position,
+        // and the shader adds Y on from its own buffer.
+        bindColumn(mPositionHandle, aParticleBuffer.xBuffer());
+        bindColumn(mYHandle, aParticleBuffer.yBuffer());
+
+        // Pass in the color information
+        FloatBuffer colors = aParticleBuffer.colorBuffer();
+        colors.position(0);
+        GLES20.glVertexAttribPointer(mColorHandle, mColorDataSize, GLES20.GL_FLOAT, false, 0, colors);
+        GLES20.glEnableVertexAttribArray(mColorHandle);
+
+        // Pass in the positions a step ago, and how far between the two steps we are right now.
+        bindColumn(mPreviousPositionHandle, aParticleBuffer.previousXBuffer());
+        bindColumn(mPreviousYHandle, aParticleBuffer.previousYBuffer());
+        GLES20.glUniform1f(mAlphaHandle, aParticleBuffer.interpolation(System.nanoTime()));
+
+        // With no model matrix the final matrix is just projection * view.
+        Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mViewMatrix, 0);
+
+        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mMVPMatrix, 0);
+        GLES20.glDrawArrays(GLES20.GL_POINTS, 0, count);
+
+    }
+
+    /**
+     * bindColumn
+     *
+     * Hands OpenGL one coordinate of every particle, tightly packed, as the given attribute.
+     */
+    private void bindColumn(int handle, FloatBuffer column){
+
+        column.position(0);
+        GLES20.glVertexAttribPointer(handle, 1, GLES20.GL_FLOAT, false, 0, column);
+        GLES20.glEnableVertexAttribArray(handle);
+    }
+
+    /**
+     * setParticleFrames
+     *
+     * Hands the renderer the exchange the System Manager publishes particle frames through.
+     * This should be done before the renderer starts drawing.
+     */
+    public void setParticleFrames(FrameExchange frames){
+        particleFrames = frames;
     }
 
     // TODO The actual rendering methods should be moved into the Particle class if possible
@@ -295,6 +386,15 @@ public class GLTriangleRenderer implements GLSurfaceView.Renderer{
                 mStrideBytes, aTriangleBuffer);
         GLES20.glEnableVertexAttribArray(mColorHandle);
 
+        // Triangles don't move between steps, so there's nothing to blend,
+        // and their whole position is in the vertex data.
+        GLES20.glDisableVertexAttribArray(mPreviousPositionHandle);
+        GLES20.glDisableVertexAttribArray(mYHandle);
+        GLES20.glDisableVertexAttribArray(mPreviousYHandle);
+        GLES20.glVertexAttrib1f(mYHandle, 0.0f);
+        GLES20.glVertexAttrib1f(mPreviousYHandle, 0.0f);
+        GLES20.glUniform1f(mAlphaHandle, 1.0f);
+
         // This multiplies the view matrix by the model matrix,
         // and stores the result in the MVP matrix
         // (which then contains model * view).
@@ -319,22 +419,46 @@ public class GLTriangleRenderer implements GLSurfaceView.Renderer{
      */
     public void setCoords(float[] in){
 
+        for(int i=0;(2*i)<in.length;i++){
+            coords[2*i] = worldX(in[2*i]);
+            coords[(2*i)+1] = worldY(in[(2*i)+1]);
+        }
+
+    }
+
+    /**
+     * worldX
+     *
+     * This converts a touch's distance in pixels from the left of the screen into
+     * OpenGL's rendering coordinates, where the particles live. The shorter side of the
+     * screen always runs from -1 to 1.
+     */
+    public float worldX(float x){
+
         // Portrait View
         if(screenWidth<=screenHeight){
-            for(int i=0;(2*i)<in.length;i++){
-                coords[2*i] = (in[2*i]-(screenWidth/2))*(2/screenWidth);
-                coords[(2*i)+1] = ((screenHeight/2)-in[(2*i)+1])*(2/screenHeight)*(screenHeight/screenWidth);
-            }
+            return (x-(screenWidth/2))*(2/screenWidth);
         }
 
         // Landscape View
-        else if(screenHeight<screenWidth){
-            for(int i=0;(2*i)<in.length;i++){
-                coords[2*i] = (in[2*i]-(screenWidth/2))*(2/screenWidth)*(screenWidth/screenHeight);
-                coords[(2*i)+1] = ((screenHeight/2)-in[(2*i)+1])*(2/screenHeight);
-            }
+        return (x-(screenWidth/2))*(2/screenWidth)*(screenWidth/screenHeight);
+    }
+
+    /**
+     * worldY
+     *
+     * This converts a touch's distance in pixels from the top of the screen into
+     * OpenGL's rendering coordinates, where up is positive.
+     */
+    public float worldY(float y){
+
+        // Portrait View
+        if(screenWidth<=screenHeight){
+            return ((screenHeight/2)-y)*(2/screenHeight)*(screenHeight/screenWidth);
         }
 
+        // Landscape View
+        return ((screenHeight/2)-y)*(2/screenHeight);
     }
 
     /**
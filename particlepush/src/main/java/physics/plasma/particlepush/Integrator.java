@@ -0,0 +1,32 @@
+package physics.plasma.particlepush;
+
+/**
+ * Integrator
+ *
+ * This is a way of moving particles forward in time. The System Manager hands it the
+ * whole step, and it works on the position and velocity columns all at once, calling
+ * computeFields() on the manager whenever it needs the field at the particles' current
+ * positions. How often that is, and what it does in between, is what sets one integrator
+ * apart from another:
+ *
+ *      LeapfrogIntegrator is the Boris push, one field evaluation a step, species by species.
+ *      VerletIntegrator is velocity Verlet, which reuses the last field of the step before.
+ *      RK4Integrator is classic fourth order Runge-Kutta, four evaluations a step.
+ *      AdaptiveIntegrator takes as many smaller steps as its error estimate says it needs.
+ *      BlockIntegrator is velocity Verlet with smaller steps only for the particles that need them.
+ *
+ * The first two are symplectic: their energy error stays bounded however long they run,
+ * so they can take much bigger steps than their order suggests. The Runge-Kutta ones are
+ * more accurate over a single step but drift slowly over a long run.
+ *
+ * Integrators are only ever called from the simulation thread.
+ */
+public interface Integrator {
+
+    /**
+     * advance
+     *
+     * Moves every particle of the system forward dt seconds.
+     */
+    void advance(SystemManager system, float dt);
+}
@@ -0,0 +1,99 @@
+package physics.plasma.particlepush;
+
+/**
+ * LeapfrogIntegrator
+ *
+ * This is the leapfrog scheme in its plasma form, the Boris push: the field is worked out
+ * once at the particles' positions, then velocities are kicked (and rotated by the magnetic
+ * field) and positions drifted, all in one pass. Velocities live half a step out of time
+ * with positions, which is what makes it second order with one field evaluation.
+ * It's the manager's default. Only particles that are awake are pushed, and only their field
+ * is worked out.
+ *
+ * When species have been defined, the particles are pushed one species' block at a time with
+ * the species' charge and mass fixed for the whole block. A species taking several steps
+ * takes them all before anyone else moves, with the field worked out again at its own
+ * particles for each step after the first, so light electrons can take small steps while
+ * the heavy ions around them stand still.
+ */
+public class LeapfrogIntegrator implements Integrator {
+
+    // The step being taken, for the loop bodies below: the system, the length of the step,
+    // the block being pushed and its species, and whether this is the block's last step.
+    private SystemManager stepSystem;
+    private float stepDt;
+    private int stepOffset;
+    private Species stepSpecies;
+    private boolean stepMeasured;
+
+    // The loop body, made once so a step doesn't allocate anything.
+    private final ParallelRunner.Task pushLoop = new ParallelRunner.Task() {
+        @Override
+        public void run(int from, int to, int worker) {
+            stepSystem.pusher.push(stepSystem, stepOffset+from, stepOffset+to, worker, stepDt);
+        }
+    };
+
+    // The loop body for a block that's all one species.
+    private final ParallelRunner.Task speciesLoop = new ParallelRunner.Task() {
+        @Override
+        public void run(int from, int to, int worker) {
+            stepSystem.pusher.push(stepSystem, stepSpecies, stepOffset+from, stepOffset+to, worker, stepDt, stepMeasured);
+        }
+    };
+
+    @Override
+    public void advance(SystemManager system, float dt){
+
+        int n = system.active();
+        SpeciesTable table = system.species;
+        stepSystem = system;
+
+        if(table==null){
+            system.computeFields(0, n);
+            stepDt = dt;
+            stepOffset = 0;
+            system.forEachChunk(pushLoop, n);
+        }
+        else{
+            table.arrange(n);
+            system.computeFields(0, n);
+            int[] order = table.pushOrder();
+            for(int k=0;k<table.arranged();k++){
+                pushSpecies(system, table, order[k], dt);
+            }
+        }
+
+        stepSystem = null;
+        stepSpecies = null;
+    }
+
+    /**
+     * pushSpecies
+     *
+     * Pushes one species' block through the step, in as many steps as the species takes.
+     * The field for its first step is the one worked out for everybody at the start.
+     */
+    private void pushSpecies(SystemManager system, SpeciesTable table, int id, float dt){
+
+        int from = table.start(id);
+        int to = table.end(id);
+        if(from==to){
+            return;
+        }
+
+        Species kind = table.get(id);
+        int cycles = table.subcycles(id);
+        stepSpecies = kind;
+        stepOffset = from;
+        stepDt = dt/cycles;
+
+        for(int c=0;c<cycles;c++){
+            if(c>0){
+                system.computeFields(from, to);
+            }
+            stepMeasured = c==cycles-1;
+            system.forEachChunk(kind==null ? pushLoop : speciesLoop, to-from);
+        }
+    }
+}
@@ -8,6 +8,8 @@ import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuItem;
 
+import java.util.Random;
+
 /**
  * MainActivity
  *
@@ -56,10 +58,48 @@ public class MainActivity extends Activity {
         // Initialize the System Manager and attach the created surface
         manager = new SystemManager(surface);
 
+        // Scatter some positive and negative particles around the middle of the screen
+        // with a little random motion, before the simulation takes over the particles.
+        Random random = new Random();
+        for(int i=0;i<500;i++){
+            Particle particle = manager.addParticle(
+                    (random.nextFloat()-0.5f), (random.nextFloat()-0.5f), (i%2==0) ? 1.0f : -1.0f);
+            particle.set(manager.VX, 0.1f*(random.nextFloat()-0.5f));
+            particle.set(manager.VY, 0.1f*(random.nextFloat()-0.5f));
+        }
+
+        // Let the particles push each other around with their charges.
+        manager.addForce(new BarnesHutTree(manager.CHARGE, 1.0e-5f, 0.5f, 0.01f));
+
+        // Share the work of each step between all the processors.
+        manager.setParallel(true);
+
         // Put the surface view in charge of the touchscreen.
         setContentView(surface);
     }
 
+    // Called when the activity comes to the front; the simulation only runs while it's visible.
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        if(manager!=null){
+            surface.onResume();
+            manager.start();
+        }
+    }
+
+    // Called when the activity leaves the front, so we stop simulating and drawing.
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        if(manager!=null){
+            manager.stop();
+            surface.onPause();
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
@@ -0,0 +1,187 @@
+package physics.plasma.particlepush;
+
+import java.util.Arrays;
+
+/**
+ * MortonOrder
+ *
+ * This works out an order for the particles in which ones close together on screen are
+ * close together in memory. Particles are stored in the order they were made, so after
+ * a while of moving around, neighbors end up scattered all over the columns, and every
+ * loop that looks at a particle's neighbors, like a tree walk or a grid gather, keeps
+ * missing the cache. Putting them back in spatial order fixes that.
+ *
+ * The order is the Morton order, or Z curve. Each particle's position is turned into two
+ * 16 bit numbers, and their bits are interleaved into one 32 bit key: x's bit, y's bit,
+ * x's next bit, and so on. Sorting by that key walks the plane in nested Z shapes, so any
+ * run of particles in the sorted order sits in a compact patch of space. The keys are
+ * sorted with a radix sort, a byte at a time, which is O(n) and allocates nothing once
+ * the arrays are big enough.
+ *
+ * How scattered the particles are is measured by how often a particle's key is bigger than
+ * the next one's. That's 0 right after sorting, and about a half for particles in no order.
+ */
+public class MortonOrder {
+
+    // How many values a byte of the key can take.
+    private static final int RADIX = 256;
+
+    // Each particle's key, and room for the keys while they're being sorted.
+    private int[] keys = new int[0];
+    private int[] sortedKeys = new int[0];
+
+    // The sorted order, which particle goes at each place, and room for it while sorting.
+    private int[] order = new int[0];
+    private int[] spare = new int[0];
+
+    // Where each particle goes: the place it ends up at in the order.
+    private int[] rank = new int[0];
+
+    // How many particles the keys were worked out for.
+    private int count;
+
+    // How many keys have each value of the current byte.
+    private final int[] buckets = new int[RADIX];
+
+    /**
+     * measure
+     *
+     * Works out the keys of particles 0..n-1 and returns how out of order they are,
+     * from 0 for sorted to about 0.5 for no order at all.
+     */
+    public float measure(float[] x, float[] y, int n){
+
+        ensureCapacity(n);
+        count = n;
+        if(n<2){
+            return 0.0f;
+        }
+
+        float minX = x[0];
+        float maxX = x[0];
+        float minY = y[0];
+        float maxY = y[0];
+        for(int i=1;i<n;i++){
+            minX = Math.min(minX, x[i]);
+            maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+
+        // Both axes get the same scale, so the cells of the curve are square.
+        float extent = Math.max(maxX-minX, maxY-minY);
+        float scale = extent>0.0f ? 65535.0f/extent : 0.0f;
+
+        int[] k = keys;
+        int descents = 0;
+        for(int i=0;i<n;i++){
+            int qx = (int) ((x[i]-minX)*scale);
+            int qy = (int) ((y[i]-minY)*scale);
+            k[i] = (spread(qy)<<1) | spread(qx);
+            // Keys use all 32 bits, so flipping the top bit makes them compare as unsigned.
+            if(i>0 && (k[i-1]^Integer.MIN_VALUE)>(k[i]^Integer.MIN_VALUE)){
+                descents++;
+            }
+        }
+
+        return (float) descents/(n-1);
+    }
+
+    /**
+     * sort
+     *
+     * Sorts the particles last measured by their keys, and returns the order:
+     * which particle goes at each place. rank() says the same thing the other way round.
+     */
+    public int[] sort(){
+
+        int n = count;
+        int[] k = keys;
+        int[] o = order;
+        for(int i=0;i<n;i++){
+            o[i] = i;
+        }
+
+        // Four passes of one byte each, least significant first. Each pass is stable,
+        // so ties keep the order the last pass left them in.
+        int[] fromKeys = k;
+        int[] toKeys = sortedKeys;
+        int[] fromOrder = o;
+        int[] toOrder = spare;
+        for(int shift=0;shift<32;shift+=8){
+
+            int[] b = buckets;
+            Arrays.fill(b, 0);
+            for(int i=0;i<n;i++){
+                b[(fromKeys[i]>>>shift) & (RADIX-1)]++;
+            }
+            int total = 0;
+            for(int d=0;d<RADIX;d++){
+                int size = b[d];
+                b[d] = total;
+                total += size;
+            }
+            for(int i=0;i<n;i++){
+                int place = b[(fromKeys[i]>>>shift) & (RADIX-1)]++;
+                toKeys[place] = fromKeys[i];
+                toOrder[place] = fromOrder[i];
+            }
+
+            int[] swap = fromKeys;
+            fromKeys = toKeys;
+            toKeys = swap;
+            swap = fromOrder;
+            fromOrder = toOrder;
+            toOrder = swap;
+        }
+
+        // An even number of passes leaves everything back in the arrays it started in.
+        for(int i=0;i<n;i++){
+            rank[o[i]] = i;
+        }
+
+        return o;
+    }
+
+    /**
+     * rank
+     *
+     * Returns where each particle ends up in the last sort.
+     */
+    public int[] rank(){
+        return rank;
+    }
+
+    /**
+     * spread
+     *
+     * Spreads the low 16 bits of a number out to every other bit, so two of them can be interleaved.
+     */
+    private static int spread(int value){
+
+        int v = value & 0xFFFF;
+        v = (v | (v<<8)) & 0x00FF00FF;
+        v = (v | (v<<4)) & 0x0F0F0F0F;
+        v = (v | (v<<2)) & 0x33333333;
+        v = (v | (v<<1)) & 0x55555555;
+
+        return v;
+    }
+
+    /**
+     * ensureCapacity
+     *
+     * Makes sure every array can hold n particles.
+     */
+    private void ensureCapacity(int n){
+
+        if(keys.length<n){
+            int size = Math.max(n, 2*keys.length);
+            keys = new int[size];
+            sortedKeys = new int[size];
+            order = new int[size];
+            spare = new int[size];
+            rank = new int[size];
+        }
+    }
+}
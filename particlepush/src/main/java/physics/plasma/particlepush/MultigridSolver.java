@@ -0,0 +1,575 @@
+package physics.plasma.particlepush;
+
+import java.util.Arrays;
+
+/**
+ * MultigridSolver
+ *
+ * This solves Poisson's equation in a box with walls, where the grid doesn't wrap around
+ * and Fourier transforms don't apply. Each wall is either a conductor held at a fixed
+ * potential (Dirichlet) or something field lines run along (Neumann: no slope across it),
+ * and any point inside can be fixed too, which is how electrodes are put in.
+ *
+ * Relaxation alone quickly smooths out errors a few points across but takes forever on
+ * errors the size of the whole grid. Multigrid fixes that: after a few sweeps, whatever error
+ * is left is smooth, so the equation for it is moved to a grid half as fine where it's
+ * rough again, relaxed there, and so on down to a tiny grid; then the corrections are
+ * brought back up. One of these V-cycles costs about as much as a few sweeps on the fine
+ * grid and cuts the error by about ten times, whatever the grid size, so a solve is O(G).
+ *
+ * Sweeps are red-black Gauss-Seidel. Full multigrid (solving on the coarsest grid first,
+ * then each finer one starting from the one below) is used when there's nothing better to
+ * start from; otherwise the solve starts from what's already in the potential, which
+ * from one step to the next is nearly right, so one V-cycle usually does.
+ *
+ * When every wall is Neumann and nothing is fixed, the box is sealed: no field line leaves it,
+ * so the total charge inside has to be zero, and any potential can be shifted by a constant.
+ * A source with net charge has no solution at all, and the V-cycles would just drift. So in
+ * that case the source's mean is taken out first, which amounts to a uniform neutralizing
+ * background, on every grid, and the mean of the potential is taken out at the end.
+ *
+ * The grid has points on the walls, so it halves cleanly when it's one more than a multiple
+ * of a power of two points across, like 65 or 129. It coarsens for as long as both sides
+ * can be halved like that.
+ */
+public class MultigridSolver implements PoissonSolver {
+
+    /**
+     * What happens at a wall.
+     */
+    public enum Boundary {DIRICHLET, NEUMANN}
+
+    // How small the coarsest grid is allowed to get, and how many sweeps solve it.
+    private static final int COARSEST = 5;
+    private static final int COARSE_SWEEPS = 50;
+
+    // What each wall does: left, right, bottom, top.
+    private final Boundary[] walls = {Boundary.DIRICHLET, Boundary.DIRICHLET,
+            Boundary.DIRICHLET, Boundary.DIRICHLET};
+
+    // How many sweeps before and after moving to the coarser grid, how many V-cycles a solve
+    // does, and whether to start from what's in the potential.
+    private int preSweeps = 2;
+    private int postSweeps = 2;
+    private int cycles = 1;
+    private boolean warmStart = true;
+
+    // The size of every level, finest first.
+    private final int[] nxs;
+    private final int[] nys;
+
+    // On every level: which points are fixed, the solution (or correction) and the source.
+    // On the finest level the solution and source are the caller's arrays.
+    private final boolean[][] fixed;
+    private final float[][] solution;
+    private final float[][] sources;
+    private final float[][] residuals;
+
+    // The points on the finest grid that have been fixed by hand, and the potential
+    // each fixed point is held at, walls included.
+    private final boolean[] pinned;
+    private final float[] values;
+
+    // Set when the fixed points have changed, so the coarse masks and the potential
+    // have to be brought up to date before the next solve.
+    private boolean changed = true;
+    private boolean solvedBefore;
+
+    // Whether nothing at all is fixed, so the source has to be neutralized, and room for
+    // the neutralized copy of the caller's source.
+    private boolean floating;
+    private final float[] neutral;
+
+    /**
+     * MultigridSolver
+     *
+     * Creates a solver for a grid of nx by ny points, with every wall grounded.
+     */
+    public MultigridSolver(int nx, int ny){
+
+        if(nx<3 || ny<3){
+            throw new IllegalArgumentException("The grid needs at least 3 points each way.");
+        }
+
+        int levels = 1;
+        int x = nx;
+        int y = ny;
+        while(x%2==1 && y%2==1 && (x+1)/2>=COARSEST && (y+1)/2>=COARSEST){
+            x = (x+1)/2;
+            y = (y+1)/2;
+            levels++;
+        }
+
+        nxs = new int[levels];
+        nys = new int[levels];
+        fixed = new boolean[levels][];
+        solution = new float[levels][];
+        sources = new float[levels][];
+        residuals = new float[levels][];
+
+        x = nx;
+        y = ny;
+        for(int l=0;l<levels;l++){
+            nxs[l] = x;
+            nys[l] = y;
+            fixed[l] = new boolean[x*y];
+            residuals[l] = new float[x*y];
+            if(l>0){
+                solution[l] = new float[x*y];
+                sources[l] = new float[x*y];
+            }
+            x = (x+1)/2;
+            y = (y+1)/2;
+        }
+
+        pinned = new boolean[nx*ny];
+        values = new float[nx*ny];
+        neutral = new float[nx*ny];
+
+    }
+
+    @Override
+    public void solve(float[] source, float[] potential, int nx, int ny, float dx, float dy){
+
+        if(nx!=nxs[0] || ny!=nys[0]){
+            throw new IllegalArgumentException("This solver was made for a " + nxs[0] + " by " + nys[0] + " grid.");
+        }
+
+        if(changed){
+            updateMasks();
+            changed = false;
+        }
+
+        // Hold every fixed point at its potential.
+        boolean[] mask = fixed[0];
+        boolean anyFixed = false;
+        for(int k=0;k<nx*ny;k++){
+            if(mask[k]){
+                potential[k] = values[k];
+                anyFixed = true;
+            }
+        }
+
+        // A sealed box can only hold a neutral source; take out the net charge without
+        // touching the caller's array.
+        floating = !anyFixed;
+        solution[0] = potential;
+        sources[0] = source;
+        if(floating){
+            System.arraycopy(source, 0, neutral, 0, nx*ny);
+            sources[0] = neutral;
+            neutralize(0, neutral);
+        }
+
+        if(!warmStart || !solvedBefore){
+            fullMultigrid(dx, dy);
+        }
+        for(int c=0;c<cycles;c++){
+            cycle(0, dx, dy);
+        }
+        solvedBefore = true;
+
+        // With no fixed point at all only differences in potential mean anything.
+        if(floating){
+            double mean = 0.0;
+            for(int k=0;k<nx*ny;k++){
+                mean += potential[k];
+            }
+            float shift = (float) (mean/(nx*ny));
+            for(int k=0;k<nx*ny;k++){
+                potential[k] -= shift;
+            }
+        }
+
+        solution[0] = null;
+        sources[0] = null;
+    }
+
+    /**
+     * setBoundary
+     *
+     * Changes what each wall does. Dirichlet walls are held at whatever potential their points
+     * are fixed at, zero unless fix() says otherwise.
+     */
+    public void setBoundary(Boundary left, Boundary right, Boundary bottom, Boundary top){
+
+        walls[0] = left;
+        walls[1] = right;
+        walls[2] = bottom;
+        walls[3] = top;
+        changed = true;
+    }
+
+    /**
+     * fix
+     *
+     * Holds the grid point (i, j) at the given potential, like a point on an electrode.
+     */
+    public void fix(int i, int j, float value){
+
+        values[j*nxs[0]+i] = value;
+        pinned[j*nxs[0]+i] = true;
+        changed = true;
+    }
+
+    /**
+     * release
+     *
+     * Lets every point that isn't on a Dirichlet wall go free again, and grounds the walls.
+     */
+    public void release(){
+
+        Arrays.fill(pinned, false);
+        Arrays.fill(values, 0.0f);
+        changed = true;
+    }
+
+    /**
+     * setCycles
+     *
+     * Changes how many V-cycles each solve does, and how many sweeps come before and after
+     * moving to the coarser grid in each.
+     */
+    public void setCycles(int count, int before, int after){
+
+        cycles = Math.max(1, count);
+        preSweeps = Math.max(1, before);
+        postSweeps = Math.max(1, after);
+    }
+
+    /**
+     * setWarmStart
+     *
+     * Chooses whether each solve starts from what's already in the potential, or from
+     * scratch with full multigrid.
+     */
+    public void setWarmStart(boolean warm){
+        warmStart = warm;
+    }
+
+    /**
+     * levels
+     *
+     * Returns how many grids the solver uses, counting the finest.
+     */
+    public int levels(){
+        return nxs.length;
+    }
+
+    /**
+     * updateMasks
+     *
+     * Marks the points on Dirichlet walls as fixed, and works out which points are fixed
+     * on each coarser grid: the ones sitting on a fixed point of the grid above.
+     */
+    private void updateMasks(){
+
+        int nx = nxs[0];
+        int ny = nys[0];
+        boolean[] mask = fixed[0];
+        System.arraycopy(pinned, 0, mask, 0, nx*ny);
+        for(int j=0;j<ny;j++){
+            if(walls[0]==Boundary.DIRICHLET){
+                mask[j*nx] = true;
+            }
+            if(walls[1]==Boundary.DIRICHLET){
+                mask[j*nx+nx-1] = true;
+            }
+        }
+        for(int i=0;i<nx;i++){
+            if(walls[2]==Boundary.DIRICHLET){
+                mask[i] = true;
+            }
+            if(walls[3]==Boundary.DIRICHLET){
+                mask[(ny-1)*nx+i] = true;
+            }
+        }
+
+        for(int l=1;l<nxs.length;l++){
+            int fine = nxs[l-1];
+            int cx = nxs[l];
+            for(int j=0;j<nys[l];j++){
+                for(int i=0;i<cx;i++){
+                    fixed[l][j*cx+i] = fixed[l-1][2*j*fine+2*i];
+                }
+            }
+        }
+
+        solvedBefore = false;
+    }
+
+    /**
+     * fullMultigrid
+     *
+     * Gets a good first guess from scratch: move the source down to every grid, solve
+     * the coarsest, then work up, bringing each solution to the next finer grid and
+     * V-cycling there.
+     */
+    private void fullMultigrid(float dx, float dy){
+
+        int last = nxs.length-1;
+        for(int l=1;l<=last;l++){
+            restrict(l, sources[l-1], sources[l]);
+            if(floating){
+                neutralize(l, sources[l]);
+            }
+        }
+
+        // The coarse grids hold the fixed potentials too while working up.
+        for(int l=1;l<=last;l++){
+            Arrays.fill(solution[l], 0.0f);
+        }
+        for(int l=last;l>=0;l--){
+            float scale = (float) (1<<l);
+            if(l<last){
+                prolong(l+1, solution[l+1], solution[l], true);
+            }
+            holdFixed(l);
+            if(l==last){
+                smooth(l, COARSE_SWEEPS, dx*scale, dy*scale);
+            }
+            else{
+                cycle(l, dx*scale, dy*scale);
+            }
+        }
+    }
+
+    /**
+     * holdFixed
+     *
+     * Puts the fixed potentials into the fixed points of a grid.
+     */
+    private void holdFixed(int level){
+
+        int nx = nxs[level];
+        int step = 1<<level;
+        int fine = nxs[0];
+        boolean[] mask = fixed[level];
+        float[] u = solution[level];
+        for(int j=0;j<nys[level];j++){
+            for(int i=0;i<nx;i++){
+                if(mask[j*nx+i]){
+                    u[j*nx+i] = values[j*step*fine + i*step];
+                }
+            }
+        }
+    }
+
+    /**
+     * cycle
+     *
+     * One V-cycle starting at the given level, whose points are dx and dy apart.
+     */
+    private void cycle(int level, float dx, float dy){
+
+        if(level==nxs.length-1){
+            smooth(level, COARSE_SWEEPS, dx, dy);
+            return;
+        }
+
+        smooth(level, preSweeps, dx, dy);
+
+        // Hand what's left of the equation to the coarser grid, solving for a correction from zero.
+        residual(level, dx, dy);
+        restrict(level+1, residuals[level], sources[level+1]);
+        if(floating){
+            neutralize(level+1, sources[level+1]);
+        }
+        Arrays.fill(solution[level+1], 0.0f);
+        cycle(level+1, 2.0f*dx, 2.0f*dy);
+        prolong(level+1, solution[level+1], solution[level], false);
+
+        smooth(level, postSweeps, dx, dy);
+    }
+
+    /**
+     * smooth
+     *
+     * Red-black Gauss-Seidel sweeps of the Laplacian of u being -f, leaving fixed points alone.
+     */
+    private void smooth(int level, int sweeps, float dx, float dy){
+
+        int nx = nxs[level];
+        int ny = nys[level];
+        float[] u = solution[level];
+        float[] f = sources[level];
+        boolean[] mask = fixed[level];
+        float cx = 1.0f/(dx*dx);
+        float cy = 1.0f/(dy*dy);
+        float inverse = 1.0f/(2.0f*(cx+cy));
+
+        for(int sweep=0;sweep<sweeps;sweep++){
+            for(int color=0;color<2;color++){
+                for(int j=0;j<ny;j++){
+
+                    int row = j*nx;
+                    int below = neighbor(j, -1, ny)*nx;
+                    int above = neighbor(j, 1, ny)*nx;
+
+                    for(int i=(j+color)&1;i<nx;i+=2){
+                        if(mask[row+i]){
+                            continue;
+                        }
+                        int left = neighbor(i, -1, nx);
+                        int right = neighbor(i, 1, nx);
+                        u[row+i] = (cx*(u[row+left] + u[row+right])
+                                + cy*(u[below+i] + u[above+i]) + f[row+i])*inverse;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * residual
+     *
+     * Works out how far u is from solving the equation at every free point of a level:
+     * f plus the Laplacian of u.
+     */
+    private void residual(int level, float dx, float dy){
+
+        int nx = nxs[level];
+        int ny = nys[level];
+        float[] u = solution[level];
+        float[] f = sources[level];
+        float[] r = residuals[level];
+        boolean[] mask = fixed[level];
+        float cx = 1.0f/(dx*dx);
+        float cy = 1.0f/(dy*dy);
+
+        for(int j=0;j<ny;j++){
+            int row = j*nx;
+            int below = neighbor(j, -1, ny)*nx;
+            int above = neighbor(j, 1, ny)*nx;
+            for(int i=0;i<nx;i++){
+                if(mask[row+i]){
+                    r[row+i] = 0.0f;
+                    continue;
+                }
+                int left = neighbor(i, -1, nx);
+                int right = neighbor(i, 1, nx);
+                float center = u[row+i];
+                r[row+i] = f[row+i] + cx*(u[row+left] - 2.0f*center + u[row+right])
+                        + cy*(u[below+i] - 2.0f*center + u[above+i]);
+            }
+        }
+    }
+
+    /**
+     * restrict
+     *
+     * Moves a fine grid quantity to the next coarser level by full weighting: each coarse
+     * point takes a 1-2-1 weighted average of the fine points around it.
+     */
+    private void restrict(int coarse, float[] fine, float[] into){
+
+        int fx = nxs[coarse-1];
+        int fy = nys[coarse-1];
+        int cx = nxs[coarse];
+        int cy = nys[coarse];
+        boolean[] mask = fixed[coarse];
+
+        for(int j=0;j<cy;j++){
+
+            int center = 2*j;
+            int below = neighbor(center, -1, fy)*fx;
+            int above = neighbor(center, 1, fy)*fx;
+            int middle = center*fx;
+
+            for(int i=0;i<cx;i++){
+
+                if(mask[j*cx+i]){
+                    into[j*cx+i] = 0.0f;
+                    continue;
+                }
+
+                int c = 2*i;
+                int left = neighbor(c, -1, fx);
+                int right = neighbor(c, 1, fx);
+                into[j*cx+i] = 0.25f*fine[middle+c]
+                        + 0.125f*(fine[middle+left] + fine[middle+right] + fine[below+c] + fine[above+c])
+                        + 0.0625f*(fine[below+left] + fine[below+right] + fine[above+left] + fine[above+right]);
+            }
+        }
+    }
+
+    /**
+     * prolong
+     *
+     * Brings a coarse grid quantity up to the next finer level by bilinear interpolation,
+     * either replacing what's there or adding to it as a correction. Fixed points are left alone.
+     */
+    private void prolong(int coarse, float[] from, float[] into, boolean replace){
+
+        int fx = nxs[coarse-1];
+        int fy = nys[coarse-1];
+        int cx = nxs[coarse];
+        boolean[] mask = fixed[coarse-1];
+
+        for(int j=0;j<fy;j++){
+
+            int j0 = j/2;
+            int j1 = (j&1)==0 ? j0 : j0+1;
+
+            for(int i=0;i<fx;i++){
+
+                int k = j*fx+i;
+                if(mask[k]){
+                    continue;
+                }
+
+                int i0 = i/2;
+                int i1 = (i&1)==0 ? i0 : i0+1;
+                float value = 0.25f*(from[j0*cx+i0] + from[j0*cx+i1] + from[j1*cx+i0] + from[j1*cx+i1]);
+                into[k] = replace ? value : into[k]+value;
+            }
+        }
+    }
+
+    /**
+     * neutralize
+     *
+     * Takes the net charge out of a source on a level with nothing fixed. Points on a wall
+     * only have half a cell inside the box, and corners a quarter, so they count for that
+     * much in the mean; that's the sum the mirrored stencil keeps at zero.
+     */
+    private void neutralize(int level, float[] f){
+
+        int nx = nxs[level];
+        int ny = nys[level];
+        double total = 0.0;
+        for(int j=0;j<ny;j++){
+            double weight = (j==0 || j==ny-1) ? 0.5 : 1.0;
+            double row = 0.5*(f[j*nx] + f[j*nx+nx-1]);
+            for(int i=1;i<nx-1;i++){
+                row += f[j*nx+i];
+            }
+            total += weight*row;
+        }
+
+        float mean = (float) (total/((nx-1)*(ny-1)));
+        for(int k=0;k<nx*ny;k++){
+            f[k] -= mean;
+        }
+    }
+
+    /**
+     * neighbor
+     *
+     * Returns the index one step from i in the given direction. Off the edge of the grid
+     * there's only a Neumann wall to worry about (Dirichlet edges are fixed and never
+     * looked past), and a Neumann wall mirrors the point just inside it.
+     */
+    private static int neighbor(int i, int direction, int size){
+
+        int j = i+direction;
+        if(j<0){
+            return 1;
+        }
+        if(j>=size){
+            return size-2;
+        }
+
+        return j;
+    }
+}
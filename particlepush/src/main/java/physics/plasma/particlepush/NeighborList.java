@@ -0,0 +1,248 @@
+package physics.plasma.particlepush;
+
+/**
+ * NeighborList
+ *
+ * This keeps, for every particle, a list of the particles near enough to it to matter, so
+ * forces with a cutoff don't have to search for neighbors every step. It's what molecular
+ * dynamics codes call a Verlet list.
+ *
+ * The trick is to look a little further than the cutoff when building the list, by a margin
+ * called the skin. Until some particle has moved more than half the skin since the list was
+ * built, no two particles can have come from outside cutoff + skin to inside the cutoff, so
+ * the list still has every pair that matters. Each step only the distance every particle has
+ * moved is checked, and the list is built again from a spatial grid once someone has gone
+ * too far. With a sensible skin that's every ten or twenty steps.
+ *
+ * The lists are stored one after another in a single array: particle i's neighbors are
+ * neighbors[offsets[i]] to neighbors[offsets[i+1]-1]. Every pair is in both particles' lists,
+ * so each particle's field can be added up on its own, in any order, on any thread.
+ */
+public class NeighborList {
+
+    // The furthest apart two particles can be and still interact, and the margin on top of it.
+    private float cutoff;
+    private float skin;
+
+    // Where each particle's neighbors start, with one extra entry at the end, and the neighbors.
+    private int[] offsets = new int[1];
+    private int[] neighbors = new int[0];
+
+    // Where every particle was when the list was built, and how many there were.
+    private float[] builtX = new float[0];
+    private float[] builtY = new float[0];
+    private int count;
+
+    // Whether the list has to be built again no matter how little anyone has moved.
+    private boolean stale = true;
+
+    // Sorts the particles into cells when the list is built.
+    private SpatialGrid grid;
+
+    // How many times the list has been checked, and how many of those it was built again.
+    private long updates;
+    private long builds;
+
+    /**
+     * NeighborList
+     *
+     * Creates a list of every particle within cutoff of each other, with the given skin.
+     */
+    public NeighborList(float cutoff, float skin){
+
+        if(!(cutoff>0.0f) || skin<0.0f){
+            throw new IllegalArgumentException("Neighbor lists need a positive cutoff and a skin that isn't negative.");
+        }
+
+        this.cutoff = cutoff;
+        this.skin = skin;
+        grid = new SpatialGrid(cutoff+skin);
+
+    }
+
+    /**
+     * update
+     *
+     * Builds the list again for particles 0..n-1 if anyone has moved more than half
+     * the skin since it was last built, or particles have come or gone. Returns whether it did.
+     */
+    public boolean update(float[] x, float[] y, int n){
+
+        updates++;
+
+        if(!stale && n==count && !movedTooFar(x, y, n)){
+            return false;
+        }
+
+        build(x, y, n);
+
+        return true;
+    }
+
+    /**
+     * ensureCutoff
+     *
+     * Makes sure everything within the given distance is in the lists, and that the skin is at
+     * least the given size, building them again next time if either grew.
+     */
+    public void ensureCutoff(float distance, float margin){
+
+        if(distance>cutoff || margin>skin){
+            cutoff = Math.max(cutoff, distance);
+            skin = Math.max(skin, margin);
+            grid.ensureCellSize(cutoff+skin);
+            stale = true;
+        }
+    }
+
+    /**
+     * invalidate
+     *
+     * Makes the next update build the list again. Anything that moves particles around the
+     * store, or jumps them somewhere new, has to call this.
+     */
+    public void invalidate(){
+        stale = true;
+    }
+
+    /**
+     * offsets
+     *
+     * Returns where each particle's neighbors start in neighbors(), with one extra entry at the end.
+     */
+    public int[] offsets(){
+        return offsets;
+    }
+
+    /**
+     * neighbors
+     *
+     * Returns every particle's neighbors, one list after another.
+     */
+    public int[] neighbors(){
+        return neighbors;
+    }
+
+    /**
+     * cutoff
+     *
+     * Returns the distance the lists are guaranteed to cover.
+     */
+    public float cutoff(){
+        return cutoff;
+    }
+
+    /**
+     * skin
+     *
+     * Returns the margin the lists are built with beyond the cutoff.
+     */
+    public float skin(){
+        return skin;
+    }
+
+    /**
+     * updates
+     *
+     * Returns how many times the list has been checked.
+     */
+    public long updates(){
+        return updates;
+    }
+
+    /**
+     * builds
+     *
+     * Returns how many times the list has actually been built.
+     */
+    public long builds(){
+        return builds;
+    }
+
+    /**
+     * movedTooFar
+     *
+     * Checks whether any particle has moved more than half the skin since the last build.
+     */
+    private boolean movedTooFar(float[] x, float[] y, int n){
+
+        float[] bx = builtX;
+        float[] by = builtY;
+        float limit = 0.5f*skin;
+        float limit2 = limit*limit;
+
+        for(int i=0;i<n;i++){
+            float dx = x[i]-bx[i];
+            float dy = y[i]-by[i];
+            if(dx*dx + dy*dy>limit2){
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * build
+     *
+     * Builds every particle's list from scratch with the grid, and remembers where they all are.
+     */
+    private void build(float[] x, float[] y, int n){
+
+        builds++;
+        stale = false;
+        count = n;
+
+        if(builtX.length<n){
+            builtX = new float[Math.max(n, 2*builtX.length)];
+            builtY = new float[Math.max(n, 2*builtY.length)];
+        }
+        System.arraycopy(x, 0, builtX, 0, n);
+        System.arraycopy(y, 0, builtY, 0, n);
+        if(offsets.length<n+1){
+            offsets = new int[Math.max(n+1, 2*offsets.length)];
+        }
+
+        grid.build(x, y, n);
+        int[] start = grid.cellStart();
+        int[] order = grid.sorted();
+        int columns = grid.columns();
+        int rows = grid.rows();
+        float reach = cutoff+skin;
+        float reach2 = reach*reach;
+
+        int[] list = neighbors;
+        int total = 0;
+        for(int i=0;i<n;i++){
+
+            offsets[i] = total;
+            float px = x[i];
+            float py = y[i];
+            int cx = grid.column(px);
+            int cy = grid.row(py);
+
+            // The cells are at least cutoff + skin wide, so the 3x3 block around is enough.
+            for(int row=Math.max(0, cy-1);row<=Math.min(rows-1, cy+1);row++){
+                for(int col=Math.max(0, cx-1);col<=Math.min(columns-1, cx+1);col++){
+                    int c = row*columns + col;
+                    for(int m=start[c];m<start[c+1];m++){
+                        int j = order[m];
+                        float dx = px-x[j];
+                        float dy = py-y[j];
+                        if(j==i || dx*dx + dy*dy>reach2){
+                            continue;
+                        }
+                        if(total==list.length){
+                            int[] bigger = new int[Math.max(64, 2*list.length)];
+                            System.arraycopy(list, 0, bigger, 0, total);
+                            list = bigger;
+                        }
+                        list[total++] = j;
+                    }
+                }
+            }
+        }
+        offsets[n] = total;
+        neighbors = list;
+    }
+}
@@ -0,0 +1,309 @@
+package physics.plasma.particlepush;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * PackedColumn
+ *
+ * This is a quality column that stores each particle's value in 16 bits instead of 32.
+ * Plenty of qualities don't need a full float: colors, or anything that stays inside
+ * a known range. Halving the column halves the memory it takes and the bandwidth
+ * of every loop that streams over it.
+ *
+ * There are two ways of packing the value:
+ *
+ *      HALF stores an IEEE half precision float: about three significant digits
+ *      over a huge range, good for values whose size isn't known in advance.
+ *
+ *      FIXED16 stores the value as one of 65536 evenly spaced steps between a
+ *      minimum and maximum, good for bounded values like colors where the
+ *      precision should be the same everywhere in the range.
+ *
+ * Values are decoded a block at a time with read(), or straight into a vertex buffer
+ * with upload(), so the loops using them work on plain floats.
+ */
+public class PackedColumn {
+
+    // How the values are packed.
+    private final Quality.Storage storage;
+
+    // The range a FIXED16 column covers, and the size of one step in it.
+    private final float minimum;
+    private final float step;
+
+    // The packed values, one per particle.
+    private short[] data;
+
+    // The packed form of the value new particles start with.
+    private short packedDefault;
+
+    /**
+     * PackedColumn
+     *
+     * Creates a column with room for the given number of particles. The minimum and
+     * maximum only matter for FIXED16 columns; values outside them are clamped.
+     */
+    public PackedColumn(Quality.Storage qstorage, float qdefault, float qminimum, float qmaximum, int capacity){
+
+        if(qstorage==Quality.Storage.FLOAT32){
+            throw new IllegalArgumentException("Full precision qualities don't need packing.");
+        }
+        if(qstorage==Quality.Storage.FIXED16 && !(qmaximum>qminimum)){
+            throw new IllegalArgumentException("Fixed point qualities need a range.");
+        }
+
+        storage = qstorage;
+        minimum = qminimum;
+        step = (qmaximum-qminimum)/65535.0f;
+        data = new short[capacity];
+        packedDefault = encode(qdefault);
+
+    }
+
+    /**
+     * get
+     *
+     * Returns the value of the given particle.
+     */
+    public float get(int id){
+        return decode(data[id]);
+    }
+
+    /**
+     * set
+     *
+     * Sets the value of the given particle, rounded to the nearest value the column can hold.
+     */
+    public void set(int id, float value){
+        data[id] = encode(value);
+    }
+
+    /**
+     * fill
+     *
+     * Sets particles from..to-1 to the same value.
+     */
+    public void fill(int from, int to, float value){
+        Arrays.fill(data, from, to, encode(value));
+    }
+
+    /**
+     * fillDefault
+     *
+     * Sets particles from..to-1 to the value new particles start with.
+     */
+    public void fillDefault(int from, int to){
+        Arrays.fill(data, from, to, packedDefault);
+    }
+
+    /**
+     * setDefault
+     *
+     * Changes the value new particles start with.
+     */
+    public void setDefault(float value){
+        packedDefault = encode(value);
+    }
+
+    /**
+     * move
+     *
+     * Copies one particle's value over another's.
+     */
+    public void move(int from, int to){
+        data[to] = data[from];
+    }
+
+    /**
+     * permute
+     *
+     * Puts the particles 0..n-1 in a new order, particle order[k] moving to k,
+     * using scratch to hold the values on the way.
+     */
+    public void permute(int[] order, int n, short[] scratch){
+
+        short[] d = data;
+        for(int k=0;k<n;k++){
+            scratch[k] = d[order[k]];
+        }
+        System.arraycopy(scratch, 0, d, 0, n);
+    }
+
+    /**
+     * read
+     *
+     * Decodes the values of particles from..to-1 into dst, starting at dst[0].
+     */
+    public void read(int from, int to, float[] dst){
+
+        short[] d = data;
+        if(storage==Quality.Storage.HALF){
+            for(int i=from;i<to;i++){
+                dst[i-from] = toFloat(d[i]);
+            }
+        }
+        else{
+            float min = minimum;
+            float s = step;
+            for(int i=from;i<to;i++){
+                dst[i-from] = (d[i]&0xFFFF)*s + min;
+            }
+        }
+    }
+
+    /**
+     * upload
+     *
+     * Decodes the values of particles from..to-1 straight into a vertex buffer,
+     * particle i going to dst[offset + i*stride]. This skips the scratch array entirely
+     * when a packed quality is what the renderer draws, like a color channel.
+     */
+    public void upload(int from, int to, FloatBuffer dst, int offset, int stride){
+
+        short[] d = data;
+        if(storage==Quality.Storage.HALF){
+            for(int i=from;i<to;i++){
+                dst.put(offset + i*stride, toFloat(d[i]));
+            }
+        }
+        else{
+            float min = minimum;
+            float s = step;
+            for(int i=from;i<to;i++){
+                dst.put(offset + i*stride, (d[i]&0xFFFF)*s + min);
+            }
+        }
+    }
+
+    /**
+     * raw
+     *
+     * Returns the packed values themselves, for code that wants to work on them directly.
+     */
+    public short[] raw(){
+        return data;
+    }
+
+    /**
+     * ensureCapacity
+     *
+     * Grows the column so it can hold at least the given number of particles.
+     */
+    public void ensureCapacity(int capacity){
+
+        if(capacity>data.length){
+            data = Arrays.copyOf(data, capacity);
+        }
+    }
+
+    /**
+     * encode
+     *
+     * Packs a value the way this column stores it.
+     */
+    private short encode(float value){
+
+        if(storage==Quality.Storage.HALF){
+            return toHalf(value);
+        }
+
+        float steps = (value-minimum)/step;
+        if(!(steps>0.0f)){
+            return 0;
+        }
+        if(steps>=65535.0f){
+            return (short) 0xFFFF;
+        }
+
+        return (short) (int) (steps+0.5f);
+    }
+
+    /**
+     * decode
+     *
+     * Unpacks a value stored in this column.
+     */
+    private float decode(short packed){
+
+        if(storage==Quality.Storage.HALF){
+            return toFloat(packed);
+        }
+
+        return (packed&0xFFFF)*step + minimum;
+    }
+
+    /**
+     * toHalf
+     *
+     * Converts a float to the bits of the nearest IEEE half precision float,
+     * rounding halfway cases to even. Too large values become infinity.
+     */
+    public static short toHalf(float value){
+
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits>>>16) & 0x8000;
+        int exponent = (bits>>>23) & 0xFF;
+        int mantissa = bits & 0x7FFFFF;
+
+        // Infinity stays infinity and NaN stays NaN.
+        if(exponent==0xFF){
+            return (short) (sign | 0x7C00 | (mantissa!=0 ? 0x200 : 0));
+        }
+
+        int halfExponent = exponent - 127 + 15;
+
+        // Too big to represent.
+        if(halfExponent>=0x1F){
+            return (short) (sign | 0x7C00);
+        }
+
+        // Too small for a normal half float, so it becomes subnormal or zero.
+        if(halfExponent<=0){
+            if(halfExponent<-10){
+                return (short) sign;
+            }
+            mantissa |= 0x800000;
+            int shift = 14 - halfExponent;
+            int half = mantissa>>shift;
+            int rest = mantissa & ((1<<shift)-1);
+            int halfway = 1<<(shift-1);
+            if(rest>halfway || (rest==halfway && (half&1)!=0)){
+                half++;
+            }
+            return (short) (sign | half);
+        }
+
+        // Rounding up can carry into the exponent, which is exactly the right answer.
+        int half = (halfExponent<<10) | (mantissa>>13);
+        int rest = mantissa & 0x1FFF;
+        if(rest>0x1000 || (rest==0x1000 && (half&1)!=0)){
+            half++;
+        }
+
+        return (short) (sign | half);
+    }
+
+    /**
+     * toFloat
+     *
+     * Converts the bits of an IEEE half precision float back to a float, exactly.
+     */
+    public static float toFloat(short half){
+
+        int bits = half & 0xFFFF;
+        int sign = (bits & 0x8000)<<16;
+        int exponent = (bits>>>10) & 0x1F;
+        int mantissa = bits & 0x3FF;
+
+        if(exponent==0){
+            float subnormal = mantissa * (1.0f/16777216.0f);
+            return sign!=0 ? -subnormal : subnormal;
+        }
+        if(exponent==0x1F){
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa<<13));
+        }
+
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127)<<23) | (mantissa<<13));
+    }
+}
@@ -0,0 +1,223 @@
+package physics.plasma.particlepush;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelRunner
+ *
+ * This spreads a loop over particles across several threads. The particles are cut into
+ * chunks, and each thread keeps grabbing the next chunk nobody has taken until there are
+ * none left, so a thread that gets easy chunks just ends up doing more of them.
+ *
+ * The thread that calls run() does its share of the work as worker 0, and the others are
+ * kept waiting between calls instead of being started each time. Each chunk is handed its
+ * worker number, so tasks can give every worker its own scratch memory instead of sharing
+ * or allocating any.
+ *
+ * This is written with plain threads rather than a ForkJoinPool, which older Android
+ * versions don't have.
+ */
+public class ParallelRunner {
+
+    /**
+     * Task
+     *
+     * A loop body that works on particles from..to-1, on the given worker.
+     */
+    public interface Task {
+        void run(int from, int to, int worker);
+    }
+
+    // The helper threads; the calling thread is worker 0 so there's one fewer of these.
+    private final Thread[] helpers;
+
+    // The loop being run: the task, how many particles, how big the chunks are,
+    // and where the next untaken chunk starts.
+    private Task task;
+    private int total;
+    private int chunk;
+    private final AtomicInteger next = new AtomicInteger();
+
+    // Counts loops so the helpers can tell a new one has started, how many helpers
+    // are still working on the current one, and whether they should quit.
+    private int generation;
+    private int busy;
+    private boolean finished;
+
+    // The first thing that went wrong on a helper during the current loop. Errors are kept
+    // too, so a helper running out of memory can't leave the calling thread waiting forever.
+    private Throwable failure;
+
+    /**
+     * ParallelRunner
+     *
+     * Starts a runner with the given number of workers, counting the calling thread.
+     */
+    public ParallelRunner(int workers){
+
+        helpers = new Thread[Math.max(1, workers)-1];
+        for(int i=0;i<helpers.length;i++){
+            final int worker = i+1;
+            helpers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    help(worker);
+                }
+            }, "Simulation worker " + worker);
+            helpers[i].setDaemon(true);
+            helpers[i].start();
+        }
+    }
+
+    /**
+     * workers
+     *
+     * Returns how many threads share the work, counting the calling thread.
+     */
+    public int workers(){
+        return helpers.length+1;
+    }
+
+    /**
+     * run
+     *
+     * Runs the task over particles 0..n-1 in chunks of the given size, and returns
+     * once every chunk is done. Anything a helper throws, errors included, is thrown again from here.
+     */
+    public void run(Task loop, int n, int size){
+
+        // Not worth waking anybody up for a single chunk.
+        if(helpers.length==0 || n<=size){
+            for(int from=0;from<n;from+=size){
+                loop.run(from, Math.min(n, from+size), 0);
+            }
+            return;
+        }
+
+        synchronized(this){
+            task = loop;
+            total = n;
+            chunk = size;
+            next.set(0);
+            failure = null;
+            busy = helpers.length;
+            generation++;
+            notifyAll();
+        }
+
+        // Even if our own share fails, the helpers have to finish before anything else runs.
+        Throwable problem = null;
+        try {
+            work(0);
+        } catch (Throwable e) {
+            problem = e;
+        }
+
+        synchronized(this){
+            if(problem!=null && failure==null){
+                failure = problem;
+            }
+            boolean interrupted = false;
+            while(busy>0){
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            task = null;
+            if(interrupted){
+                Thread.currentThread().interrupt();
+            }
+            if(failure!=null){
+                rethrow(failure);
+            }
+        }
+    }
+
+    /**
+     * shutdown
+     *
+     * Lets the helper threads finish. The runner can't be used after this.
+     */
+    public synchronized void shutdown(){
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * work
+     *
+     * Takes chunks until there are none left.
+     */
+    private void work(int worker){
+
+        Task loop = task;
+        int n = total;
+        int size = chunk;
+        int from;
+        while((from = next.getAndAdd(size))<n){
+            loop.run(from, Math.min(n, from+size), worker);
+        }
+    }
+
+    /**
+     * help
+     *
+     * This is a helper thread's loop: wait for a new loop to start, work on it, repeat.
+     */
+    private void help(int worker){
+
+        int seen = 0;
+        while(true){
+
+            synchronized(this){
+                while(generation==seen && !finished){
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if(finished){
+                    return;
+                }
+                seen = generation;
+            }
+
+            // Whatever happens, the chunk has to be handed back so run() can return.
+            Throwable problem = null;
+            try {
+                work(worker);
+            } catch (Throwable e) {
+                problem = e;
+            } finally {
+                synchronized(this){
+                    if(problem!=null && failure==null){
+                        failure = problem;
+                    }
+                    if(--busy==0){
+                        notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * rethrow
+     *
+     * Throws what went wrong on a worker from the calling thread, as it was if it can be.
+     */
+    private static void rethrow(Throwable problem){
+
+        if(problem instanceof RuntimeException){
+            throw (RuntimeException) problem;
+        }
+        if(problem instanceof Error){
+            throw (Error) problem;
+        }
+
+        throw new RuntimeException(problem);
+    }
+}
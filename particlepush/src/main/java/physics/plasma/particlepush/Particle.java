@@ -6,84 +6,77 @@ package physics.plasma.particlepush;
  * for rendering them and for processing where they should be, and there are more than just
  * coordinates to keep track of if we want adaptive mass/charge-like quantities.
  *
- * This will manage the qualities of each particles: things like its position, mass, charge,
- * and it will allow for the creation of new qualities as dictated by the System Manager. *
+ * The actual data for every particle lives in the ParticleStore as one column per quality,
+ * so a Particle is only a lightweight handle: the pool it was spawned from and the handle
+ * the pool gave it. The handle stays valid while the particle moves around in the store,
+ * and once the particle is killed it's simply seen as dead.
+ * It's convenient for poking at a single particle, but anything that loops over
+ * all of them should read the store's columns directly instead.
  */
 public class Particle {
 
-    // TODO Qualities as different numbers in a vector? Should they each have their own variable?
-    // TODO Historical data: d^n(x) vector that adaptively truncates below a certain threshold.
-
-    // This is the array that holds a reference to all of a particle's associated Qualities.
-    public Quality[] qualities;
+    // The store that holds this particle's qualities,
+    // and the pool and handle used to find it in there.
+    public final ParticleStore store;
+    public final ParticlePool pool;
+    public final int handle;
 
     /**
      * Particle
      *
-     * This is the main constructor for a Particle. By default Particles should have position.
-     * They can also have some standard qualities defined for them like mass or charge.
-     *
-     * The goal of a particle as a class is that it needs to construct its qualities on the fly:
-     *
-     * If a particle doesn't have a quality that is asked for by the System Manager,
-     * the Manager must have a default value stored in itself for the case of a null return.
-     *
-     * If the default value is changed overall, then it can be updated in the Manager
-     * with no need to talk to the particles individually.
-     *
-     * But if the particle's individual value is set as different than the default,
-     * then we must attach the associated quality to the given particle.
-     *
-     * Hopefully this conserves memory and processing time.
+     * This is the main constructor for a Particle handle. The particle itself
+     * should already have been spawned from the pool, normally by the System Manager.
      */
-    public Particle(){
+    public Particle(ParticleStore particleStore, ParticlePool particlePool, int particleHandle){
 
-        qualities = new Quality[0];
+        store = particleStore;
+        pool = particlePool;
+        handle = particleHandle;
 
     }
 
     /**
-     * addQuality
+     * isAlive
      *
-     * This takes the array of qualities for the particle and adds a new space,
-     * and then fills the space with the given quality (which should have a preset value).
+     * Tells whether the particle still exists.
      */
-    public void addQuality(Quality quality){
-
-        // This is a standard copy process using a temporary array to store the originals
-        // while increasing the main copy's length, and then moving the data back over.
-        Quality[] temp = qualities;
-        qualities = new Quality[temp.length+1];
-
-        for(int i=0;i<temp.length;i++){
-            qualities[i] = temp[i];
-        }
-
-        qualities[temp.length] = quality;
-
+    public boolean isAlive(){
+        return pool.isAlive(handle);
     }
 
     /**
-     * addQuality
+     * get
      *
-     * This takes the array of qualities for the particle and adds a new space,
-     * and then fills the space by making a new quality with the associated name and value.
+     * Returns this particle's value of the quality with the given id.
+     * Throws an IllegalStateException if the particle is dead.
+     */
+    public float get(int quality){
+        return store.get(quality, index());
+    }
+
+    /**
+     * set
      *
-     * This method should be avoided since we should normally be passing qualities directly
-     * from the System Manager to avoid using additional construction time for new ones.
+     * Sets this particle's value of the quality with the given id.
+     * The ids come from the System Manager's QualitySchema.
+     * Throws an IllegalStateException if the particle is dead.
      */
-    public void addQuality(String name,float value){
+    public void set(int quality, float value){
+        store.set(quality, index(), value);
+    }
 
-        // This is a standard copy process using a temporary array to store the originals
-        // while increasing the main copy's length, and then moving the data back over.
-        Quality[] temp = qualities;
-        qualities = new Quality[temp.length+1];
+    /**
+     * index
+     *
+     * Returns where the particle is in the store right now, making sure it's still alive.
+     */
+    private int index(){
 
-        for(int i=0;i<temp.length;i++){
-            qualities[i] = temp[i];
+        int index = pool.index(handle);
+        if(index==ParticlePool.NONE){
+            throw new IllegalStateException("The particle is dead.");
         }
 
-        qualities[temp.length] = new Quality(name,value);
-
+        return index;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,217 @@
+package physics.plasma.particlepush;
+
+/**
+ * ParticleHistory
+ *
+ * This keeps track of where each particle has been: its position and as many of the
+ * derivatives of its position (velocity, acceleration, jerk, ...) as actually matter.
+ *
+ * Every time the history is recorded the derivatives are updated as backward differences:
+ * the new k-th derivative is the change in the (k-1)-th since last time, divided by dt.
+ * So the table of derivatives holds exactly what a ring buffer of the last few positions
+ * would, just in a form integrators and renderers can use directly, e.g. to extrapolate
+ * where a particle will be a moment from now.
+ *
+ * Each particle keeps only the orders that are significant. Once the change an order
+ * makes over a step, |d^k(x)| * dt^k, drops below the threshold, that order and everything
+ * above it are dropped for that particle. A particle whose top order is significant gains
+ * one more the next time, up to the maximum. Higher orders only get a column once some
+ * particle needs them, so quiet scenes never pay for deep histories.
+ *
+ * All of it is stored as ordinary quality columns, so it follows particles around
+ * when the store is repacked.
+ */
+public class ParticleHistory {
+
+    // The system whose particles we're tracking, and the qualities we take positions from.
+    private final SystemManager system;
+    private final int xQuality;
+    private final int yQuality;
+
+    // The most orders a particle can keep, counting the position itself as order 0,
+    // and how small a step's worth of change an order can make before it's dropped.
+    private final int maxOrders;
+    private float threshold;
+
+    // Column ids for each order in each direction, defined as they're needed,
+    // and the columns themselves, fetched fresh each time we record.
+    private final int[] dx;
+    private final int[] dy;
+    private final float[][] xColumns;
+    private final float[][] yColumns;
+    private int allocatedOrders;
+
+    // Column id holding how many orders each particle is currently keeping.
+    private final int ordersQuality;
+
+    // Set while recording when some particle would have kept another order if it had a column.
+    private boolean wantsMore;
+
+    /**
+     * ParticleHistory
+     *
+     * Starts tracking the history of the given position qualities, keeping at most
+     * maxOrders orders (position, velocity, acceleration, ...) per particle.
+     */
+    public ParticleHistory(SystemManager manager, int x, int y, int maxOrders, float threshold){
+
+        system = manager;
+        xQuality = x;
+        yQuality = y;
+        this.maxOrders = Math.max(2, maxOrders);
+        this.threshold = threshold;
+
+        dx = new int[this.maxOrders];
+        dy = new int[this.maxOrders];
+        xColumns = new float[this.maxOrders][];
+        yColumns = new float[this.maxOrders][];
+        ordersQuality = system.defineQuality("history orders", Quality.Type.INTEGER, 0.0f, "");
+
+        // Position and velocity are always worth having a column for.
+        allocate();
+        allocate();
+    }
+
+    /**
+     * record
+     *
+     * Adds the current positions of particles from..to-1 to their history.
+     * dt is the time since the last time they were recorded.
+     */
+    public void record(int from, int to, float dt){
+
+        ParticleStore store = system.particles;
+        float[] x = store.column(xQuality);
+        float[] y = store.column(yQuality);
+        float[] orders = store.column(ordersQuality);
+        float[][] hx = xColumns;
+        float[][] hy = yColumns;
+        for(int k=0;k<allocatedOrders;k++){
+            hx[k] = store.column(dx[k]);
+            hy[k] = store.column(dy[k]);
+        }
+        float inverseDt = 1.0f/dt;
+
+        for(int i=from;i<to;i++){
+
+            int have = (int) orders[i];
+
+            // The previous value of the order below the one being worked out.
+            float oldX = hx[0][i];
+            float oldY = hy[0][i];
+            float newX = x[i];
+            float newY = y[i];
+            hx[0][i] = newX;
+            hy[0][i] = newY;
+
+            if(have==0){
+                orders[i] = 1;
+                continue;
+            }
+
+            int keep = 1;
+            float change = 1.0f;
+            for(int k=1;k<=have && k<maxOrders;k++){
+
+                if(k>=allocatedOrders){
+                    wantsMore = true;
+                    break;
+                }
+
+                // Order k is only valid from before if the particle was keeping it.
+                float nextOldX = k<have ? hx[k][i] : 0.0f;
+                float nextOldY = k<have ? hy[k][i] : 0.0f;
+
+                newX = (newX-oldX)*inverseDt;
+                newY = (newY-oldY)*inverseDt;
+                hx[k][i] = newX;
+                hy[k][i] = newY;
+
+                // Keep this order only if it changes the position noticeably over a step.
+                change *= dt;
+                if(Math.max(Math.abs(newX), Math.abs(newY))*change<threshold){
+                    break;
+                }
+                keep = k+1;
+
+                oldX = nextOldX;
+                oldY = nextOldY;
+            }
+
+            orders[i] = keep;
+        }
+
+        // Give the next order a column so it can be picked up next time.
+        if(wantsMore && allocatedOrders<maxOrders){
+            allocate();
+        }
+        wantsMore = false;
+    }
+
+    /**
+     * orders
+     *
+     * Returns how many orders the given particle is keeping, counting its position.
+     */
+    public int orders(int id){
+        return (int) system.particles.get(ordersQuality, id);
+    }
+
+    /**
+     * derivative
+     *
+     * Returns the given order of derivative of a particle's recorded position,
+     * in x (axis 0) or y (axis 1). Orders the particle doesn't keep are zero.
+     */
+    public float derivative(int id, int axis, int order){
+
+        if(order>=orders(id)){
+            return 0.0f;
+        }
+
+        return system.particles.get(axis==0 ? dx[order] : dy[order], id);
+    }
+
+    /**
+     * extrapolate
+     *
+     * Estimates where a particle will be, in x (axis 0) or y (axis 1), a time t after it
+     * was last recorded, using a Taylor series over the orders it keeps.
+     */
+    public float extrapolate(int id, int axis, float t){
+
+        ParticleStore store = system.particles;
+        int[] d = axis==0 ? dx : dy;
+        int have = orders(id);
+
+        float sum = 0.0f;
+        float term = 1.0f;
+        for(int k=0;k<have;k++){
+            sum += store.get(d[k], id)*term;
+            term *= t/(k+1);
+        }
+
+        return sum;
+    }
+
+    /**
+     * setThreshold
+     *
+     * Changes how small an order's contribution over a step has to be before it's dropped.
+     */
+    public void setThreshold(float value){
+        threshold = value;
+    }
+
+    /**
+     * allocate
+     *
+     * Defines the columns for the next order up.
+     */
+    private void allocate(){
+
+        int k = allocatedOrders++;
+        dx[k] = system.defineQuality("history x" + k, Quality.Type.CONTINUOUS, 0.0f, "length/time^" + k);
+        dy[k] = system.defineQuality("history y" + k, Quality.Type.CONTINUOUS, 0.0f, "length/time^" + k);
+    }
+}
@@ -0,0 +1,442 @@
+package physics.plasma.particlepush;
+
+import java.util.Arrays;
+
+/**
+ * ParticleMesh
+ *
+ * This works out the electric field with the particle-in-cell method, which is how plasma
+ * codes handle huge numbers of particles. Instead of particles pushing on each other directly,
+ * every step:
+ *
+ *      1. Each particle's charge is spread onto the nearest points of a grid (deposition).
+ *      2. The potential of that charge density is found on the grid by a Poisson solver.
+ *      3. The field, minus the slope of the potential, is worked out at every grid point.
+ *      4. Each particle picks up the field from the same grid points its charge went to
+ *         (interpolation), and the manager pushes it.
+ *
+ * That costs O(n) for the particles plus whatever the solver costs for the grid, no matter
+ * how the particles are arranged.
+ *
+ * How a particle's charge is spread is its shape. CIC (cloud in cell) shares it between the
+ * 4 nearest points in proportion to how close it is to each; TSC (triangular shaped cloud)
+ * uses the 9 nearest and is smoother, for a little more work. The same shape is used both ways,
+ * which means a particle never pushes itself.
+ *
+ * The grid covers a box and normally wraps around at its edges, so a particle leaving one
+ * side comes back in on the other as far as the field is concerned. A uniform background of
+ * opposite charge is assumed so the box as a whole is neutral, which a wrapped grid needs.
+ *
+ * It can also be bounded instead, with grid points on the walls of the box, for solvers like
+ * multigrid that handle walls and electrodes. Then particles whose shape would reach past
+ * the walls neither add charge nor feel the field, and no background is assumed.
+ */
+public class ParticleMesh implements ForceProvider {
+
+    /**
+     * How each particle's charge is spread onto the grid.
+     */
+    public enum Shape {CIC, TSC}
+
+    // Which quality is the source of the field, how it's spread, and what solves for the potential.
+    private final int sourceQuality;
+    private Shape shape;
+    private PoissonSolver solver;
+
+    // The grid: whether it wraps around, its lower left corner, how many points across
+    // and up, and how far apart.
+    private final boolean periodic;
+    private final float originX;
+    private final float originY;
+    private final int nx;
+    private final int ny;
+    private final float dx;
+    private final float dy;
+
+    // The permittivity, which sets how strong the field of a given charge is.
+    private float permittivity;
+
+    // The charge density (divided by the permittivity, which is what the solver wants),
+    // the potential, and the field at every grid point, row by row.
+    private final float[] density;
+    private final float[] potential;
+    private final float[] fieldX;
+    private final float[] fieldY;
+
+    // The source values copied out of the store, which might not keep them as a plain column.
+    private float[] charges = new float[0];
+
+    // Each worker's room for the grid points and weights of a particle's shape.
+    private int[][] indices = new int[0][];
+    private float[][] weights = new float[0][];
+
+    // Goes up whenever a setting changes the field.
+    private volatile int changes;
+
+    /**
+     * ParticleMesh
+     *
+     * Creates a grid of nx by ny points covering the box from (x, y) that is width by height
+     * and wraps around, solving for the potential with the given solver.
+     */
+    public ParticleMesh(int source, float x, float y, float width, float height, int nx, int ny,
+                        Shape shape, PoissonSolver solver){
+        this(source, x, y, width, height, nx, ny, shape, solver, true);
+    }
+
+    /**
+     * ParticleMesh
+     *
+     * Creates a grid of nx by ny points covering the box from (x, y) that is width by height,
+     * either wrapping around or with points on its walls.
+     */
+    public ParticleMesh(int source, float x, float y, float width, float height, int nx, int ny,
+                        Shape shape, PoissonSolver solver, boolean periodic){
+
+        if(nx<3 || ny<3){
+            throw new IllegalArgumentException("The grid needs at least 3 points each way.");
+        }
+
+        sourceQuality = source;
+        this.shape = shape;
+        this.solver = solver;
+        this.periodic = periodic;
+        originX = x;
+        originY = y;
+        this.nx = nx;
+        this.ny = ny;
+        dx = periodic ? width/nx : width/(nx-1);
+        dy = periodic ? height/ny : height/(ny-1);
+        permittivity = 1.0f;
+
+        density = new float[nx*ny];
+        potential = new float[nx*ny];
+        fieldX = new float[nx*ny];
+        fieldY = new float[nx*ny];
+        ensureWorkers(1);
+
+    }
+
+    @Override
+    public void prepare(SystemManager system){
+
+        ParticleStore store = system.particles;
+        int n = store.size();
+
+        if(charges.length<n){
+            charges = new float[store.capacity()];
+        }
+        system.read(sourceQuality, 0, n, charges);
+
+        ensureWorkers(system.workers());
+        deposit(store.column(system.X), store.column(system.Y), charges, n);
+        solve();
+    }
+
+    @Override
+    public void accumulate(SystemManager system, int from, int to, int worker){
+
+        ParticleStore store = system.particles;
+        interpolate(store.column(system.X), store.column(system.Y),
+                store.column(system.EX), store.column(system.EY), from, to, worker);
+    }
+
+    /**
+     * deposit
+     *
+     * Spreads the charge of particles 0..n-1 onto the grid as a density,
+     * with the neutralizing background taken off.
+     */
+    public void deposit(float[] x, float[] y, float[] q, int n){
+
+        float[] rho = density;
+        Arrays.fill(rho, 0.0f);
+        float inverseX = 1.0f/dx;
+        float inverseY = 1.0f/dy;
+
+        if(shape==Shape.CIC){
+            for(int p=0;p<n;p++){
+
+                float gx = (x[p]-originX)*inverseX;
+                float gy = (y[p]-originY)*inverseY;
+                int i = (int) Math.floor(gx);
+                int j = (int) Math.floor(gy);
+                float fx = gx-i;
+                float fy = gy-j;
+                if(periodic){
+                    i = wrap(i, nx);
+                    j = wrap(j, ny);
+                }
+                else if(i<0 || j<0 || i>=nx-1 || j>=ny-1){
+                    continue;
+                }
+                int i1 = i==nx-1 ? 0 : i+1;
+                int j1 = (j==ny-1 ? 0 : j+1)*nx;
+                j *= nx;
+
+                float charge = q[p];
+                rho[j+i] += charge*(1.0f-fx)*(1.0f-fy);
+                rho[j+i1] += charge*fx*(1.0f-fy);
+                rho[j1+i] += charge*(1.0f-fx)*fy;
+                rho[j1+i1] += charge*fx*fy;
+            }
+        }
+        else{
+            int[] index = indices[0];
+            float[] weight = weights[0];
+            for(int p=0;p<n;p++){
+
+                if(!tsc((x[p]-originX)*inverseX, nx, index, weight, 0)
+                        || !tsc((y[p]-originY)*inverseY, ny, index, weight, 3)){
+                    continue;
+                }
+
+                float charge = q[p];
+                for(int b=3;b<6;b++){
+                    int row = index[b]*nx;
+                    float share = charge*weight[b];
+                    for(int a=0;a<3;a++){
+                        rho[row+index[a]] += share*weight[a];
+                    }
+                }
+            }
+        }
+
+        // Turn charge per point into charge per area, take away the background,
+        // and fold in the permittivity.
+        double total = 0.0;
+        if(periodic){
+            for(int k=0;k<rho.length;k++){
+                total += rho[k];
+            }
+        }
+        float background = (float) (total/rho.length);
+        float inverseArea = 1.0f/(dx*dy*permittivity);
+        for(int k=0;k<rho.length;k++){
+            rho[k] = (rho[k]-background)*inverseArea;
+        }
+    }
+
+    /**
+     * solve
+     *
+     * Finds the potential of the deposited density, starting from last time's,
+     * and the field from the slope of the potential.
+     */
+    public void solve(){
+
+        solver.solve(density, potential, nx, ny, dx, dy);
+
+        // The field is minus the slope of the potential, by central differences,
+        // or one sided ones on the walls of a bounded grid.
+        float[] phi = potential;
+        for(int j=0;j<ny;j++){
+            int row = j*nx;
+            int below = j==0 ? (periodic ? ny-1 : 0) : j-1;
+            int above = j==ny-1 ? (periodic ? 0 : ny-1) : j+1;
+            float inverseY = 1.0f/(dy*(periodic ? 2 : above-below));
+            below *= nx;
+            above *= nx;
+            for(int i=0;i<nx;i++){
+                int left = i==0 ? (periodic ? nx-1 : 0) : i-1;
+                int right = i==nx-1 ? (periodic ? 0 : nx-1) : i+1;
+                float inverseX = 1.0f/(dx*(periodic ? 2 : right-left));
+                fieldX[row+i] = (phi[row+left]-phi[row+right])*inverseX;
+                fieldY[row+i] = (phi[below+i]-phi[above+i])*inverseY;
+            }
+        }
+    }
+
+    /**
+     * interpolate
+     *
+     * Adds the grid's field at particles from..to-1 into ex and ey,
+     * gathered with the same shape the charge was spread with. Different workers can
+     * interpolate different particles at the same time.
+     */
+    public void interpolate(float[] x, float[] y, float[] ex, float[] ey, int from, int to, int worker){
+
+        float[] gridX = fieldX;
+        float[] gridY = fieldY;
+        float inverseX = 1.0f/dx;
+        float inverseY = 1.0f/dy;
+
+        if(shape==Shape.CIC){
+            for(int p=from;p<to;p++){
+
+                float gx = (x[p]-originX)*inverseX;
+                float gy = (y[p]-originY)*inverseY;
+                int i = (int) Math.floor(gx);
+                int j = (int) Math.floor(gy);
+                float fx = gx-i;
+                float fy = gy-j;
+                if(periodic){
+                    i = wrap(i, nx);
+                    j = wrap(j, ny);
+                }
+                else if(i<0 || j<0 || i>=nx-1 || j>=ny-1){
+                    continue;
+                }
+                int i1 = i==nx-1 ? 0 : i+1;
+                int j1 = (j==ny-1 ? 0 : j+1)*nx;
+                j *= nx;
+
+                float w00 = (1.0f-fx)*(1.0f-fy);
+                float w10 = fx*(1.0f-fy);
+                float w01 = (1.0f-fx)*fy;
+                float w11 = fx*fy;
+                ex[p] += w00*gridX[j+i] + w10*gridX[j+i1] + w01*gridX[j1+i] + w11*gridX[j1+i1];
+                ey[p] += w00*gridY[j+i] + w10*gridY[j+i1] + w01*gridY[j1+i] + w11*gridY[j1+i1];
+            }
+        }
+        else{
+            int[] index = indices[worker];
+            float[] weight = weights[worker];
+            for(int p=from;p<to;p++){
+
+                if(!tsc((x[p]-originX)*inverseX, nx, index, weight, 0)
+                        || !tsc((y[p]-originY)*inverseY, ny, index, weight, 3)){
+                    continue;
+                }
+
+                float sumX = 0.0f;
+                float sumY = 0.0f;
+                for(int b=3;b<6;b++){
+                    int row = index[b]*nx;
+                    for(int a=0;a<3;a++){
+                        float share = weight[a]*weight[b];
+                        sumX += share*gridX[row+index[a]];
+                        sumY += share*gridY[row+index[a]];
+                    }
+                }
+                ex[p] += sumX;
+                ey[p] += sumY;
+            }
+        }
+    }
+
+    /**
+     * setShape
+     *
+     * Changes how charge is spread onto the grid and the field gathered back from it.
+     */
+    public void setShape(Shape value){
+        shape = value;
+        changes++;
+    }
+
+    /**
+     * setSolver
+     *
+     * Changes what finds the potential from the density.
+     */
+    public void setSolver(PoissonSolver value){
+        solver = value;
+        changes++;
+    }
+
+    /**
+     * setPermittivity
+     *
+     * Changes the permittivity; the field of a given charge is inversely proportional to it.
+     */
+    public void setPermittivity(float value){
+        permittivity = value;
+        changes++;
+    }
+
+    /**
+     * density
+     *
+     * Returns the charge density over the permittivity on the grid, row by row,
+     * as of the last step, with the background taken off.
+     */
+    public float[] density(){
+        return density;
+    }
+
+    /**
+     * potential
+     *
+     * Returns the potential on the grid, row by row, as of the last step.
+     */
+    public float[] potential(){
+        return potential;
+    }
+
+    /**
+     * fieldX
+     *
+     * Returns the x part of the field on the grid, row by row, as of the last step.
+     */
+    public float[] fieldX(){
+        return fieldX;
+    }
+
+    /**
+     * fieldY
+     *
+     * Returns the y part of the field on the grid, row by row, as of the last step.
+     */
+    public float[] fieldY(){
+        return fieldY;
+    }
+
+    /**
+     * ensureWorkers
+     *
+     * Makes sure every worker has its own room for a particle's shape.
+     */
+    private void ensureWorkers(int workers){
+
+        if(indices.length<workers){
+            indices = new int[workers][6];
+            weights = new float[workers][6];
+        }
+    }
+
+    /**
+     * tsc
+     *
+     * Finds the three grid points nearest to grid coordinate g and the triangular shaped
+     * cloud weight of each, wrapping the points around a grid of the given size if it wraps.
+     * They go in index and weight starting at offset. Returns false if they run off the
+     * edge of a grid that doesn't wrap.
+     */
+    private boolean tsc(float g, int size, int[] index, float[] weight, int offset){
+
+        int i = (int) Math.floor(g+0.5f);
+        float d = g-i;
+        weight[offset] = 0.5f*(0.5f-d)*(0.5f-d);
+        weight[offset+1] = 0.75f-d*d;
+        weight[offset+2] = 0.5f*(0.5f+d)*(0.5f+d);
+
+        if(periodic){
+            i = wrap(i, size);
+        }
+        else if(i<1 || i>size-2){
+            return false;
+        }
+        index[offset] = i==0 ? size-1 : i-1;
+        index[offset+1] = i;
+        index[offset+2] = i==size-1 ? 0 : i+1;
+
+        return true;
+    }
+
+    /**
+     * wrap
+     *
+     * Brings a grid index that's fallen off either edge back around to the other side.
+     */
+    private static int wrap(int i, int size){
+
+        i %= size;
+        return i<0 ? i+size : i;
+    }
+
+    @Override
+    public int changes(){
+        return changes;
+    }
+}
@@ -0,0 +1,258 @@
+package physics.plasma.particlepush;
+
+import java.util.Arrays;
+
+/**
+ * ParticlePool
+ *
+ * This is how particles are created and destroyed while the simulation runs.
+ *
+ * The ParticleStore keeps its columns packed: particles 0..size-1 with no holes, so loops
+ * never have to skip dead ones. Removing a particle moves the last one into its place,
+ * which means a particle's index in the store can change. So instead of indices the pool
+ * hands out handles, which stay the same for as long as the particle lives.
+ *
+ * A handle is a slot number plus a generation count for that slot. Killing a particle
+ * puts its slot on a free list and bumps the generation, so if anyone still holds the old
+ * handle it no longer matches and is seen as dead instead of silently pointing at whatever
+ * particle reuses the slot, at least until the slot has been reused 2048 times and the
+ * generation comes back around. Slots and free list are reused, so once the pool has grown to
+ * the largest population it's needed, spawning and killing allocate nothing.
+ */
+public class ParticlePool {
+
+    // A handle is the slot in the low bits and the slot's generation above it. The generation
+    // only has 11 bits, so it wraps after a slot has been reused 2048 times, and a handle kept
+    // that long after its particle died matches again and points at whoever has the slot then.
+    // Handles are for following particles while they're alive, not for keeping forever.
+    private static final int SLOT_BITS = 20;
+    private static final int SLOT_MASK = (1<<SLOT_BITS)-1;
+    private static final int GENERATION_MASK = (1<<(31-SLOT_BITS))-1;
+
+    // Returned in place of a handle or index when there isn't one.
+    public static final int NONE = -1;
+
+    // The store whose particles this pool keeps track of.
+    private final ParticleStore store;
+
+    // For each slot: its current generation, and the particle's index in the store (or NONE).
+    private int[] generations = new int[64];
+    private int[] slotIndex = new int[64];
+
+    // For each particle in the store: the slot it belongs to.
+    private int[] indexSlot = new int[64];
+
+    // Room for the slots while the particles are put in a new order.
+    private int[] spareSlots = new int[0];
+
+    // Slots that are free to be reused, and how many slots have ever been handed out.
+    private int[] freeSlots = new int[64];
+    private int freeCount;
+    private int slotCount;
+
+    /**
+     * ParticlePool
+     *
+     * Creates a pool for the given store. The store should be empty,
+     * since every particle in it has to have been spawned through the pool.
+     */
+    public ParticlePool(ParticleStore particleStore){
+        store = particleStore;
+    }
+
+    /**
+     * spawn
+     *
+     * Adds one particle with every quality at its default and returns its handle.
+     */
+    public int spawn(){
+
+        int index = store.add();
+        return attach(index);
+    }
+
+    /**
+     * spawn
+     *
+     * Adds n particles at once with every quality at their defaults. Their handles are
+     * written into handles (if it isn't null), and the store index of the first one is
+     * returned. The rest follow on consecutively, so they can be filled in with a plain loop.
+     */
+    public int spawn(int n, int[] handles){
+
+        int first = store.add(n);
+        for(int i=0;i<n;i++){
+            int handle = attach(first+i);
+            if(handles!=null){
+                handles[i] = handle;
+            }
+        }
+
+        return first;
+    }
+
+    /**
+     * kill
+     *
+     * Removes the particle with the given handle. Returns false if it was already dead.
+     */
+    public boolean kill(int handle){
+
+        int index = index(handle);
+        if(index==NONE){
+            return false;
+        }
+
+        int slot = handle & SLOT_MASK;
+        int last = store.size()-1;
+
+        // The last particle moves into the hole, so its slot has to point at its new index.
+        store.swapRemove(index);
+        int movedSlot = indexSlot[last];
+        indexSlot[index] = movedSlot;
+        slotIndex[movedSlot] = index;
+
+        // Retire the slot so old copies of the handle are seen as dead.
+        slotIndex[slot] = NONE;
+        generations[slot] = (generations[slot]+1) & GENERATION_MASK;
+        freeSlots[freeCount++] = slot;
+
+        return true;
+    }
+
+    /**
+     * kill
+     *
+     * Removes the first n particles in the handle array, and returns how many were
+     * actually alive to be removed.
+     */
+    public int kill(int[] handles, int n){
+
+        int killed = 0;
+        for(int i=0;i<n;i++){
+            if(kill(handles[i])){
+                killed++;
+            }
+        }
+
+        return killed;
+    }
+
+    /**
+     * killIndex
+     *
+     * Removes the particle currently at the given index in the store.
+     * This is for loops over the store that decide which particles to get rid of.
+     * The last particle moves into the index, so it has to be looked at again.
+     */
+    public void killIndex(int index){
+        kill(handle(index));
+    }
+
+    /**
+     * reorder
+     *
+     * Puts every particle in a new order, particle order[k] moving to index k, the way
+     * ParticleStore.permute does. Every handle keeps pointing at the same particle.
+     */
+    public void reorder(int[] order){
+
+        int n = store.size();
+        store.permute(order);
+
+        if(spareSlots.length<n){
+            spareSlots = new int[indexSlot.length];
+        }
+        int[] slots = spareSlots;
+        for(int k=0;k<n;k++){
+            slots[k] = indexSlot[order[k]];
+        }
+        for(int k=0;k<n;k++){
+            indexSlot[k] = slots[k];
+            slotIndex[slots[k]] = k;
+        }
+    }
+
+    /**
+     * isAlive
+     *
+     * Tells whether the particle with the given handle still exists.
+     */
+    public boolean isAlive(int handle){
+        return index(handle)!=NONE;
+    }
+
+    /**
+     * index
+     *
+     * Returns the particle's current index in the store, or NONE if it's dead.
+     */
+    public int index(int handle){
+
+        if(handle<0){
+            return NONE;
+        }
+
+        int slot = handle & SLOT_MASK;
+        if(slot>=slotCount || generations[slot]!=(handle>>>SLOT_BITS)){
+            return NONE;
+        }
+
+        return slotIndex[slot];
+    }
+
+    /**
+     * handle
+     *
+     * Returns the handle of the particle at the given index in the store.
+     */
+    public int handle(int index){
+
+        int slot = indexSlot[index];
+        return (generations[slot]<<SLOT_BITS) | slot;
+    }
+
+    /**
+     * size
+     *
+     * Returns how many particles are alive.
+     */
+    public int size(){
+        return store.size();
+    }
+
+    /**
+     * attach
+     *
+     * Gives the particle at the given index a slot, reusing a free one if there is one,
+     * and returns its handle.
+     */
+    private int attach(int index){
+
+        int slot;
+        if(freeCount>0){
+            slot = freeSlots[--freeCount];
+        }
+        else{
+            if(slotCount>SLOT_MASK){
+                throw new IllegalStateException("Too many particles for the pool.");
+            }
+            slot = slotCount++;
+            if(slot>=generations.length){
+                int length = generations.length*2;
+                generations = Arrays.copyOf(generations, length);
+                slotIndex = Arrays.copyOf(slotIndex, length);
+                freeSlots = Arrays.copyOf(freeSlots, length);
+            }
+        }
+
+        if(index>=indexSlot.length){
+            indexSlot = Arrays.copyOf(indexSlot, Math.max(index+1, indexSlot.length*2));
+        }
+
+        slotIndex[slot] = index;
+        indexSlot[index] = slot;
+
+        return (generations[slot]<<SLOT_BITS) | slot;
+    }
+}
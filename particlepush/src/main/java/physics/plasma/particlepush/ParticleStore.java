@@ -0,0 +1,488 @@
+package physics.plasma.particlepush;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * ParticleStore
+ *
+ * This holds the data for every particle in the system. Instead of each particle owning
+ * its own set of objects, every quality (x, y, mass, charge, ...) is kept as one long
+ * primitive float array, a "column", and a particle is just an index into those columns.
+ *
+ * That way a loop that only needs positions reads two arrays from start to finish
+ * without jumping around in memory, and adding a particle never allocates anything
+ * unless the columns have to grow.
+ *
+ * Qualities that nearly every particle shares can be kept in a SparseColumn instead,
+ * which stores one default and only the particles that differ from it. Qualities that don't
+ * need a full float can be kept in a PackedColumn, at 16 bits a particle. Neither of those
+ * has a float array behind it, so loops should use read() to get their values a block at a time.
+ */
+public class ParticleStore {
+
+    // How many particles the columns have room for when no capacity is given.
+    private static final int DEFAULT_CAPACITY = 256;
+
+    // One column per quality, each indexed by particle id.
+    // Sparse and packed qualities have no array here and use their own column instead.
+    private float[][] columns = new float[0][];
+    private SparseColumn[] sparse = new SparseColumn[0];
+    private PackedColumn[] packed = new PackedColumn[0];
+
+    // The value a new particle starts with in each column.
+    private float[] defaults = new float[0];
+
+    // How many particles are currently stored, and how many the columns can hold.
+    private int count;
+    private int capacity;
+
+    // Room to hold one column while the particles are put in a new order.
+    private float[] spareFloats = new float[0];
+    private short[] spareShorts = new short[0];
+
+    /**
+     * ParticleStore
+     *
+     * Creates an empty store with the default capacity.
+     */
+    public ParticleStore(){
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * ParticleStore
+     *
+     * Creates an empty store with room for the given number of particles
+     * before any column has to be reallocated.
+     */
+    public ParticleStore(int initialCapacity){
+        capacity = Math.max(1, initialCapacity);
+    }
+
+    /**
+     * addColumn
+     *
+     * Adds a new quality column to every particle, filled with the given default value,
+     * and returns the column index used to access it from then on.
+     */
+    public int addColumn(float defaultValue){
+
+        int index = grow(defaultValue);
+
+        columns[index] = new float[capacity];
+        Arrays.fill(columns[index], 0, count, defaultValue);
+
+        return index;
+    }
+
+    /**
+     * addSparseColumn
+     *
+     * Adds a new quality that every particle shares unless it's given its own value,
+     * and returns the column index used to access it from then on.
+     */
+    public int addSparseColumn(float defaultValue){
+
+        int index = grow(defaultValue);
+
+        sparse[index] = new SparseColumn(defaultValue, capacity);
+
+        return index;
+    }
+
+    /**
+     * addPackedColumn
+     *
+     * Adds a new quality stored in 16 bits per particle, either as a half precision float
+     * or as fixed point between minimum and maximum, and returns its column index.
+     */
+    public int addPackedColumn(Quality.Storage storage, float defaultValue, float minimum, float maximum){
+
+        int index = grow(defaultValue);
+
+        packed[index] = new PackedColumn(storage, defaultValue, minimum, maximum, capacity);
+        packed[index].fillDefault(0, count);
+
+        return index;
+    }
+
+    /**
+     * grow
+     *
+     * Makes room for one more column and returns its index.
+     */
+    private int grow(float defaultValue){
+
+        int index = columns.length;
+
+        float[][] tempColumns = new float[index+1][];
+        SparseColumn[] tempSparse = new SparseColumn[index+1];
+        PackedColumn[] tempPacked = new PackedColumn[index+1];
+        float[] tempDefaults = new float[index+1];
+        System.arraycopy(columns, 0, tempColumns, 0, index);
+        System.arraycopy(sparse, 0, tempSparse, 0, index);
+        System.arraycopy(packed, 0, tempPacked, 0, index);
+        System.arraycopy(defaults, 0, tempDefaults, 0, index);
+        tempDefaults[index] = defaultValue;
+
+        columns = tempColumns;
+        sparse = tempSparse;
+        packed = tempPacked;
+        defaults = tempDefaults;
+
+        return index;
+    }
+
+    /**
+     * add
+     *
+     * Adds a single particle with every quality set to its column's default,
+     * and returns the new particle's id.
+     */
+    public int add(){
+        return add(1);
+    }
+
+    /**
+     * add
+     *
+     * Adds a block of particles at once with every quality set to its column's default,
+     * and returns the id of the first one. The rest follow on consecutively.
+     */
+    public int add(int n){
+
+        int first = count;
+        ensureCapacity(count+n);
+
+        // Sparse columns need nothing, new particles never have an override.
+        for(int c=0;c<columns.length;c++){
+            if(columns[c]!=null){
+                Arrays.fill(columns[c], first, first+n, defaults[c]);
+            }
+            else if(packed[c]!=null){
+                packed[c].fillDefault(first, first+n);
+            }
+        }
+        count += n;
+
+        return first;
+    }
+
+    /**
+     * swapRemove
+     *
+     * Removes a particle by moving the last particle into its place, so the columns
+     * stay packed with no holes. The last particle's id changes to the removed one's,
+     * which is why anything holding on to particles should go through a ParticlePool.
+     */
+    public void swapRemove(int id){
+
+        int last = count-1;
+        if(id!=last){
+            move(last, id);
+        }
+        else{
+            for(int c=0;c<sparse.length;c++){
+                if(sparse[c]!=null){
+                    sparse[c].reset(last);
+                }
+            }
+        }
+        count--;
+    }
+
+    /**
+     * move
+     *
+     * Copies every quality of one particle over another's, leaving the source's
+     * sparse values reset so a removed slot never keeps a stale override.
+     */
+    private void move(int from, int to){
+
+        for(int c=0;c<columns.length;c++){
+            if(columns[c]!=null){
+                columns[c][to] = columns[c][from];
+            }
+            else if(packed[c]!=null){
+                packed[c].move(from, to);
+            }
+            else{
+                sparse[c].set(to, sparse[c].get(from));
+                sparse[c].reset(from);
+            }
+        }
+    }
+
+    /**
+     * permute
+     *
+     * Puts every particle in a new order, particle order[k] moving to index k, for every
+     * quality at once. order has to hold each index 0..size()-1 exactly once. Each column is
+     * gathered into spare memory and copied back, so the columns stay the same arrays.
+     * Like swapRemove this changes ids, so anything holding on to particles should go
+     * through a ParticlePool.
+     */
+    public void permute(int[] order){
+
+        int n = count;
+        if(spareFloats.length<n){
+            spareFloats = new float[capacity];
+            spareShorts = new short[capacity];
+        }
+
+        float[] scratch = spareFloats;
+        for(int c=0;c<columns.length;c++){
+            if(columns[c]!=null){
+                float[] values = columns[c];
+                for(int k=0;k<n;k++){
+                    scratch[k] = values[order[k]];
+                }
+                System.arraycopy(scratch, 0, values, 0, n);
+            }
+            else if(packed[c]!=null){
+                packed[c].permute(order, n, spareShorts);
+            }
+            else{
+                sparse[c].permute(order, n);
+            }
+        }
+    }
+
+    /**
+     * clear
+     *
+     * Removes every particle but keeps the columns and their allocated space.
+     */
+    public void clear(){
+
+        for(int c=0;c<sparse.length;c++){
+            if(sparse[c]!=null){
+                sparse[c].resetAll();
+            }
+        }
+        count = 0;
+    }
+
+    /**
+     * get
+     *
+     * Returns one particle's value of one quality.
+     */
+    public float get(int column, int id){
+
+        float[] values = columns[column];
+        if(values!=null){
+            return values[id];
+        }
+        if(packed[column]!=null){
+            return packed[column].get(id);
+        }
+
+        return sparse[column].get(id);
+    }
+
+    /**
+     * set
+     *
+     * Sets one particle's value of one quality.
+     */
+    public void set(int column, int id, float value){
+
+        float[] values = columns[column];
+        if(values!=null){
+            values[id] = value;
+        }
+        else if(packed[column]!=null){
+            packed[column].set(id, value);
+        }
+        else{
+            sparse[column].set(id, value);
+        }
+    }
+
+    /**
+     * fill
+     *
+     * Sets the given quality to the same value for every particle. A sparse quality does that
+     * by dropping every override and changing its default, so particles added afterwards get
+     * the value too; dense and packed qualities only change the particles already there.
+     */
+    public void fill(int column, float value){
+
+        if(columns[column]!=null){
+            Arrays.fill(columns[column], 0, count, value);
+        }
+        else if(packed[column]!=null){
+            packed[column].fill(0, count, value);
+        }
+        else{
+            sparse[column].resetAll();
+            sparse[column].setDefault(value);
+            defaults[column] = value;
+        }
+    }
+
+    /**
+     * read
+     *
+     * Copies the values of particles from..to-1 of a quality into dst, starting at dst[0].
+     * This works for every kind of column, so it's how loops should read qualities
+     * that might be sparse, one block of particles at a time.
+     */
+    public void read(int column, int from, int to, float[] dst){
+
+        if(columns[column]!=null){
+            System.arraycopy(columns[column], from, dst, 0, to-from);
+        }
+        else if(packed[column]!=null){
+            packed[column].read(from, to, dst);
+        }
+        else{
+            sparse[column].read(from, to, dst);
+        }
+    }
+
+    /**
+     * upload
+     *
+     * Writes the values of particles from..to-1 of a quality straight into a vertex buffer,
+     * particle i going to dst[offset + i*stride], decoding packed columns on the way.
+     */
+    public void upload(int column, int from, int to, FloatBuffer dst, int offset, int stride){
+
+        if(packed[column]!=null){
+            packed[column].upload(from, to, dst, offset, stride);
+        }
+        else if(columns[column]!=null){
+            float[] values = columns[column];
+            for(int i=from;i<to;i++){
+                dst.put(offset + i*stride, values[i]);
+            }
+        }
+        else{
+            for(int i=from;i<to;i++){
+                dst.put(offset + i*stride, sparse[column].get(i));
+            }
+        }
+    }
+
+    /**
+     * column
+     *
+     * Returns the backing array of a quality so loops can stream over it directly.
+     * Only the first size() entries are meaningful, and the array is replaced
+     * whenever the store grows, so it shouldn't be held on to across adds.
+     *
+     * Sparse and packed qualities don't have a float array, so this returns null for them.
+     */
+    public float[] column(int column){
+        return columns[column];
+    }
+
+    /**
+     * isSparse
+     *
+     * Tells whether the given quality only stores the particles that differ from its default.
+     */
+    public boolean isSparse(int column){
+        return sparse[column]!=null;
+    }
+
+    /**
+     * packed
+     *
+     * Returns the 16 bit column behind a packed quality, or null if it isn't packed.
+     */
+    public PackedColumn packed(int column){
+        return packed[column];
+    }
+
+    /**
+     * getDefault
+     *
+     * Returns the value new particles start with for the given quality.
+     */
+    public float getDefault(int column){
+        return defaults[column];
+    }
+
+    /**
+     * setDefault
+     *
+     * Changes the value new particles start with for the given quality.
+     *
+     * For a dense quality particles that already exist keep their current value. For a
+     * sparse quality every particle without its own value changes along with it, in O(1).
+     */
+    public void setDefault(int column, float value){
+
+        defaults[column] = value;
+        if(sparse[column]!=null){
+            sparse[column].setDefault(value);
+        }
+        if(packed[column]!=null){
+            packed[column].setDefault(value);
+        }
+    }
+
+    /**
+     * ensureCapacity
+     *
+     * Grows every column so it can hold at least the given number of particles.
+     * Growth is by doubling so adding particles one at a time stays cheap on average.
+     */
+    public void ensureCapacity(int minCapacity){
+
+        if(minCapacity<=capacity){
+            return;
+        }
+
+        int newCapacity = capacity;
+        while(newCapacity<minCapacity){
+            newCapacity *= 2;
+        }
+
+        for(int c=0;c<columns.length;c++){
+            if(columns[c]!=null){
+                float[] temp = new float[newCapacity];
+                System.arraycopy(columns[c], 0, temp, 0, count);
+                columns[c] = temp;
+            }
+            else if(packed[c]!=null){
+                packed[c].ensureCapacity(newCapacity);
+            }
+            else{
+                sparse[c].ensureCapacity(newCapacity);
+            }
+        }
+        capacity = newCapacity;
+    }
+
+    /**
+     * size
+     *
+     * Returns how many particles are in the store.
+     */
+    public int size(){
+        return count;
+    }
+
+    /**
+     * capacity
+     *
+     * Returns how many particles the columns can hold before they need to grow.
+     */
+    public int capacity(){
+        return capacity;
+    }
+
+    /**
+     * columnCount
+     *
+     * Returns how many qualities every particle has.
+     */
+    public int columnCount(){
+        return columns.length;
+    }
+}
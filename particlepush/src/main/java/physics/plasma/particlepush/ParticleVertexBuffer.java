@@ -0,0 +1,347 @@
+package physics.plasma.particlepush;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * ParticleVertexBuffer
+ *
+ * This is the particles' position and color data laid out exactly the way OpenGL wants it:
+ * direct, native order buffers outside the Java heap, which the renderer hands straight
+ * to glVertexAttribPointer, so nothing has to be copied or converted on the rendering
+ * thread and nothing is allocated per frame.
+ *
+ * The positions are laid out the same way the particle store keeps them, one buffer of
+ * every X and one of every Y, rather than interleaved per vertex. That makes writing a
+ * frame one bulk copy per column, which on Android is a plain memory copy, instead of a
+ * put for every value. The renderer reads X and Y as two attributes and puts them back
+ * together in the vertex shader. Colors only change now and then, so they're kept
+ * together, R, G, B, A for each particle.
+ *
+ * Alongside them are each particle's X and Y one simulation step earlier, laid out the same
+ * way, and the time the frame belongs to. The renderer uses those to blend between the two
+ * steps in the vertex shader, so motion looks smooth whatever rate the simulation runs at.
+ *
+ * This is a copy, not the simulation writing straight into what OpenGL draws from. Every
+ * frame the manager copies the positions out of the store into the back frame, which is
+ * still O(n) a frame, though it's a bulk copy and allocates nothing. Writing straight into
+ * these buffers was dropped for two reasons. The integrators, forces and sorts all work on
+ * the store's float arrays, and going through a FloatBuffer a value at a time is much slower
+ * on Android than the one copy. And the renderer draws one frame while the simulation fills
+ * another, so the simulation would have to write every step into whichever frame is at the
+ * back, which leaves the other frames behind anyway.
+ */
+public class ParticleVertexBuffer {
+
+    // How many bytes per float.
+    public static final int BYTES_PER_FLOAT = 4;
+    // Size of each particle's color data in elements.
+    public static final int COLOR_SIZE = 4;
+
+    // The current positions, one buffer per coordinate, the positions one step earlier,
+    // and the colors.
+    private FloatBuffer positionX;
+    private FloatBuffer positionY;
+    private FloatBuffer previousX;
+    private FloatBuffer previousY;
+    private FloatBuffer colors;
+
+    // When, in System.nanoTime() terms, this frame's step should start being shown,
+    // and how long a step is. Used to work out how far to blend from previous to current.
+    private long stamp;
+    private long stepNanos = 1;
+
+    // How many particles the buffer can hold, and how many of them should be drawn.
+    private int capacity;
+    private int count;
+
+    // Which set of particle colors the buffer holds, so they're only rewritten when they change.
+    private int colorVersion = -1;
+
+    // Which set of sleeping particles' positions the buffer holds. They don't move,
+    // so they're only rewritten when particles fall asleep, wake, or get reordered.
+    private int sleepVersion = -1;
+
+    /**
+     * ParticleVertexBuffer
+     *
+     * Creates a buffer with room for the given number of particles.
+     */
+    public ParticleVertexBuffer(int initialCapacity){
+        allocate(Math.max(1, initialCapacity));
+    }
+
+    /**
+     * setPosition
+     *
+     * Writes one particle's position, already in OpenGL coordinates.
+     */
+    public void setPosition(int id, float x, float y){
+
+        positionX.put(id, x);
+        positionY.put(id, y);
+    }
+
+    /**
+     * setColor
+     *
+     * Writes one particle's color.
+     */
+    public void setColor(int id, float r, float g, float b, float a){
+
+        int base = id*COLOR_SIZE;
+        colors.put(base, r);
+        colors.put(base+1, g);
+        colors.put(base+2, b);
+        colors.put(base+3, a);
+    }
+
+    /**
+     * writePositions
+     *
+     * Copies the positions of particles from..to-1 straight out of the position columns,
+     * one bulk copy per column.
+     */
+    public void writePositions(float[] x, float[] y, int from, int to){
+        copy(x, positionX, from, to);
+        copy(y, positionY, from, to);
+    }
+
+    /**
+     * writePrevious
+     *
+     * Copies the positions particles from..to-1 had one step before the current ones.
+     */
+    public void writePrevious(float[] x, float[] y, int from, int to){
+        copy(x, previousX, from, to);
+        copy(y, previousY, from, to);
+    }
+
+    /**
+     * setTiming
+     *
+     * Records when this frame's step should start being shown and how long a step lasts,
+     * both in System.nanoTime() terms.
+     */
+    public void setTiming(long frameStamp, long frameStepNanos){
+
+        stamp = frameStamp;
+        stepNanos = Math.max(1, frameStepNanos);
+    }
+
+    /**
+     * interpolation
+     *
+     * Returns how far, from 0 to 1, the renderer should blend from the previous positions
+     * to the current ones at the given System.nanoTime().
+     */
+    public float interpolation(long now){
+
+        float alpha = (float) (now-stamp)/stepNanos;
+        if(alpha<0.0f){
+            return 0.0f;
+        }
+
+        return alpha>1.0f ? 1.0f : alpha;
+    }
+
+    /**
+     * getX
+     *
+     * Reads back one particle's x position.
+     */
+    public float getX(int id){
+        return positionX.get(id);
+    }
+
+    /**
+     * getY
+     *
+     * Reads back one particle's y position.
+     */
+    public float getY(int id){
+        return positionY.get(id);
+    }
+
+    /**
+     * xBuffer
+     *
+     * Returns every particle's x position, to hand to OpenGL.
+     * Its position is left wherever the last caller put it, so set it before use.
+     */
+    public FloatBuffer xBuffer(){
+        return positionX;
+    }
+
+    /**
+     * yBuffer
+     *
+     * Returns every particle's y position, to hand to OpenGL.
+     */
+    public FloatBuffer yBuffer(){
+        return positionY;
+    }
+
+    /**
+     * previousXBuffer
+     *
+     * Returns every particle's x position a step ago, to hand to OpenGL.
+     */
+    public FloatBuffer previousXBuffer(){
+        return previousX;
+    }
+
+    /**
+     * previousYBuffer
+     *
+     * Returns every particle's y position a step ago, to hand to OpenGL.
+     */
+    public FloatBuffer previousYBuffer(){
+        return previousY;
+    }
+
+    /**
+     * colorBuffer
+     *
+     * Returns every particle's color, R, G, B, A in turn, to hand to OpenGL.
+     */
+    public FloatBuffer colorBuffer(){
+        return colors;
+    }
+
+    /**
+     * setCount
+     *
+     * Sets how many particles should be drawn, growing the buffer if it's too small.
+     */
+    public void setCount(int n){
+        ensureCapacity(n);
+        count = n;
+    }
+
+    /**
+     * count
+     *
+     * Returns how many particles should be drawn.
+     */
+    public int count(){
+        return count;
+    }
+
+    /**
+     * colorVersion
+     *
+     * Returns the version of the particle colors last written into this buffer.
+     */
+    public int colorVersion(){
+        return colorVersion;
+    }
+
+    /**
+     * setColorVersion
+     *
+     * Records which version of the particle colors this buffer now holds.
+     */
+    public void setColorVersion(int version){
+        colorVersion = version;
+    }
+
+    /**
+     * sleepVersion
+     *
+     * Returns the version of the sleeping particles' positions last written into this buffer.
+     */
+    public int sleepVersion(){
+        return sleepVersion;
+    }
+
+    /**
+     * setSleepVersion
+     *
+     * Records which version of the sleeping particles' positions this buffer now holds.
+     */
+    public void setSleepVersion(int version){
+        sleepVersion = version;
+    }
+
+    /**
+     * ensureCapacity
+     *
+     * Grows the buffer so it can hold at least the given number of particles,
+     * keeping the data already in it. This allocates new direct buffers, so it
+     * should only happen while the renderer isn't drawing from this one.
+     */
+    public void ensureCapacity(int minCapacity){
+
+        if(minCapacity<=capacity){
+            return;
+        }
+
+        int newCapacity = capacity;
+        while(newCapacity<minCapacity){
+            newCapacity *= 2;
+        }
+
+        FloatBuffer oldX = positionX;
+        FloatBuffer oldY = positionY;
+        FloatBuffer oldPreviousX = previousX;
+        FloatBuffer oldPreviousY = previousY;
+        FloatBuffer oldColors = colors;
+        allocate(newCapacity);
+        keep(oldX, positionX, count);
+        keep(oldY, positionY, count);
+        keep(oldPreviousX, previousX, count);
+        keep(oldPreviousY, previousY, count);
+        keep(oldColors, colors, count*COLOR_SIZE);
+    }
+
+    /**
+     * allocate
+     *
+     * Makes fresh direct buffers with room for the given number of particles.
+     */
+    private void allocate(int newCapacity){
+
+        capacity = newCapacity;
+        positionX = floats(capacity);
+        positionY = floats(capacity);
+        previousX = floats(capacity);
+        previousY = floats(capacity);
+        colors = floats(capacity*COLOR_SIZE);
+    }
+
+    /**
+     * floats
+     *
+     * Makes a direct, native order buffer of the given number of floats.
+     */
+    private static FloatBuffer floats(int size){
+        return ByteBuffer.allocateDirect(size*BYTES_PER_FLOAT).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+     * copy
+     *
+     * Copies values from..to-1 of a column into the same places in a buffer, in one go.
+     */
+    private static void copy(float[] values, FloatBuffer dst, int from, int to){
+
+        dst.limit(dst.capacity());
+        dst.position(from);
+        dst.put(values, from, to-from);
+    }
+
+    /**
+     * keep
+     *
+     * Copies the first size values of an old buffer into the start of a new one.
+     */
+    private static void keep(FloatBuffer old, FloatBuffer dst, int size){
+
+        old.position(0);
+        old.limit(size);
+        dst.put(old);
+        dst.position(0);
+    }
+}
@@ -1,10 +1,113 @@
 package physics.plasma.particlepush;
 
 /**
- * This will be an object created when you touch the screen.
- * It should be able to be attached to a particular particle or set of them,
- * should be the main way of interacting with the particles, and should be
- * the main method for manual creation and  deletion of particles.
+ * Pointer
+ *
+ * This is one touch on the screen. While a finger is down its pointer sits under it and
+ * pushes the particles around like a charge: a positive strength pushes positive particles
+ * away and pulls negative ones in, and a negative strength does the opposite. How quickly
+ * that dies off with distance is its falloff, and its softening keeps the push finite for
+ * particles right under the finger.
+ *
+ * Pointers aren't made directly. The manager's PointerField hands one out for each touch
+ * and takes it back when the finger lifts, so there's never more than a handful of them
+ * and nothing is allocated while touching. Later they should also be able to grab particles
+ * and create and delete them.
  */
 public class Pointer {
+
+    // The field this pointer belongs to, whose lock guards everything here.
+    private final PointerField owner;
+
+    // Which touch this is, as the touch screen numbers them, or -1 when it isn't in use.
+    int id = -1;
+
+    // Where it is.
+    float x;
+    float y;
+
+    // How hard it pushes, how quickly that dies off, and how close up it stops growing.
+    float strength;
+    PointerField.Falloff falloff;
+    float softening;
+
+    /**
+     * Pointer
+     *
+     * Creates an unused pointer for the given field.
+     */
+    Pointer(PointerField field){
+
+        owner = field;
+
+    }
+
+    /**
+     * id
+     *
+     * Returns which touch this pointer follows.
+     */
+    public int id(){
+        synchronized(owner){
+            return id;
+        }
+    }
+
+    /**
+     * x
+     *
+     * Returns where the pointer is across.
+     */
+    public float x(){
+        synchronized(owner){
+            return x;
+        }
+    }
+
+    /**
+     * y
+     *
+     * Returns where the pointer is up.
+     */
+    public float y(){
+        synchronized(owner){
+            return y;
+        }
+    }
+
+    /**
+     * setStrength
+     *
+     * Changes how hard this pointer pushes. Negative values pull positive particles in.
+     */
+    public void setStrength(float value){
+        synchronized(owner){
+            strength = value;
+            owner.changes++;
+        }
+    }
+
+    /**
+     * setFalloff
+     *
+     * Changes how quickly this pointer's push dies off with distance.
+     */
+    public void setFalloff(PointerField.Falloff value){
+        synchronized(owner){
+            falloff = value;
+            owner.changes++;
+        }
+    }
+
+    /**
+     * setSoftening
+     *
+     * Changes the distance inside which this pointer's push stops growing.
+     */
+    public void setSoftening(float value){
+        synchronized(owner){
+            softening = value;
+            owner.changes++;
+        }
+    }
 }
@@ -0,0 +1,260 @@
+package physics.plasma.particlepush;
+
+/**
+ * PointerField
+ *
+ * This turns the touches on the screen into a force on the particles. Each finger that's
+ * down gets a Pointer, which acts like a charge sitting under it, and every step all of
+ * their fields are added to every particle's.
+ *
+ * Touches arrive on the main thread while the simulation runs on its own, so the pointers
+ * are only ever changed under this field's lock. At the start of each step the ones in use
+ * are copied out into plain arrays, one entry per pointer, and the particles are pushed from
+ * those. There are never more than MAX_POINTERS of them, so for each chunk of particles the
+ * field of one pointer is added to all of them in a short loop with nothing in it but
+ * arithmetic, then the next pointer's, while the chunk is still in cache.
+ */
+public class PointerField implements ForceProvider {
+
+    /**
+     * How a pointer's push dies off with distance r.
+     *
+     * SPRING grows with r, so a pulling pointer gathers everything in like a trap. INVERSE dies
+     * off as 1/r, the way charges in a plane push each other, and INVERSE_SQUARE as 1/r^2,
+     * the way point charges do, which keeps the push close to the finger.
+     */
+    public enum Falloff {SPRING, INVERSE, INVERSE_SQUARE}
+
+    // How many touches are followed at once; any more than that are ignored.
+    public static final int MAX_POINTERS = 10;
+
+    // Every pointer, in use or not, and how new ones start out.
+    private final Pointer[] slots = new Pointer[MAX_POINTERS];
+    private float defaultStrength;
+    private Falloff defaultFalloff;
+    private float defaultSoftening;
+
+    // The pointers in use this step, copied out when the step starts.
+    private final float[] pointerX = new float[MAX_POINTERS];
+    private final float[] pointerY = new float[MAX_POINTERS];
+    private final float[] strengths = new float[MAX_POINTERS];
+    private final float[] softenings2 = new float[MAX_POINTERS];
+    private final Falloff[] falloffs = new Falloff[MAX_POINTERS];
+    private int active;
+
+    // Goes up whenever a pointer is put down, moved, changed or lifted. The pointers bump it
+    // too, under the same lock.
+    int changes;
+
+    /**
+     * PointerField
+     *
+     * Creates a field whose pointers start out with the given strength, falloff, and softening.
+     */
+    public PointerField(float strength, Falloff falloff, float softening){
+
+        for(int k=0;k<MAX_POINTERS;k++){
+            slots[k] = new Pointer(this);
+        }
+        setDefaults(strength, falloff, softening);
+
+    }
+
+    /**
+     * setDefaults
+     *
+     * Changes how pointers for new touches start out. Pointers already down keep their own.
+     */
+    public synchronized void setDefaults(float strength, Falloff falloff, float softening){
+
+        defaultStrength = strength;
+        defaultFalloff = falloff;
+        defaultSoftening = softening;
+    }
+
+    /**
+     * touch
+     *
+     * Moves the pointer following the given touch to (x, y), or puts one down there if this
+     * touch is new. Returns the pointer, or null if MAX_POINTERS are already down.
+     */
+    public synchronized Pointer touch(int id, float x, float y){
+
+        Pointer pointer = find(id);
+        if(pointer==null){
+            pointer = find(-1);
+            if(pointer==null){
+                return null;
+            }
+            pointer.id = id;
+            pointer.strength = defaultStrength;
+            pointer.falloff = defaultFalloff;
+            pointer.softening = defaultSoftening;
+        }
+
+        pointer.x = x;
+        pointer.y = y;
+        changes++;
+
+        return pointer;
+    }
+
+    /**
+     * release
+     *
+     * Lifts the pointer following the given touch, if there is one.
+     */
+    public synchronized void release(int id){
+
+        Pointer pointer = find(id);
+        if(pointer!=null){
+            pointer.id = -1;
+            changes++;
+        }
+    }
+
+    /**
+     * releaseAll
+     *
+     * Lifts every pointer.
+     */
+    public synchronized void releaseAll(){
+
+        for(Pointer pointer : slots){
+            pointer.id = -1;
+        }
+        changes++;
+    }
+
+    /**
+     * count
+     *
+     * Returns how many pointers are down.
+     */
+    public synchronized int count(){
+
+        int down = 0;
+        for(Pointer pointer : slots){
+            if(pointer.id!=-1){
+                down++;
+            }
+        }
+
+        return down;
+    }
+
+    /**
+     * positions
+     *
+     * Copies where every pointer that's down is into xy, x and y in turn,
+     * and returns how many there are. xy needs room for 2*MAX_POINTERS values.
+     */
+    public synchronized int positions(float[] xy){
+
+        int down = 0;
+        for(Pointer pointer : slots){
+            if(pointer.id!=-1){
+                xy[2*down] = pointer.x;
+                xy[2*down+1] = pointer.y;
+                down++;
+            }
+        }
+
+        return down;
+    }
+
+    @Override
+    public void prepare(SystemManager system){
+
+        synchronized(this){
+            int n = 0;
+            for(Pointer pointer : slots){
+                if(pointer.id==-1){
+                    continue;
+                }
+                pointerX[n] = pointer.x;
+                pointerY[n] = pointer.y;
+                strengths[n] = pointer.strength;
+                softenings2[n] = pointer.softening*pointer.softening;
+                falloffs[n] = pointer.falloff;
+                n++;
+            }
+            active = n;
+        }
+    }
+
+    @Override
+    public synchronized int changes(){
+        return changes;
+    }
+
+    @Override
+    public void accumulate(SystemManager system, int from, int to, int worker){
+
+        if(active==0){
+            return;
+        }
+
+        ParticleStore store = system.particles;
+        float[] x = store.column(system.X);
+        float[] y = store.column(system.Y);
+        float[] ex = store.column(system.EX);
+        float[] ey = store.column(system.EY);
+
+        for(int k=0;k<active;k++){
+
+            float px = pointerX[k];
+            float py = pointerY[k];
+            float s = strengths[k];
+            float eps2 = softenings2[k];
+
+            // One loop per law, so nothing but arithmetic is left inside them.
+            switch(falloffs[k]){
+
+                case SPRING:
+                    for(int i=from;i<to;i++){
+                        ex[i] += s*(x[i]-px);
+                        ey[i] += s*(y[i]-py);
+                    }
+                    break;
+
+                case INVERSE:
+                    for(int i=from;i<to;i++){
+                        float dx = x[i]-px;
+                        float dy = y[i]-py;
+                        float f = s/(dx*dx + dy*dy + eps2);
+                        ex[i] += f*dx;
+                        ey[i] += f*dy;
+                    }
+                    break;
+
+                case INVERSE_SQUARE:
+                    for(int i=from;i<to;i++){
+                        float dx = x[i]-px;
+                        float dy = y[i]-py;
+                        float r2 = dx*dx + dy*dy + eps2;
+                        float f = s/(r2*(float) Math.sqrt(r2));
+                        ex[i] += f*dx;
+                        ey[i] += f*dy;
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * find
+     *
+     * Returns the pointer following the given touch, or an unused one for -1, or null.
+     */
+    private Pointer find(int id){
+
+        for(Pointer pointer : slots){
+            if(pointer.id==id){
+                return pointer;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,21 @@
+package physics.plasma.particlepush;
+
+/**
+ * PoissonSolver
+ *
+ * This is anything that can find the electric potential of a charge density laid out on
+ * a grid, by solving Poisson's equation: the Laplacian of the potential is -source.
+ *
+ * The grid is stored row by row, nx points across and ny up, spaced dx and dy apart.
+ * Whatever is in the potential when solve() is called is where an iterative solver starts
+ * from, so handing it last step's potential saves most of the work.
+ */
+public interface PoissonSolver {
+
+    /**
+     * solve
+     *
+     * Overwrites potential with the solution for the given source.
+     */
+    void solve(float[] source, float[] potential, int nx, int ny, float dx, float dy);
+}
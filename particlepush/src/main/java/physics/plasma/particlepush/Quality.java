@@ -4,47 +4,81 @@ package physics.plasma.particlepush;
  * Quality
  *
  * We define the nature of particles by attaching qualities to them. To show up in space
- * the coordinate manager must give them a position, which is an array of Qualities:
+ * the coordinate manager must give them a position, which is a set of Qualities:
  * an xCoordinate, a yCoordinate, and so on depending on the dimension.
  * Or, for example, if you must compute gravitational forces the Manager
- * must assign each particle a mass. Etc...     *
+ * must assign each particle a mass. Etc...
+ *
+ * A Quality doesn't hold any particle's value itself. It describes one kind of value
+ * that every particle has, and its id is the column that holds those values in the
+ * ParticleStore. Names are only looked up once, when the quality is defined or fetched
+ * from the schema; everything after that should use the id.
  */
 public class Quality {
 
-    //This is the Quality's name, like "mass" or "velocity" or w/e
-    public String name;
-
-    // This is the value of the Quality
-    // "volatile" means it can be accessed in other threads
-    // For example: In the rendering thread to change graphics as the value changes.
-    public volatile float value;
+    /**
+     * Type
+     *
+     * What kind of number the quality represents. Everything is stored as a float,
+     * but integers and flags are kept to whole values so they round trip exactly.
+     */
+    public enum Type {
+        CONTINUOUS,
+        INTEGER,
+        FLAG
+    }
 
     /**
-     * Quality
+     * Storage
      *
-     * This is the main constructor for a Quality that you would attach to a particle.
-     * Qualities themselves should always be created through the System Manager, and then
-     * passed along to particles as needed to save processing time and memory.         *
+     * How many bits each particle's value takes. FLOAT32 is a plain float. HALF is an IEEE
+     * half precision float, and FIXED16 is 16 bit fixed point spread evenly over a range.
+     * The 16 bit kinds halve the memory and bandwidth of qualities that don't need more.
      */
-    public Quality(String qname){
+    public enum Storage {
+        FLOAT32,
+        HALF,
+        FIXED16
+    }
 
-        name = qname;
+    //This is the Quality's name, like "mass" or "velocity" or w/e
+    public final String name;
 
-    }
+    // The column this quality lives in, handed out by the schema when it was defined.
+    public final int id;
+
+    // What kind of value it is, what particles start out with, and what it's measured in.
+    public final Type type;
+    public final float defaultValue;
+    public final String units;
+
+    // Whether only the particles that differ from the default store their own value.
+    public final boolean sparse;
+
+    // How each value is stored, and for fixed point the range it covers.
+    public final Storage storage;
+    public final float minimum;
+    public final float maximum;
 
     /**
      * Quality
      *
-     * This is the filled version of the constructor for a Quality attached to a particle.
-     * Qualities themselves should always be created through the System Manager, and then
-     * passed along to particles as needed to save processing time and memory.
-     *
-     * This version of the constructor sets the name and the value on creation.
+     * This is the main constructor for a Quality. Qualities themselves should always be
+     * created through the QualitySchema owned by the System Manager, so each name
+     * only ever gets one id.
      */
-    public Quality(String qname,float qvalue){
+    Quality(String qname, int qid, Type qtype, float qdefault, String qunits, boolean qsparse,
+            Storage qstorage, float qminimum, float qmaximum){
 
         name = qname;
-        value = qvalue;
+        id = qid;
+        type = qtype;
+        defaultValue = qdefault;
+        units = qunits;
+        sparse = qsparse;
+        storage = qstorage;
+        minimum = qminimum;
+        maximum = qmaximum;
 
     }
 }
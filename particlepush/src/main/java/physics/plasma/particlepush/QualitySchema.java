@@ -0,0 +1,152 @@
+package physics.plasma.particlepush;
+
+import java.util.HashMap;
+
+/**
+ * QualitySchema
+ *
+ * This is the registry of every quality particles can have. Each name is interned
+ * exactly once into a small integer id, which is also the column that holds the
+ * quality in the ParticleStore, so reading "mass" from a particle is an array index
+ * rather than a search through names.
+ *
+ * The schema is owned by the System Manager. Anything that needs a quality should
+ * look its id up once when it's set up and keep the id around.
+ */
+public class QualitySchema {
+
+    // The store whose columns line up with the qualities defined here.
+    private final ParticleStore store;
+
+    // Lookup from name to quality, only used when setting things up.
+    private final HashMap<String, Quality> byName = new HashMap<String, Quality>();
+
+    // Lookup from id to quality, which is the one used at run time.
+    private Quality[] byId = new Quality[0];
+
+    /**
+     * QualitySchema
+     *
+     * Creates an empty schema whose qualities will be stored as columns in the given store.
+     */
+    public QualitySchema(ParticleStore particleStore){
+        store = particleStore;
+    }
+
+    /**
+     * define
+     *
+     * Interns a quality, giving it a column in the store and returning its description.
+     * Defining a name that already exists returns the existing quality as long as it was
+     * declared the same way, units and packed range included; declaring it differently
+     * is a programming error.
+     */
+    public Quality define(String name, Quality.Type type, float defaultValue, String units){
+        return define(name, type, defaultValue, units, false, Quality.Storage.FLOAT32, 0.0f, 0.0f);
+    }
+
+    /**
+     * defineSparse
+     *
+     * Interns a quality that nearly every particle shares. The default lives in the column
+     * once, and only the particles given a different value carry their own.
+     */
+    public Quality defineSparse(String name, Quality.Type type, float defaultValue, String units){
+        return define(name, type, defaultValue, units, true, Quality.Storage.FLOAT32, 0.0f, 0.0f);
+    }
+
+    /**
+     * definePacked
+     *
+     * Interns a quality stored in 16 bits per particle: as a half precision float, or as
+     * fixed point between minimum and maximum. Bounded things like colors lose nothing
+     * visible this way and take half the memory.
+     */
+    public Quality definePacked(String name, Quality.Type type, float defaultValue, String units,
+                                Quality.Storage storage, float minimum, float maximum){
+        return define(name, type, defaultValue, units, false, storage, minimum, maximum);
+    }
+
+    /**
+     * define
+     *
+     * Does the actual work of interning a quality as a dense, sparse, or packed column.
+     */
+    private Quality define(String name, Quality.Type type, float defaultValue, String units, boolean sparse,
+                           Quality.Storage storage, float minimum, float maximum){
+
+        Quality existing = byName.get(name);
+        if(existing!=null){
+            boolean sameUnits = existing.units==null ? units==null : existing.units.equals(units);
+            if(existing.type!=type || existing.defaultValue!=defaultValue || existing.sparse!=sparse
+                    || existing.storage!=storage || !sameUnits
+                    || existing.minimum!=minimum || existing.maximum!=maximum){
+                throw new IllegalArgumentException("Quality " + name + " is already defined differently.");
+            }
+            return existing;
+        }
+
+        int column;
+        if(sparse){
+            column = store.addSparseColumn(defaultValue);
+        }
+        else if(storage!=Quality.Storage.FLOAT32){
+            column = store.addPackedColumn(storage, defaultValue, minimum, maximum);
+        }
+        else{
+            column = store.addColumn(defaultValue);
+        }
+        Quality quality = new Quality(name, column, type, defaultValue, units, sparse, storage, minimum, maximum);
+
+        Quality[] temp = new Quality[byId.length+1];
+        System.arraycopy(byId, 0, temp, 0, byId.length);
+        temp[quality.id] = quality;
+        byId = temp;
+        byName.put(name, quality);
+
+        return quality;
+    }
+
+    /**
+     * id
+     *
+     * Returns the id of the quality with the given name.
+     * Asking for a quality that was never defined is a programming error.
+     */
+    public int id(String name){
+
+        Quality quality = byName.get(name);
+        if(quality==null){
+            throw new IllegalArgumentException("No quality named " + name + ".");
+        }
+
+        return quality.id;
+    }
+
+    /**
+     * contains
+     *
+     * Tells whether a quality with the given name has been defined.
+     */
+    public boolean contains(String name){
+        return byName.containsKey(name);
+    }
+
+    /**
+     * get
+     *
+     * Returns the description of the quality with the given id.
+     */
+    public Quality get(int id){
+        return byId[id];
+    }
+
+    /**
+     * size
+     *
+     * Returns how many qualities have been defined.
+     */
+    public int size(){
+        return byId.length;
+    }
+}
@@ -0,0 +1,148 @@
+package physics.plasma.particlepush;
+
+/**
+ * RK4Integrator
+ *
+ * This is the classic fourth order Runge-Kutta scheme. The rate of change of every
+ * particle's position and velocity is worked out four times a step: at the start, twice
+ * half way along (each time using the last estimate to get there), and at the end. The
+ * step taken is a weighted average of the four. It's very accurate for a given step size
+ * but costs four field evaluations, and its energy drifts slowly over long runs.
+ *
+ * The acceleration is the full Lorentz force, q/m (E + v x B). Only particles that are
+ * awake are moved.
+ */
+public class RK4Integrator implements Integrator {
+
+    // How far along the step each of the later evaluations is, and how much each counts.
+    private static final float[] NODES = {0.5f, 0.5f, 1.0f};
+    private static final float[] WEIGHTS = {1.0f, 2.0f, 2.0f, 1.0f};
+
+    // Each particle's charge to mass ratio, its position and velocity at the start of the
+    // step, and the running weighted sum of its rates of change.
+    private float[] ratio = new float[0];
+    private float[] x0 = new float[0];
+    private float[] y0 = new float[0];
+    private float[] vx0 = new float[0];
+    private float[] vy0 = new float[0];
+    private float[] sumX = new float[0];
+    private float[] sumY = new float[0];
+    private float[] sumVx = new float[0];
+    private float[] sumVy = new float[0];
+
+    // The stage being worked out, for the loop body below: the system, how much its rates
+    // count, how far along the step they go, and whether it's the first or the last.
+    private SystemManager stepSystem;
+    private float stepWeight;
+    private float stepH;
+    private boolean stepFirst;
+    private boolean stepLast;
+
+    // The loop body, made once so a step doesn't allocate anything.
+    private final ParallelRunner.Task stageLoop = new ParallelRunner.Task() {
+        @Override
+        public void run(int from, int to, int worker) {
+            stage(from, to);
+        }
+    };
+
+    @Override
+    public void advance(SystemManager system, float dt){
+
+        ParticleStore store = system.particles;
+        int n = system.active();
+        ensureCapacity(store.capacity(), n);
+        system.chargeToMass(ratio, n);
+
+        System.arraycopy(store.column(system.X), 0, x0, 0, n);
+        System.arraycopy(store.column(system.Y), 0, y0, 0, n);
+        System.arraycopy(store.column(system.VX), 0, vx0, 0, n);
+        System.arraycopy(store.column(system.VY), 0, vy0, 0, n);
+
+        stepSystem = system;
+        for(int stage=0;stage<4;stage++){
+
+            system.computeFields(0, n);
+
+            stepWeight = WEIGHTS[stage];
+            stepFirst = stage==0;
+            stepLast = stage==3;
+            stepH = stepLast ? dt/6.0f : NODES[stage]*dt;
+            system.forEachChunk(stageLoop, n);
+        }
+        stepSystem = null;
+    }
+
+    /**
+     * stage
+     *
+     * Works out the rates of change of particles from..to-1 at this stage, adds them into
+     * the running sums and moves the particles on to the next stage, or the end of the step.
+     */
+    private void stage(int from, int to){
+
+        SystemManager system = stepSystem;
+        ParticleStore store = system.particles;
+        float[] x = store.column(system.X);
+        float[] y = store.column(system.Y);
+        float[] vx = store.column(system.VX);
+        float[] vy = store.column(system.VY);
+        float[] ex = store.column(system.EX);
+        float[] ey = store.column(system.EY);
+        BorisPusher pusher = system.pusher;
+
+        float weight = stepWeight;
+        float h = stepH;
+        boolean first = stepFirst;
+        boolean last = stepLast;
+
+        for(int i=from;i<to;i++){
+
+            // The rates of change at this stage.
+            float b = pusher.magneticField(x[i], y[i]);
+            float kx = vx[i];
+            float ky = vy[i];
+            float kvx = ratio[i]*(ex[i] + ky*b);
+            float kvy = ratio[i]*(ey[i] - kx*b);
+
+            sumX[i] = (first ? 0.0f : sumX[i]) + weight*kx;
+            sumY[i] = (first ? 0.0f : sumY[i]) + weight*ky;
+            sumVx[i] = (first ? 0.0f : sumVx[i]) + weight*kvx;
+            sumVy[i] = (first ? 0.0f : sumVy[i]) + weight*kvy;
+
+            // Either where the next stage is evaluated, or where the step ends up.
+            if(last){
+                x[i] = x0[i] + h*sumX[i];
+                y[i] = y0[i] + h*sumY[i];
+                vx[i] = vx0[i] + h*sumVx[i];
+                vy[i] = vy0[i] + h*sumVy[i];
+            }
+            else{
+                x[i] = x0[i] + h*kx;
+                y[i] = y0[i] + h*ky;
+                vx[i] = vx0[i] + h*kvx;
+                vy[i] = vy0[i] + h*kvy;
+            }
+        }
+    }
+
+    /**
+     * ensureCapacity
+     *
+     * Makes sure there's room for every particle.
+     */
+    private void ensureCapacity(int capacity, int n){
+
+        if(ratio.length<n){
+            ratio = new float[capacity];
+            x0 = new float[capacity];
+            y0 = new float[capacity];
+            vx0 = new float[capacity];
+            vy0 = new float[capacity];
+            sumX = new float[capacity];
+            sumY = new float[capacity];
+            sumVx = new float[capacity];
+            sumVy = new float[capacity];
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package physics.plasma.particlepush;
+
+/**
+ * RelaxationSolver
+ *
+ * This is the simplest Poisson solver there is: sweep over the grid setting each point to
+ * what the equation says it should be given its four neighbors, and repeat. The points are
+ * colored like a checkerboard and all the red ones are done before the black ones, so every
+ * update uses neighbors that were just updated, and each update is pushed a little past where
+ * it would land (over-relaxation), which makes it converge a lot faster.
+ *
+ * It's slow to get rid of errors that stretch across the whole grid, but starting from last
+ * step's potential a few sweeps a step is usually plenty. The grid wraps around at its edges.
+ */
+public class RelaxationSolver implements PoissonSolver {
+
+    // How many red and black sweeps each solve does, and how far each update overshoots.
+    private int sweeps;
+    private float omega;
+
+    /**
+     * RelaxationSolver
+     *
+     * Creates a solver that does the given number of sweeps per solve, overshooting each
+     * update by omega, which has to be between 1 (no overshoot) and 2.
+     */
+    public RelaxationSolver(int sweeps, float omega){
+
+        this.sweeps = Math.max(1, sweeps);
+        this.omega = omega;
+
+    }
+
+    @Override
+    public void solve(float[] source, float[] potential, int nx, int ny, float dx, float dy){
+
+        float cx = 1.0f/(dx*dx);
+        float cy = 1.0f/(dy*dy);
+        float diagonal = 2.0f*(cx+cy);
+        float w = omega;
+
+        for(int sweep=0;sweep<sweeps;sweep++){
+            for(int color=0;color<2;color++){
+                for(int j=0;j<ny;j++){
+
+                    int row = j*nx;
+                    int below = (j==0 ? ny-1 : j-1)*nx;
+                    int above = (j==ny-1 ? 0 : j+1)*nx;
+
+                    for(int i=(j+color)&1;i<nx;i+=2){
+                        int left = i==0 ? nx-1 : i-1;
+                        int right = i==nx-1 ? 0 : i+1;
+                        float target = (cx*(potential[row+left] + potential[row+right])
+                                + cy*(potential[below+i] + potential[above+i])
+                                + source[row+i])/diagonal;
+                        potential[row+i] += w*(target-potential[row+i]);
+                    }
+                }
+            }
+        }
+
+        // On a grid that wraps around only differences in potential mean anything,
+        // so keep it from drifting by holding its average at zero.
+        double mean = 0.0;
+        for(int k=0;k<nx*ny;k++){
+            mean += potential[k];
+        }
+        float shift = (float) (mean/(nx*ny));
+        for(int k=0;k<nx*ny;k++){
+            potential[k] -= shift;
+        }
+    }
+
+    /**
+     * setSweeps
+     *
+     * Changes how many sweeps each solve does.
+     */
+    public void setSweeps(int count){
+        sweeps = Math.max(1, count);
+    }
+}
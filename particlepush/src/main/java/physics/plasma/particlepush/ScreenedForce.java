@@ -0,0 +1,155 @@
+package physics.plasma.particlepush;
+
+/**
+ * ScreenedForce
+ *
+ * This is the Coulomb force as it looks inside a plasma, where every charge gathers
+ * a cloud of opposite charge that hides it from far away. The potential of each charge
+ * falls off as exp(-r/lambda)/r, lambda being the Debye length, so past a few Debye lengths
+ * nothing is felt and the force can be cut off there.
+ *
+ * Since only nearby particles matter, this goes over the manager's neighbor lists instead of
+ * every pair, which makes the whole thing O(n). The lists reach a skin past the cutoff, so
+ * they only need building again every several steps.
+ */
+public class ScreenedForce implements ForceProvider {
+
+    // Which quality is the source of the field, and the constant in front of the force law.
+    private final int sourceQuality;
+    private float coupling;
+
+    // The screening length, the distance past which the force is ignored,
+    // and how much further the neighbor lists look.
+    private float inverseDebye;
+    private final float cutoff;
+    private final float skin;
+
+    // Keeps the force finite when two particles get very close.
+    private float softening2;
+
+    // The source values copied out of the store, which might not keep them as a plain column.
+    private float[] charges = new float[0];
+
+    // The lists the neighbors are looked up in.
+    private NeighborList list;
+
+    // Goes up whenever a setting changes the field.
+    private volatile int changes;
+
+    /**
+     * ScreenedForce
+     *
+     * Creates a screened force with the given Debye length, ignoring particles further
+     * apart than cutoff, which a few Debye lengths is plenty for. The neighbor lists
+     * get a skin of a quarter of the cutoff.
+     */
+    public ScreenedForce(int source, float coupling, float debyeLength, float cutoff, float softening){
+        this(source, coupling, debyeLength, cutoff, softening, 0.25f*cutoff);
+    }
+
+    /**
+     * ScreenedForce
+     *
+     * Creates a screened force whose neighbor lists have the given skin. A bigger skin
+     * means longer lists but building them less often.
+     */
+    public ScreenedForce(int source, float coupling, float debyeLength, float cutoff, float softening, float skin){
+
+        sourceQuality = source;
+        this.coupling = coupling;
+        inverseDebye = 1.0f/debyeLength;
+        this.cutoff = cutoff;
+        this.skin = skin;
+        softening2 = softening*softening;
+
+    }
+
+    @Override
+    public void prepare(SystemManager system){
+
+        ParticleStore store = system.particles;
+        int n = store.size();
+
+        if(charges.length<n){
+            charges = new float[store.capacity()];
+        }
+        system.read(sourceQuality, 0, n, charges);
+
+        // The manager checks the lists at the start of every step once it's been asked for them,
+        // so the first step this is added in has to check them here.
+        if(list==null){
+            list = system.trackNeighborList(cutoff, skin);
+            list.update(store.column(system.X), store.column(system.Y), n);
+        }
+    }
+
+    @Override
+    public void accumulate(SystemManager system, int from, int to, int worker){
+
+        ParticleStore store = system.particles;
+        float[] x = store.column(system.X);
+        float[] y = store.column(system.Y);
+        float[] ex = store.column(system.EX);
+        float[] ey = store.column(system.EY);
+        float[] q = charges;
+
+        int[] offsets = list.offsets();
+        int[] neighbors = list.neighbors();
+        float cut2 = cutoff*cutoff;
+        float eps2 = softening2;
+        float k = coupling;
+        float inverseLength = inverseDebye;
+
+        for(int i=from;i<to;i++){
+
+            float px = x[i];
+            float py = y[i];
+            float sumX = 0.0f;
+            float sumY = 0.0f;
+
+            for(int m=offsets[i];m<offsets[i+1];m++){
+                int j = neighbors[m];
+                float dx = px-x[j];
+                float dy = py-y[j];
+                float d2 = dx*dx + dy*dy;
+                if(d2>cut2){
+                    continue;
+                }
+                float r2 = d2 + eps2;
+                float r = (float) Math.sqrt(r2);
+                float scaled = r*inverseLength;
+                float f = q[j]*(1.0f+scaled)*(float) Math.exp(-scaled)/(r2*r);
+                sumX += f*dx;
+                sumY += f*dy;
+            }
+
+            ex[i] += k*sumX;
+            ey[i] += k*sumY;
+        }
+    }
+
+    /**
+     * setDebyeLength
+     *
+     * Changes the screening length. It should stay well below the cutoff.
+     */
+    public void setDebyeLength(float length){
+        inverseDebye = 1.0f/length;
+        changes++;
+    }
+
+    /**
+     * setCoupling
+     *
+     * Changes the constant in front of the force law.
+     */
+    public void setCoupling(float value){
+        coupling = value;
+        changes++;
+    }
+
+    @Override
+    public int changes(){
+        return changes;
+    }
+}
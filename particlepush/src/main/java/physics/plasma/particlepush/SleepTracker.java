@@ -0,0 +1,482 @@
+package physics.plasma.particlepush;
+
+/**
+ * SleepTracker
+ *
+ * This lets particles that have come to rest stop costing anything. In a scene driven by
+ * touch most particles are usually nowhere near a finger and barely moving, but they'd
+ * still be pushed and drawn every step.
+ *
+ * A particle whose speed and acceleration have both stayed under their thresholds for
+ * a number of steps in a row falls asleep: it's stopped dead and, sooner or later, moved to
+ * the end of the store with the other sleepers. The manager then only pushes the awake
+ * particles at the front, and only copies them into the frames, since sleepers never move.
+ * Sleepers still count as sources, so the awake particles go on feeling their charges.
+ *
+ * Moving particles around the store is what costs: everything that keeps particles by index
+ * has to follow them, and the colors have to be written again. So particles that fall asleep
+ * wait at the front until there are enough of them to be worth moving all at once, and
+ * sleepers that wake are taken in by moving the end of the front past them rather than by
+ * moving them. The push still goes over the ones waiting, at most one in BATCH of the front,
+ * but hold() puts them back where they were straight after, so they don't creep.
+ *
+ * Sleepers wake up when something disturbs them:
+ *
+ *      A neighbor bumps into them, which shows up as them having a velocity again,
+ *      or collisions push them.
+ *      A pointer comes within the wake radius.
+ *      The field at them grows past the threshold. That's only checked every so many
+ *      steps, since it means working out the field at every sleeper.
+ *      Anything changes what pushes the particles, and everybody is woken.
+ *
+ * Whether a particle is asleep is kept as a quality, so it follows the particle through
+ * any reordering. If the store has been shuffled or particles have come or gone, and the
+ * ones at the back aren't all asleep any more, everybody counts as being at the front
+ * until the next split.
+ */
+public class SleepTracker {
+
+    // Particles that fall asleep stay at the front until they're at least one in this many of
+    // the particles there, and then they're all moved to the back in one go.
+    private static final int BATCH = 8;
+
+    // The system whose particles sleep, and the id of the quality counting how many
+    // steps in a row each one has been still.
+    private final SystemManager system;
+    public final int QUIET;
+
+    // How slow and how gently pushed a particle has to be to count as still, squared,
+    // and how many steps in a row it has to be still to fall asleep.
+    private float speed2;
+    private float acceleration2;
+    private int steps;
+
+    // How close a pointer has to come to wake a sleeper, and how often, in steps,
+    // the field at the sleepers is checked.
+    private float wakeRadius;
+    private int checkInterval;
+    private int stepsSinceCheck;
+
+    // How many particles are awake, at the front of the store, and how many of those have
+    // fallen asleep and are waiting to be moved to the back.
+    private int awake;
+    private int dozing;
+
+    // What the store looked like when it was last split, so shuffles and new particles are noticed.
+    private int knownCount = -1;
+    private int knownReorders = -1;
+
+    // Bumped whenever the sleepers change, so the frames know to rewrite them.
+    private int version;
+
+    // Set from any thread to wake everybody at the start of the next step.
+    private volatile boolean wakeRequested;
+
+    // The sleepers' total charge and mass, which the push never sees.
+    private float sleepingCharge;
+    private float sleepingMass;
+
+    // Room for charge to mass ratios, charges, masses, the order that splits the store, and
+    // the pointers.
+    private float[] ratio = new float[0];
+    private float[] charges = new float[0];
+    private float[] masses = new float[0];
+    private int[] order = new int[0];
+    private final float[] pointers = new float[2*PointerField.MAX_POINTERS];
+
+    // How many particles fell asleep and woke up in the last update.
+    private int fellAsleep;
+    private int wokeUp;
+
+    /**
+     * SleepTracker
+     *
+     * Puts particles to sleep once their speed and acceleration have stayed under the given
+     * thresholds for the given number of steps.
+     */
+    public SleepTracker(SystemManager manager, float speed, float acceleration, int steps){
+
+        if(steps<1){
+            throw new IllegalArgumentException("Particles have to be still for at least one step to sleep.");
+        }
+
+        system = manager;
+        QUIET = manager.qualities.define("quiet steps", Quality.Type.INTEGER, 0.0f, "steps").id;
+        setThresholds(speed, acceleration, steps);
+        wakeRadius = 0.2f;
+        checkInterval = 8;
+
+    }
+
+    /**
+     * setThresholds
+     *
+     * Changes how still particles have to be, and for how many steps, to fall asleep.
+     */
+    public void setThresholds(float speed, float acceleration, int steps){
+
+        speed2 = speed*speed;
+        acceleration2 = acceleration*acceleration;
+        this.steps = steps;
+    }
+
+    /**
+     * setWaking
+     *
+     * Changes how close a pointer has to come to wake sleepers, and how often,
+     * in steps, the field at the sleepers is checked.
+     */
+    public void setWaking(float radius, int interval){
+
+        wakeRadius = radius;
+        checkInterval = Math.max(1, interval);
+    }
+
+    /**
+     * wakeAll
+     *
+     * Wakes every particle at the start of the next step. This can be called from any thread,
+     * and should be whenever what pushes the particles changes.
+     */
+    public void wakeAll(){
+        wakeRequested = true;
+    }
+
+    /**
+     * update
+     *
+     * Called at the start of every step. Counts how long each awake particle has been still,
+     * puts the ones that have been still long enough to sleep, wakes any sleeper that's been
+     * disturbed, and splits the store into awake and asleep again once enough has changed.
+     */
+    public void update(){
+
+        ParticleStore store = system.particles;
+        int n = store.size();
+        if(ratio.length<n){
+            ratio = new float[store.capacity()];
+            charges = new float[store.capacity()];
+            masses = new float[store.capacity()];
+            order = new int[store.capacity()];
+        }
+
+        float[] quiet = store.column(QUIET);
+        float[] vx = store.column(system.VX);
+        float[] vy = store.column(system.VY);
+        fellAsleep = 0;
+        wokeUp = 0;
+        int before = awake;
+        boolean moved = false;
+
+        if(knownCount!=n || knownReorders!=system.reorders()){
+            // Particles have come, gone or been moved around. If the ones at the back are all
+            // still asleep they can stay there, otherwise everybody counts as being at the front.
+            if(awake>n || !asleep(quiet, awake, n)){
+                awake = n;
+            }
+            knownCount = n;
+            knownReorders = system.reorders();
+            moved = true;
+        }
+
+        if(wakeRequested){
+            wakeRequested = false;
+            for(int i=0;i<n;i++){
+                if(quiet[i]>=steps){
+                    wokeUp++;
+                }
+                quiet[i] = 0.0f;
+            }
+            awake = n;
+            moved = true;
+        }
+
+        system.chargeToMass(ratio, awake);
+
+        // Count how long the particles at the front have been still. Ones that fell asleep
+        // since the last split are still there; they're kept still, and woken by anything else.
+        float[] ex = store.column(system.EX);
+        float[] ey = store.column(system.EY);
+        float[] r = ratio;
+        dozing = 0;
+        for(int i=0;i<awake;i++){
+
+            float v2 = vx[i]*vx[i] + vy[i]*vy[i];
+            float a2 = r[i]*r[i]*(ex[i]*ex[i] + ey[i]*ey[i]);
+            boolean still = v2<=speed2 && a2<=acceleration2;
+            if(quiet[i]>=steps){
+                if(still){
+                    vx[i] = 0.0f;
+                    vy[i] = 0.0f;
+                    dozing++;
+                }
+                else{
+                    quiet[i] = 0.0f;
+                    wokeUp++;
+                }
+            }
+            else if(still){
+                quiet[i] += 1.0f;
+                if(quiet[i]>=steps){
+                    vx[i] = 0.0f;
+                    vy[i] = 0.0f;
+                    fellAsleep++;
+                    dozing++;
+                }
+            }
+            else{
+                quiet[i] = 0.0f;
+            }
+        }
+
+        // Wake sleepers that have been bumped or have a pointer near them. Particles added
+        // or swapped in among the sleepers since the last split are woken the same way.
+        float[] x = store.column(system.X);
+        float[] y = store.column(system.Y);
+        int touches = system.pointers.positions(pointers);
+        float reach2 = wakeRadius*wakeRadius;
+        int deepest = -1;
+        int woken = 0;
+        for(int i=awake;i<n;i++){
+
+            boolean disturbed = quiet[i]<steps || vx[i]!=0.0f || vy[i]!=0.0f;
+            for(int k=0;k<touches && !disturbed;k++){
+                float dx = x[i]-pointers[2*k];
+                float dy = y[i]-pointers[2*k+1];
+                disturbed = dx*dx + dy*dy<=reach2;
+            }
+            if(disturbed){
+                quiet[i] = 0.0f;
+                deepest = i;
+                woken++;
+            }
+        }
+
+        // Every so often, see whether the field at the sleepers has grown enough to wake them.
+        if(++stepsSinceCheck>=checkInterval && awake<n){
+            stepsSinceCheck = 0;
+            system.computeFields(awake, n);
+            system.read(system.CHARGE, awake, n, charges);
+            system.read(system.MASS, awake, n, masses);
+            for(int i=awake;i<n;i++){
+                float ri = charges[i-awake]/masses[i-awake];
+                float a2 = ri*ri*(ex[i]*ex[i] + ey[i]*ey[i]);
+                if(a2>acceleration2 && quiet[i]>=steps){
+                    quiet[i] = 0.0f;
+                    deepest = Math.max(deepest, i);
+                    woken++;
+                }
+            }
+        }
+
+        // The front just grows to take in whoever woke. The sleepers it passes over on the way
+        // haven't moved, so the frames can keep them, and they go back at the next split.
+        if(deepest>=awake){
+            dozing += deepest+1-awake-woken;
+            wokeUp += woken;
+            awake = deepest+1;
+        }
+
+        // Splitting moves particles around the store, and everything that remembers them by index
+        // has to catch up, so it waits until the sleepers at the front are worth moving.
+        if(dozing>0 && dozing*BATCH>=awake){
+            split(n);
+        }
+        else{
+            if(moved){
+                version++;
+            }
+            if(awake!=before || moved){
+                weighSleepers(n);
+            }
+        }
+    }
+
+    /**
+     * hold
+     *
+     * Called straight after the push. Puts the particles at the front that fell asleep back
+     * where they were at the start of the step and stops them again, since the push moved them
+     * along with everybody else. Anything that moves them after this wakes them.
+     */
+    public void hold(){
+
+        if(dozing==0){
+            return;
+        }
+
+        ParticleStore store = system.particles;
+        float[] quiet = store.column(QUIET);
+        float[] x = store.column(system.X);
+        float[] y = store.column(system.Y);
+        float[] px = store.column(system.PREVIOUS_X);
+        float[] py = store.column(system.PREVIOUS_Y);
+        float[] vx = store.column(system.VX);
+        float[] vy = store.column(system.VY);
+        for(int i=0;i<awake;i++){
+            if(quiet[i]>=steps){
+                x[i] = px[i];
+                y[i] = py[i];
+                vx[i] = 0.0f;
+                vy[i] = 0.0f;
+            }
+        }
+    }
+
+    /**
+     * awake
+     *
+     * Returns how many particles are awake. They're particles 0..awake()-1.
+     */
+    public int awake(){
+        return awake;
+    }
+
+    /**
+     * current
+     *
+     * Tells whether the store is still split the way it was at the start of the step, with
+     * nobody added, removed or reordered since. Integrators that don't know about sleeping
+     * can move particles around, and then the sleepers aren't where they were.
+     */
+    public boolean current(){
+        return knownCount==system.particles.size() && knownReorders==system.reorders();
+    }
+
+    /**
+     * version
+     *
+     * Returns a number that changes whenever the sleepers do.
+     */
+    public int version(){
+        return version;
+    }
+
+    /**
+     * fellAsleep
+     *
+     * Returns how many particles fell asleep at the start of this step.
+     */
+    public int fellAsleep(){
+        return fellAsleep;
+    }
+
+    /**
+     * wokeUp
+     *
+     * Returns how many particles woke up at the start of this step.
+     */
+    public int wokeUp(){
+        return wokeUp;
+    }
+
+    /**
+     * addSleepers
+     *
+     * Adds the sleepers' charge, mass and count to the diagnostics, since the push never sees them.
+     * Their velocity is zero, so they add nothing else.
+     */
+    public void addSleepers(Diagnostics diagnostics){
+
+        int sleeping = system.particles.size()-awake;
+        if(sleeping>0){
+            diagnostics.add(0, 0.0f, 0.0f, 0.0f, sleepingCharge, sleepingMass, sleeping);
+        }
+    }
+
+    /**
+     * disturb
+     *
+     * Tells the tracker something other than the push has moved the particle at the given index.
+     * A sleeper is woken at the start of the next step, and the frames write the sleepers again,
+     * since one of them isn't where it was.
+     */
+    public void disturb(int index){
+
+        if(index>=awake){
+            system.particles.set(QUIET, index, 0.0f);
+            version++;
+        }
+    }
+
+    /**
+     * split
+     *
+     * Puts the awake particles at the front of the store and the sleepers after them,
+     * each keeping the order they were in, and adds up what the sleepers carry.
+     */
+    private void split(int n){
+
+        ParticleStore store = system.particles;
+        float[] quiet = store.column(QUIET);
+
+        int front = 0;
+        boolean sorted = true;
+        for(int i=0;i<n;i++){
+            if(quiet[i]<steps){
+                sorted &= front==i;
+                order[front++] = i;
+            }
+        }
+        int back = front;
+        for(int i=0;i<n;i++){
+            if(quiet[i]>=steps){
+                order[back++] = i;
+            }
+        }
+
+        if(!sorted){
+            system.reorder(order);
+        }
+        awake = front;
+        dozing = 0;
+        knownCount = n;
+        knownReorders = system.reorders();
+        version++;
+
+        // Sleepers stand still, so where they were a step ago is where they are.
+        int sleeping = n-awake;
+        System.arraycopy(store.column(system.X), awake, store.column(system.PREVIOUS_X), awake, sleeping);
+        System.arraycopy(store.column(system.Y), awake, store.column(system.PREVIOUS_Y), awake, sleeping);
+
+        weighSleepers(n);
+    }
+
+    /**
+     * weighSleepers
+     *
+     * Adds up the sleepers' charges and masses, which won't change until they wake.
+     */
+    private void weighSleepers(int n){
+
+        float[] m = masses;
+        system.read(system.MASS, awake, n, m);
+        float mass = 0.0f;
+        for(int i=0;i<n-awake;i++){
+            mass += m[i];
+        }
+        system.read(system.CHARGE, awake, n, m);
+        float charge = 0.0f;
+        for(int i=0;i<n-awake;i++){
+            charge += m[i];
+        }
+        sleepingMass = mass;
+        sleepingCharge = charge;
+    }
+
+    /**
+     * asleep
+     *
+     * Tells whether particles from..to-1 have all been still long enough to sleep.
+     */
+    private boolean asleep(float[] quiet, int from, int to){
+
+        for(int i=from;i<to;i++){
+            if(quiet[i]<steps){
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,341 @@
+package physics.plasma.particlepush;
+
+import java.util.Arrays;
+
+/**
+ * SparseColumn
+ *
+ * This is a quality column for values that almost every particle shares, like mass or charge.
+ * The column holds one default value for everybody, and only the particles that differ
+ * from it carry their own value.
+ *
+ * Which particles differ is kept as a bitset with one bit per particle. Their values are
+ * packed together in particle order, so the value for a particle is found by counting the
+ * set bits in front of it. To keep that count O(1) the words are grouped in blocks of 64,
+ * and the number of set bits before each block is stored, along with the number before each
+ * word inside its block.
+ *
+ * Changing the default changes the value of every particle that doesn't differ, in O(1).
+ * Adding or removing an individual override has to shift the packed values, so it costs
+ * time proportional to the number of overrides, plus updating the counts for the rest of
+ * its block and for every later block, one per 4096 particles. That's fine as long as
+ * overrides are rare, which is the whole reason to use this instead of a plain column.
+ */
+public class SparseColumn {
+
+    // The value of every particle that doesn't have its own.
+    private float defaultValue;
+
+    // One bit per particle marking the ones that have their own value.
+    private long[] bits;
+
+    // How many bits are set before each word of the bitset, counting from the start of its
+    // block of 64 words, and how many are set before each block.
+    private int[] ranks;
+    private int[] blockRanks;
+
+    // The particles' own values, packed in particle order.
+    private float[] values = new float[8];
+    private int overrides;
+
+    // Spare room to build the bitset and values in when the particles are put in a new order.
+    private long[] spareBits = new long[0];
+    private float[] spareValues = new float[0];
+
+    /**
+     * SparseColumn
+     *
+     * Creates a column with room for the given number of particles,
+     * all of which start out with the default value.
+     */
+    public SparseColumn(float qdefault, int capacity){
+
+        defaultValue = qdefault;
+        bits = new long[words(capacity)];
+        ranks = new int[bits.length];
+        blockRanks = new int[blocks(bits.length)];
+
+    }
+
+    /**
+     * get
+     *
+     * Returns the value of the given particle.
+     */
+    public float get(int id){
+
+        int word = id>>>6;
+        long mask = 1L<<id;
+        if((bits[word]&mask)==0){
+            return defaultValue;
+        }
+
+        return values[rank(word)+Long.bitCount(bits[word]&(mask-1))];
+    }
+
+    /**
+     * set
+     *
+     * Sets the value of the given particle. Setting it to the default removes its override,
+     * so from then on it follows the default along with everybody else.
+     */
+    public void set(int id, float value){
+
+        int word = id>>>6;
+        long mask = 1L<<id;
+        int slot = rank(word)+Long.bitCount(bits[word]&(mask-1));
+
+        if((bits[word]&mask)!=0){
+            if(value==defaultValue){
+                remove(word, mask, slot);
+            }
+            else{
+                values[slot] = value;
+            }
+            return;
+        }
+
+        if(value==defaultValue){
+            return;
+        }
+
+        // Make room for the new value at its place in particle order.
+        if(overrides==values.length){
+            values = Arrays.copyOf(values, values.length*2);
+        }
+        System.arraycopy(values, slot, values, slot+1, overrides-slot);
+        values[slot] = value;
+        overrides++;
+
+        bits[word] |= mask;
+        shiftRanks(word, 1);
+    }
+
+    /**
+     * reset
+     *
+     * Removes any override on the given particle so it follows the default again.
+     */
+    public void reset(int id){
+
+        int word = id>>>6;
+        long mask = 1L<<id;
+        if((bits[word]&mask)!=0){
+            remove(word, mask, rank(word)+Long.bitCount(bits[word]&(mask-1)));
+        }
+    }
+
+    /**
+     * resetAll
+     *
+     * Removes every override so all particles follow the default.
+     */
+    public void resetAll(){
+
+        Arrays.fill(bits, 0L);
+        Arrays.fill(ranks, 0);
+        Arrays.fill(blockRanks, 0);
+        overrides = 0;
+    }
+
+    /**
+     * isOverridden
+     *
+     * Tells whether the given particle has its own value.
+     */
+    public boolean isOverridden(int id){
+        return (bits[id>>>6]&(1L<<id))!=0;
+    }
+
+    /**
+     * read
+     *
+     * Copies the values of the particles from..to-1 into dst, starting at dst[0].
+     * This is how loops over particles should read the column: fill the default,
+     * then only visit the words of the bitset that actually have overrides in them.
+     */
+    public void read(int from, int to, float[] dst){
+
+        Arrays.fill(dst, 0, to-from, defaultValue);
+        if(overrides==0){
+            return;
+        }
+
+        for(int word=from>>>6;word<=(to-1)>>>6 && word<bits.length;word++){
+            long set = bits[word];
+            int slot = rank(word);
+            while(set!=0){
+                int id = (word<<6)+Long.numberOfTrailingZeros(set);
+                if(id>=from && id<to){
+                    dst[id-from] = values[slot];
+                }
+                set &= set-1;
+                slot++;
+            }
+        }
+    }
+
+    /**
+     * getDefault
+     *
+     * Returns the value every particle without an override has.
+     */
+    public float getDefault(){
+        return defaultValue;
+    }
+
+    /**
+     * setDefault
+     *
+     * Changes the value of every particle without an override at once.
+     */
+    public void setDefault(float value){
+        defaultValue = value;
+    }
+
+    /**
+     * overrideCount
+     *
+     * Returns how many particles have their own value.
+     */
+    public int overrideCount(){
+        return overrides;
+    }
+
+    /**
+     * permute
+     *
+     * Puts the particles 0..n-1 in a new order, particle order[k] moving to k. The overrides
+     * are rare, so the bitset and values are just built again in the new order, in spare
+     * arrays that are then swapped with the old ones, so reordering doesn't allocate.
+     */
+    public void permute(int[] order, int n){
+
+        if(overrides==0){
+            return;
+        }
+
+        long[] from = bits;
+        if(spareBits.length!=from.length){
+            spareBits = new long[from.length];
+        }
+        if(spareValues.length<values.length){
+            spareValues = new float[values.length];
+        }
+        long[] to = spareBits;
+        float[] moved = spareValues;
+        Arrays.fill(to, 0L);
+        int count = 0;
+        for(int k=0;k<n;k++){
+            int id = order[k];
+            int word = id>>>6;
+            long mask = 1L<<id;
+            if((from[word]&mask)!=0){
+                to[k>>>6] |= 1L<<k;
+                moved[count++] = values[rank(word)+Long.bitCount(from[word]&(mask-1))];
+            }
+        }
+
+        spareBits = from;
+        spareValues = values;
+        bits = to;
+        values = moved;
+        rebuildRanks();
+    }
+
+    /**
+     * ensureCapacity
+     *
+     * Grows the bitset so it covers at least the given number of particles.
+     */
+    public void ensureCapacity(int capacity){
+
+        int needed = words(capacity);
+        if(needed<=bits.length){
+            return;
+        }
+
+        bits = Arrays.copyOf(bits, needed);
+        ranks = new int[needed];
+        blockRanks = new int[blocks(needed)];
+        rebuildRanks();
+    }
+
+    /**
+     * remove
+     *
+     * Takes the override at the given bit and packed slot out of the column.
+     */
+    private void remove(int word, long mask, int slot){
+
+        System.arraycopy(values, slot+1, values, slot, overrides-slot-1);
+        overrides--;
+
+        bits[word] &= ~mask;
+        shiftRanks(word, -1);
+    }
+
+    /**
+     * rank
+     *
+     * Returns how many bits are set before the given word.
+     */
+    private int rank(int word){
+        return blockRanks[word>>>6]+ranks[word];
+    }
+
+    /**
+     * shiftRanks
+     *
+     * Changes the counts after the given word by delta, when a bit in it has been set or
+     * cleared: the rest of the words in its block, and every later block.
+     */
+    private void shiftRanks(int word, int delta){
+
+        for(int w=word+1;(w&63)!=0 && w<ranks.length;w++){
+            ranks[w] += delta;
+        }
+        for(int b=(word>>>6)+1;b<blockRanks.length;b++){
+            blockRanks[b] += delta;
+        }
+    }
+
+    /**
+     * rebuildRanks
+     *
+     * Counts the set bits before every word and block again from scratch.
+     */
+    private void rebuildRanks(){
+
+        int total = 0;
+        int inBlock = 0;
+        for(int w=0;w<bits.length;w++){
+            if((w&63)==0){
+                blockRanks[w>>>6] = total;
+                inBlock = 0;
+            }
+            ranks[w] = inBlock;
+            int set = Long.bitCount(bits[w]);
+            inBlock += set;
+            total += set;
+        }
+    }
+
+    /**
+     * words
+     *
+     * Returns how many 64 bit words it takes to hold one bit per particle.
+     */
+    private static int words(int capacity){
+        return Math.max(1, (capacity+63)>>>6);
+    }
+
+    /**
+     * blocks
+     *
+     * Returns how many blocks of 64 words it takes to hold the given number of words.
+     */
+    private static int blocks(int words){
+        return (words+63)>>>6;
+    }
+}
@@ -0,0 +1,299 @@
+package physics.plasma.particlepush;
+
+import java.util.Arrays;
+
+/**
+ * SpatialGrid
+ *
+ * This sorts particles into a grid of square cells so anything that only cares about nearby
+ * particles, like screened forces, collisions, or finding the particle under a pointer,
+ * can look in a few cells instead of at every particle.
+ *
+ * The grid is rebuilt from the position columns with a counting sort: count the particles
+ * in each cell, add the counts up to find where each cell starts, and drop each particle into
+ * place. That's O(n) and leaves two flat arrays: where each cell's particles start, and the
+ * particle indices in cell order. A cell's particles are sorted[start[c]] to sorted[start[c+1]-1].
+ *
+ * Cells are at least as wide as the interaction radius, so everything within that radius
+ * of a particle is in its own cell or one of the eight around it. If the particles are spread
+ * out so far that the grid would have far more cells than particles, the cells are made
+ * bigger instead, so a few strays can't make the grid huge.
+ */
+public class SpatialGrid {
+
+    // The smallest cell width asked for, and the width actually used in the last build.
+    private float minimumCellSize;
+    private float cellSize;
+    private float inverseCellSize;
+
+    // The lower left corner of the grid and how many cells across and up it is.
+    private float originX;
+    private float originY;
+    private int columns;
+    private int rows;
+
+    // Where each cell's particles start in sorted, with one extra entry at the end
+    // holding the total, and the particle indices in cell order.
+    private int[] cellStart = new int[2];
+    private int[] sorted = new int[0];
+
+    // The positions the grid was built from and how many particles there were.
+    private float[] x;
+    private float[] y;
+    private int count;
+
+    /**
+     * SpatialGrid
+     *
+     * Creates a grid whose cells are at least the given width, which should be
+     * the largest distance anything using it cares about.
+     */
+    public SpatialGrid(float cellSize){
+
+        if(!(cellSize>0.0f)){
+            throw new IllegalArgumentException("Cells need a positive size.");
+        }
+
+        minimumCellSize = cellSize;
+    }
+
+    /**
+     * ensureCellSize
+     *
+     * Makes sure the cells are at least the given width from the next build on.
+     */
+    public void ensureCellSize(float size){
+        minimumCellSize = Math.max(minimumCellSize, size);
+    }
+
+    /**
+     * build
+     *
+     * Sorts particles 0..n-1 into cells. The position arrays are kept, not copied,
+     * so they shouldn't change until the grid is done being used.
+     */
+    public void build(float[] px, float[] py, int n){
+
+        x = px;
+        y = py;
+        count = n;
+
+        float minX = 0.0f;
+        float minY = 0.0f;
+        float maxX = 0.0f;
+        float maxY = 0.0f;
+        if(n>0){
+            minX = maxX = px[0];
+            minY = maxY = py[0];
+        }
+        for(int i=1;i<n;i++){
+            minX = Math.min(minX, px[i]);
+            maxX = Math.max(maxX, px[i]);
+            minY = Math.min(minY, py[i]);
+            maxY = Math.max(maxY, py[i]);
+        }
+
+        // Keep the number of cells in proportion to the number of particles.
+        long limit = Math.max(64L, 4L*n);
+        float size = minimumCellSize;
+        columns = (int) ((maxX-minX)/size) + 1;
+        rows = (int) ((maxY-minY)/size) + 1;
+        while((long) columns*rows>limit){
+            size *= 2.0f;
+            columns = (int) ((maxX-minX)/size) + 1;
+            rows = (int) ((maxY-minY)/size) + 1;
+        }
+        cellSize = size;
+        inverseCellSize = 1.0f/size;
+        originX = minX;
+        originY = minY;
+
+        int cells = columns*rows;
+        if(cellStart.length<cells+1){
+            cellStart = new int[Math.max(cells+1, 2*cellStart.length)];
+        }
+        if(sorted.length<n){
+            sorted = new int[Math.max(n, 2*sorted.length)];
+        }
+
+        // Count the particles in each cell, then add the counts up so each entry
+        // holds where its cell ends.
+        int[] start = cellStart;
+        Arrays.fill(start, 0, cells+1, 0);
+        for(int i=0;i<n;i++){
+            start[cell(px[i], py[i])]++;
+        }
+        int total = 0;
+        for(int c=0;c<cells;c++){
+            total += start[c];
+            start[c] = total;
+        }
+        start[cells] = total;
+
+        // Dropping particles in from the back of each cell leaves each entry holding
+        // where its cell starts, and keeps each cell's particles in index order.
+        int[] order = sorted;
+        for(int i=n-1;i>=0;i--){
+            order[--start[cell(px[i], py[i])]] = i;
+        }
+    }
+
+    /**
+     * query
+     *
+     * Finds every particle within radius of the given point. As many as fit are put in
+     * result, and the number found is returned, which may be more than fit.
+     */
+    public int query(float px, float py, float radius, int[] result){
+
+        float[] sx = x;
+        float[] sy = y;
+        int[] start = cellStart;
+        int[] order = sorted;
+        float r2 = radius*radius;
+        int reach = (int) Math.ceil(radius*inverseCellSize);
+        int cx = column(px);
+        int cy = row(py);
+        int found = 0;
+
+        for(int row=Math.max(0, cy-reach);row<=Math.min(rows-1, cy+reach);row++){
+            for(int col=Math.max(0, cx-reach);col<=Math.min(columns-1, cx+reach);col++){
+                int c = row*columns + col;
+                for(int k=start[c];k<start[c+1];k++){
+                    int j = order[k];
+                    float dx = sx[j]-px;
+                    float dy = sy[j]-py;
+                    if(dx*dx + dy*dy<=r2){
+                        if(found<result.length){
+                            result[found] = j;
+                        }
+                        found++;
+                    }
+                }
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * nearest
+     *
+     * Returns the index of the particle closest to the given point, as long as it's
+     * within radius, or -1 if there isn't one. This is what pointer picking wants.
+     */
+    public int nearest(float px, float py, float radius){
+
+        float[] sx = x;
+        float[] sy = y;
+        int[] start = cellStart;
+        int[] order = sorted;
+        float best = radius*radius;
+        int closest = -1;
+        int reach = (int) Math.ceil(radius*inverseCellSize);
+        int cx = column(px);
+        int cy = row(py);
+
+        for(int row=Math.max(0, cy-reach);row<=Math.min(rows-1, cy+reach);row++){
+            for(int col=Math.max(0, cx-reach);col<=Math.min(columns-1, cx+reach);col++){
+                int c = row*columns + col;
+                for(int k=start[c];k<start[c+1];k++){
+                    int j = order[k];
+                    float dx = sx[j]-px;
+                    float dy = sy[j]-py;
+                    float d2 = dx*dx + dy*dy;
+                    if(d2<=best){
+                        best = d2;
+                        closest = j;
+                    }
+                }
+            }
+        }
+
+        return closest;
+    }
+
+    /**
+     * column
+     *
+     * Returns which column of cells a position falls in, clamped to the grid.
+     */
+    public int column(float px){
+        int col = (int) ((px-originX)*inverseCellSize);
+        return Math.max(0, Math.min(columns-1, col));
+    }
+
+    /**
+     * row
+     *
+     * Returns which row of cells a position falls in, clamped to the grid.
+     */
+    public int row(float py){
+        int row = (int) ((py-originY)*inverseCellSize);
+        return Math.max(0, Math.min(rows-1, row));
+    }
+
+    /**
+     * cell
+     *
+     * Returns which cell a point falls in.
+     */
+    public int cell(float px, float py){
+        return row(py)*columns + column(px);
+    }
+
+    /**
+     * cellStart
+     *
+     * Returns where each cell's particles start in sorted(), with cells numbered
+     * row by row and one extra entry at the end. Loops over neighbors use these directly.
+     */
+    public int[] cellStart(){
+        return cellStart;
+    }
+
+    /**
+     * sorted
+     *
+     * Returns the particle indices in cell order.
+     */
+    public int[] sorted(){
+        return sorted;
+    }
+
+    /**
+     * columns
+     *
+     * Returns how many cells across the grid is.
+     */
+    public int columns(){
+        return columns;
+    }
+
+    /**
+     * rows
+     *
+     * Returns how many cells up the grid is.
+     */
+    public int rows(){
+        return rows;
+    }
+
+    /**
+     * cellSize
+     *
+     * Returns the width of the cells in the last build, which is never less than asked for.
+     */
+    public float cellSize(){
+        return cellSize;
+    }
+
+    /**
+     * size
+     *
+     * Returns how many particles the grid was last built with.
+     */
+    public int size(){
+        return count;
+    }
+}
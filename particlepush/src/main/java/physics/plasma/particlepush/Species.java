@@ -0,0 +1,83 @@
+package physics.plasma.particlepush;
+
+/**
+ * Species
+ *
+ * A kind of particle that all share one charge and one mass, like electrons or one kind of
+ * ion. Plasmas mix kinds whose charge to mass ratios are thousands of times apart, and
+ * pushing them all with one loop means looking up every particle's charge and mass.
+ *
+ * Particles of a species are kept together in one block of the store, so the push can
+ * run over the block with the species' charge to mass ratio worked out once, outside
+ * the loop. A light species can also take several smaller steps for each of the
+ * manager's steps while the heavy ones take one.
+ *
+ * Species are made by the System Manager, which hands out their ids. Particles that
+ * were added without one are species 0, and are pushed with their own charges and masses.
+ */
+public class Species {
+
+    // The id stored in each of this species' particles, and what it's called.
+    public final int id;
+    public final String name;
+
+    // The charge and mass every particle of this species has.
+    public final float charge;
+    public final float mass;
+
+    // How many steps the species takes for each of the manager's steps.
+    private volatile int subcycles = 1;
+
+    /**
+     * Species
+     *
+     * This is the main constructor for a Species. Species should always be made through
+     * the System Manager, so every id is only ever handed out once.
+     */
+    Species(int sid, String sname, float scharge, float smass){
+
+        if(smass<=0.0f){
+            throw new IllegalArgumentException("A species needs a mass above zero.");
+        }
+
+        id = sid;
+        name = sname;
+        charge = scharge;
+        mass = smass;
+
+    }
+
+    /**
+     * ratio
+     *
+     * Returns the species' charge to mass ratio.
+     */
+    public float ratio(){
+        return charge/mass;
+    }
+
+    /**
+     * subcycles
+     *
+     * Returns how many steps the species takes for each of the manager's steps.
+     */
+    public int subcycles(){
+        return subcycles;
+    }
+
+    /**
+     * setSubcycles
+     *
+     * Makes the species take the given number of smaller steps for each of the manager's
+     * steps, with the field worked out again at its own particles before each one after the
+     * first. Light particles like electrons need it where heavy ions don't.
+     */
+    public void setSubcycles(int steps){
+
+        if(steps<1){
+            throw new IllegalArgumentException("A species has to take at least one step.");
+        }
+
+        subcycles = steps;
+    }
+}
@@ -0,0 +1,237 @@
+package physics.plasma.particlepush;
+
+import java.util.Arrays;
+
+/**
+ * SpeciesTable
+ *
+ * This keeps every species the manager knows about, and keeps each species' particles
+ * together in one block of the store, so a loop can be run species by species with the
+ * species' charge and mass as constants instead of reading them particle by particle.
+ *
+ * Each particle's species is kept as a quality, so it follows the particle through any
+ * reordering. It's the only thing stored for the particle; its charge and mass are looked
+ * up here whenever they're read, so the sparse charge and mass columns stay sparse.
+ *
+ * Before a push the table checks that the particles being pushed are still in blocks,
+ * species 0 first, then 1, and so on, and puts them back in blocks if they aren't.
+ * Particles in the same species keep the order they were in, so the manager's spatial
+ * ordering survives inside each block. Only the particles being pushed are sorted, which
+ * leaves anything sleeping at the end of the store where it is.
+ */
+public class SpeciesTable {
+
+    // The system whose particles these are, and the id of the quality holding each one's species.
+    private final SystemManager system;
+    public final int SPECIES;
+
+    // Every species, by id. Species 0 is the particles that weren't given one, and has no entry.
+    // The array is replaced rather than changed, so the simulation thread always sees a whole list.
+    private volatile Species[] species = new Species[1];
+
+    // Where each species' block starts, with one extra entry at the end, and room for sorting.
+    private int[] blockStart = new int[2];
+    private int[] nextSlot = new int[1];
+    private int[] order = new int[0];
+
+    // The species in the order they should be pushed in.
+    private int[] pushOrder = new int[1];
+
+    // What the store looked like when it was last found to be in blocks.
+    private int knownCount = -1;
+    private int knownArranged = -1;
+    private int knownReorders = -1;
+    private int knownSpecies = -1;
+
+    /**
+     * SpeciesTable
+     *
+     * Creates an empty table for the given system's particles.
+     */
+    public SpeciesTable(SystemManager manager){
+
+        system = manager;
+        SPECIES = manager.qualities.define("species", Quality.Type.INTEGER, 0.0f, "").id;
+
+    }
+
+    /**
+     * define
+     *
+     * Makes a new species whose particles all have the given charge and mass.
+     */
+    public synchronized Species define(String name, float charge, float mass){
+
+        Species[] list = species;
+        Species made = new Species(list.length, name, charge, mass);
+        Species[] grown = Arrays.copyOf(list, list.length+1);
+        grown[list.length] = made;
+        species = grown;
+
+        return made;
+    }
+
+    /**
+     * get
+     *
+     * Returns the species with the given id, or null for species 0.
+     */
+    public Species get(int id){
+        return species[id];
+    }
+
+    /**
+     * size
+     *
+     * Returns how many ids have been handed out, counting species 0.
+     */
+    public int size(){
+        return species.length;
+    }
+
+    /**
+     * fill
+     *
+     * Writes the species' charge, or mass, of every particle from..to-1 that has a species
+     * into dst, starting at index 0, leaving the others' values as they are.
+     */
+    void fill(boolean charge, int from, int to, float[] dst){
+
+        Species[] list = species;
+        float[] ids = system.particles.column(SPECIES);
+        for(int i=from;i<to;i++){
+            int id = (int) ids[i];
+            if(id!=0){
+                dst[i-from] = charge ? list[id].charge : list[id].mass;
+            }
+        }
+    }
+
+    /**
+     * arrange
+     *
+     * Makes sure particles 0..n-1 are in one block per species, sorting them if they aren't,
+     * and works out where each block is. Particles from n on are left alone.
+     */
+    public void arrange(int n){
+
+        ParticleStore store = system.particles;
+        int count = store.size();
+        int kinds = species.length;
+        if(knownCount==count && knownArranged==n && knownReorders==system.reorders() && knownSpecies==kinds){
+            return;
+        }
+
+        if(blockStart.length<kinds+1){
+            blockStart = new int[kinds+1];
+            nextSlot = new int[kinds];
+            pushOrder = new int[kinds];
+        }
+        if(order.length<count){
+            order = new int[store.capacity()];
+        }
+
+        float[] ids = store.column(SPECIES);
+        int[] starts = blockStart;
+        Arrays.fill(starts, 0);
+        boolean sorted = true;
+        int previous = 0;
+        for(int i=0;i<n;i++){
+            int s = (int) ids[i];
+            if(s<previous){
+                sorted = false;
+            }
+            previous = s;
+            starts[s+1]++;
+        }
+        for(int s=0;s<kinds;s++){
+            starts[s+1] += starts[s];
+        }
+
+        if(!sorted){
+            int[] next = nextSlot;
+            System.arraycopy(starts, 0, next, 0, kinds);
+            for(int i=0;i<n;i++){
+                order[next[(int) ids[i]]++] = i;
+            }
+            for(int i=n;i<count;i++){
+                order[i] = i;
+            }
+            system.reorder(order);
+        }
+
+        knownCount = count;
+        knownArranged = n;
+        knownReorders = system.reorders();
+        knownSpecies = kinds;
+    }
+
+    /**
+     * start
+     *
+     * Returns where the given species' block started at the last arrange().
+     */
+    public int start(int id){
+        return blockStart[id];
+    }
+
+    /**
+     * end
+     *
+     * Returns where the given species' block ended at the last arrange(), one past its last particle.
+     */
+    public int end(int id){
+        return blockStart[id+1];
+    }
+
+    /**
+     * pushOrder
+     *
+     * Returns the ids of the species there were at the last arrange(), the ones taking the
+     * most steps first. Pushing them in this order means a species taking several steps sees
+     * the species taking fewer where they were at the start of the step, not already moved.
+     */
+    public int[] pushOrder(){
+
+        Species[] list = species;
+        int[] ids = pushOrder;
+        for(int k=0;k<knownSpecies;k++){
+            int steps = subcycles(list, k);
+            int j = k;
+            while(j>0 && subcycles(list, ids[j-1])<steps){
+                ids[j] = ids[j-1];
+                j--;
+            }
+            ids[j] = k;
+        }
+
+        return ids;
+    }
+
+    /**
+     * arranged
+     *
+     * Returns how many species there were at the last arrange(), counting species 0.
+     */
+    public int arranged(){
+        return knownSpecies;
+    }
+
+    /**
+     * subcycles
+     *
+     * Returns how many steps the species with the given id takes, which is 1 for species 0.
+     */
+    public int subcycles(int id){
+        return subcycles(species, id);
+    }
+
+    /**
+     * subcycles
+     *
+     * Looks up how many steps a species takes in the given list.
+     */
+    private static int subcycles(Species[] list, int id){
+        return list[id]==null ? 1 : list[id].subcycles();
+    }
+}
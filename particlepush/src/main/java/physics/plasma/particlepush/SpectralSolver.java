@@ -0,0 +1,243 @@
+package physics.plasma.particlepush;
+
+/**
+ * SpectralSolver
+ *
+ * This solves Poisson's equation on a grid that wraps around at its edges in one go,
+ * with Fourier transforms. In Fourier space the Laplacian is just multiplying by -k^2,
+ * so the potential is the transformed source divided by k^2 (the Green's function),
+ * transformed back. That's exact, and costs O(G log G) for G grid points.
+ *
+ * The grid is real, so its transform is symmetric and only half of it is ever worked out:
+ * rows are transformed two at a time as the real and imaginary parts of one complex row,
+ * and split apart afterwards. Then the columns of the half spectrum are transformed, and
+ * the whole thing is undone the same way.
+ *
+ * There's a choice of Green's function. SPECTRAL divides by the true k^2. FINITE_DIFFERENCE
+ * divides by what the usual five point stencil turns k^2 into, which gives exactly the same
+ * answer as a relaxation or multigrid solver would converge to. The result can also be
+ * smoothed, which takes out the grid scale noise a limited number of particles leaves:
+ * BINOMIAL applies a 1-2-1 filter each way, GAUSSIAN a Gaussian of a chosen width.
+ *
+ * Everything is planned the first time a grid size is seen, so after that a solve
+ * allocates nothing.
+ */
+public class SpectralSolver implements PoissonSolver {
+
+    /**
+     * What k^2 is taken to be.
+     */
+    public enum Operator {SPECTRAL, FINITE_DIFFERENCE}
+
+    /**
+     * How the potential is smoothed.
+     */
+    public enum Smoothing {NONE, BINOMIAL, GAUSSIAN}
+
+    // The Green's function settings.
+    private Operator operator;
+    private Smoothing smoothing;
+    private float smoothingLength;
+
+    // The grid the plan is for.
+    private int nx;
+    private int ny;
+    private float dx;
+    private float dy;
+
+    // Transforms along rows and along columns.
+    private FFT rows;
+    private FFT columns;
+
+    // Room for one complex row and one complex column, the half spectrum of the whole grid
+    // (ny rows of nx/2+1 complex values), and the Green's function at every point of it.
+    private float[] row;
+    private float[] column;
+    private float[] spectrum;
+    private float[] green;
+
+    /**
+     * SpectralSolver
+     *
+     * Creates a solver with the given Green's function. The smoothing length is only
+     * used by GAUSSIAN smoothing.
+     */
+    public SpectralSolver(Operator operator, Smoothing smoothing, float smoothingLength){
+
+        this.operator = operator;
+        this.smoothing = smoothing;
+        this.smoothingLength = smoothingLength;
+
+    }
+
+    @Override
+    public void solve(float[] source, float[] potential, int nx, int ny, float dx, float dy){
+
+        if(green==null || nx!=this.nx || ny!=this.ny || dx!=this.dx || dy!=this.dy){
+            plan(nx, ny, dx, dy);
+        }
+
+        int half = nx/2+1;
+        float[] line = row;
+        float[] spec = spectrum;
+
+        // Transform the rows two at a time and split them into two half spectra.
+        for(int j=0;j<ny;j+=2){
+
+            boolean pair = j+1<ny;
+            int a = j*nx;
+            int b = (j+1)*nx;
+            for(int i=0;i<nx;i++){
+                line[2*i] = source[a+i];
+                line[2*i+1] = pair ? source[b+i] : 0.0f;
+            }
+            rows.forward(line);
+
+            for(int k=0;k<half;k++){
+                int m = k==0 ? 0 : nx-k;
+                float zr = line[2*k];
+                float zi = line[2*k+1];
+                float cr = line[2*m];
+                float ci = -line[2*m+1];
+                int first = 2*(j*half+k);
+                spec[first] = 0.5f*(zr+cr);
+                spec[first+1] = 0.5f*(zi+ci);
+                if(pair){
+                    int second = 2*((j+1)*half+k);
+                    spec[second] = 0.5f*(zi-ci);
+                    spec[second+1] = -0.5f*(zr-cr);
+                }
+            }
+        }
+
+        // Transform each column of the half spectrum, apply the Green's function, and transform it back.
+        float[] line2 = column;
+        float[] g = green;
+        for(int k=0;k<half;k++){
+            for(int j=0;j<ny;j++){
+                line2[2*j] = spec[2*(j*half+k)];
+                line2[2*j+1] = spec[2*(j*half+k)+1];
+            }
+            columns.forward(line2);
+            for(int j=0;j<ny;j++){
+                float factor = g[j*half+k];
+                line2[2*j] *= factor;
+                line2[2*j+1] *= factor;
+            }
+            columns.inverse(line2);
+            for(int j=0;j<ny;j++){
+                spec[2*(j*half+k)] = line2[2*j];
+                spec[2*(j*half+k)+1] = line2[2*j+1];
+            }
+        }
+
+        // Put each pair of half spectra back together as one complex row and transform it back.
+        for(int j=0;j<ny;j+=2){
+
+            boolean pair = j+1<ny;
+            for(int k=0;k<nx;k++){
+
+                // The missing half of a real row's spectrum is the conjugate of the half we have.
+                int m = k<half ? k : nx-k;
+                float sign = k<half ? 1.0f : -1.0f;
+                float ar = spec[2*(j*half+m)];
+                float ai = sign*spec[2*(j*half+m)+1];
+                float br = 0.0f;
+                float bi = 0.0f;
+                if(pair){
+                    br = spec[2*((j+1)*half+m)];
+                    bi = sign*spec[2*((j+1)*half+m)+1];
+                }
+                line[2*k] = ar-bi;
+                line[2*k+1] = ai+br;
+            }
+            rows.inverse(line);
+
+            int a = j*nx;
+            int b = (j+1)*nx;
+            for(int i=0;i<nx;i++){
+                potential[a+i] = line[2*i];
+                if(pair){
+                    potential[b+i] = line[2*i+1];
+                }
+            }
+        }
+    }
+
+    /**
+     * setGreensFunction
+     *
+     * Changes what k^2 is taken to be and how the potential is smoothed.
+     */
+    public void setGreensFunction(Operator operator, Smoothing smoothing, float smoothingLength){
+
+        this.operator = operator;
+        this.smoothing = smoothing;
+        this.smoothingLength = smoothingLength;
+        green = null;
+    }
+
+    /**
+     * plan
+     *
+     * Sets up the transforms, buffers, and Green's function for a grid.
+     */
+    private void plan(int nx, int ny, float dx, float dy){
+
+        this.nx = nx;
+        this.ny = ny;
+        this.dx = dx;
+        this.dy = dy;
+
+        int half = nx/2+1;
+        if(rows==null || rows.size()!=nx){
+            rows = new FFT(nx);
+            row = new float[2*nx];
+        }
+        if(columns==null || columns.size()!=ny){
+            columns = new FFT(ny);
+            column = new float[2*ny];
+        }
+        spectrum = new float[2*ny*half];
+        green = new float[ny*half];
+
+        for(int j=0;j<ny;j++){
+
+            // Past halfway, the rows are the negative wavenumbers.
+            int wave = j<=ny/2 ? j : j-ny;
+            double ky = 2.0*Math.PI*wave/(ny*dy);
+
+            for(int k=0;k<half;k++){
+
+                double kx = 2.0*Math.PI*k/(nx*dx);
+
+                if(k==0 && wave==0){
+                    green[j*half+k] = 0.0f;
+                    continue;
+                }
+
+                double k2;
+                if(operator==Operator.FINITE_DIFFERENCE){
+                    double sx = 2.0*Math.sin(0.5*kx*dx)/dx;
+                    double sy = 2.0*Math.sin(0.5*ky*dy)/dy;
+                    k2 = sx*sx + sy*sy;
+                }
+                else{
+                    k2 = kx*kx + ky*ky;
+                }
+
+                double filter = 1.0;
+                if(smoothing==Smoothing.BINOMIAL){
+                    double cx = Math.cos(0.5*kx*dx);
+                    double cy = Math.cos(0.5*ky*dy);
+                    filter = cx*cx*cy*cy;
+                }
+                else if(smoothing==Smoothing.GAUSSIAN){
+                    filter = Math.exp(-0.5*(kx*kx + ky*ky)*smoothingLength*smoothingLength);
+                }
+
+                green[j*half+k] = (float) (filter/k2);
+            }
+        }
+    }
+}
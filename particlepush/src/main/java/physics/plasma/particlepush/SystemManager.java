@@ -1,25 +1,1045 @@
 package physics.plasma.particlepush;
 
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
 /**
  * This is going to manage the interaction of particles and pointers,
  * and it should also provide an interface for the user.
+ *
+ * The simulation runs on its own thread, separate from both the main thread and the
+ * rendering thread. It advances in fixed steps of simulated time no matter how fast frames
+ * are drawn: real time that passes is added up, and as many whole steps are taken as fit
+ * into it, with whatever is left over carried to the next round. After each round a frame
+ * is published for the renderer, which blends between the last two steps using that
+ * leftover time so motion stays smooth.
+ *
+ * Once the simulation is started, the particle store belongs to the simulation thread.
  */
 public class SystemManager {
 
     // TODO Provide interface
-    // TODO Update particle dynamics as if time were passing
-    // TODO Respond to pointers as necessary
-    // TODO Manage particle interactions
 
     public GLTouchSurfaceView surfaces;
 
+    // Every particle's qualities, stored as one column per quality,
+    // and the schema that hands out the id of each quality.
+    public final ParticleStore particles;
+    public final QualitySchema qualities;
+
+    // Spawns and kills particles, handing out handles that survive the store being repacked.
+    public final ParticlePool pool;
+
+    // Each particle's position and its significant derivatives, if we've been asked to keep them.
+    public ParticleHistory history;
+
+    // Particles sorted into cells, so short range forces and picking only look nearby,
+    // if anything has asked for it. It's rebuilt at the start of every step.
+    public SpatialGrid neighbors;
+
+    // Every particle's list of the particles within some cutoff of it, if anything has asked
+    // for them. It's checked at the start of every step and only built again once somebody
+    // has moved far enough to need it.
+    public NeighborList neighborList;
+
+    // Bounces particles with a size off each other, if they've been given one.
+    public Collisions collisions;
+
+    // Puts particles that have stopped moving to sleep, if it's been turned on. Sleepers are
+    // kept at the end of the store and skipped by the push and the upload until something wakes them.
+    public SleepTracker sleep;
+
+    // Every species of particle, if any have been defined. Each species' particles are kept in
+    // one block of the store so the push can treat their charge and mass as constants.
+    public SpeciesTable species;
+
+    // Every finger on the screen, each pushing the particles like a charge under it.
+    public final PointerField pointers;
+
+    // Frames of the particles' positions and colors in the layout the renderer draws straight from.
+    // The simulation fills one while the renderer draws another, and they swap atomically.
+    public final FrameExchange frames;
+
+    // Everything that pushes the particles around, asked for its field every step.
+    // The array is replaced rather than changed, so the simulation thread always sees a whole list.
+    private volatile ForceProvider[] forces = new ForceProvider[0];
+
+    // How many particles are worked on at a time. A chunk's worth of every column a loop
+    // touches fits in cache, and it's the unit the particles are split between threads in.
+    private static final int CHUNK = 256;
+
+    // Runs the loops over particles across several threads, or is null when they run on the
+    // simulation thread alone. Only the simulation thread touches it; everyone else just
+    // says how many threads they'd like, and it's changed at the start of the next step.
+    private ParallelRunner runner;
+    private volatile int wantedWorkers = 1;
+
+    // Holds the magnetic field and does the Boris push through it and the electric field.
+    public final BorisPusher pusher = new BorisPusher();
+
+    // The particles' energy, momentum, temperature and charge, added up along the way each step,
+    // with the last few thousand steps of them kept.
+    public final Diagnostics diagnostics = new Diagnostics(4096);
+
+    // Moves the particles forward in time each step. It can be swapped while running.
+    private volatile Integrator integrator = new LeapfrogIntegrator();
+
+    // Room for a chunk of masses while working out charge to mass ratios.
+    private final float[] massScratch = new float[CHUNK];
+
+    // The forces being added up and the first particle they're added up for, for the loop body below.
+    private ForceProvider[] stepForces;
+    private int fieldOffset;
+
+    // The loop body that measures the diagnostics when the integrator didn't, also made once.
+    private final ParallelRunner.Task measureLoop = new ParallelRunner.Task() {
+        @Override
+        public void run(int from, int to, int worker) {
+            diagnostics.measure(SystemManager.this, from, to, worker);
+        }
+    };
+
+    // The loop body that adds up the field, made once so a step doesn't allocate anything.
+    private final ParallelRunner.Task fieldLoop = new ParallelRunner.Task() {
+        @Override
+        public void run(int from, int to, int worker) {
+            accumulateFields(fieldOffset+from, fieldOffset+to, worker);
+        }
+    };
+
+    // Bumped whenever particle colors need rewriting.
+    private int colorVersion;
+
+    // Sorts the particles along a Z curve so neighbors sit together in memory. Every so many
+    // steps it measures how scattered they've become, and above the threshold they're sorted.
+    // Small systems fit in cache however they're ordered, so they're never sorted automatically.
+    private static final int REORDER_MINIMUM = 2048;
+    private final MortonOrder morton = new MortonOrder();
+    private int reorderInterval = 32;
+    private float reorderThreshold = 0.2f;
+    private int stepsSinceReorderCheck;
+
+    // Where each particle went in the last reorder, and how many reorders there have been.
+    private int[] rankScratch = new int[0];
+    private int reorders;
+
+    // Goes up whenever the field at the particles might have changed other than by the push
+    // moving them, so an integrator knows not to reuse a field it worked out earlier, and the
+    // forces' change counts as of the last check.
+    private volatile int fieldEpoch;
+    private int forceChanges;
+
+    // Length of one step of simulated time, in seconds, and the most steps
+    // taken in one round before we give up trying to catch up with real time.
+    private float timestep = 1.0f/120.0f;
+    private int maxSubsteps = 8;
+
+    // Real time that has passed but hasn't been simulated yet, in seconds,
+    // and the total simulated time so far.
+    private double lag;
+    private double time;
+
+    // The thread the simulation runs on, and whether it should keep going.
+    private Thread simulation;
+    private volatile boolean running;
+
+    // Ids of the qualities every particle starts out with.
+    public final int X;
+    public final int Y;
+    public final int VX;
+    public final int VY;
+    public final int MASS;
+    public final int CHARGE;
+    public final int RED;
+    public final int GREEN;
+    public final int BLUE;
+    public final int ALPHA;
+    public final int PREVIOUS_X;
+    public final int PREVIOUS_Y;
+    public final int EX;
+    public final int EY;
+
     /**
      * SystemManager
      *
      * This is the main constructor for the class. So far it must have a surface attached to it
      * so it can interact with the touch events and pass information to the associated renderer.
+     * A null surface runs the simulation without drawing it anywhere, which is what tests do.
      */
     public SystemManager(GLTouchSurfaceView mGLTouchSurface){
+
+        surfaces = mGLTouchSurface;
+
+        // Set up the standard qualities: position, velocity, and unit mass and charge.
+        // Nearly every particle shares its mass and charge, so those only store the exceptions.
+        particles = new ParticleStore();
+        qualities = new QualitySchema(particles);
+        pool = new ParticlePool(particles);
+        X = qualities.define("x", Quality.Type.CONTINUOUS, 0.0f, "length").id;
+        Y = qualities.define("y", Quality.Type.CONTINUOUS, 0.0f, "length").id;
+        VX = qualities.define("vx", Quality.Type.CONTINUOUS, 0.0f, "length/time").id;
+        VY = qualities.define("vy", Quality.Type.CONTINUOUS, 0.0f, "length/time").id;
+        MASS = qualities.defineSparse("mass", Quality.Type.CONTINUOUS, 1.0f, "mass").id;
+        CHARGE = qualities.defineSparse("charge", Quality.Type.CONTINUOUS, 1.0f, "charge").id;
+
+        // Colors never need more than 16 bits a channel.
+        RED = qualities.definePacked("red", Quality.Type.CONTINUOUS, 1.0f, "",
+                Quality.Storage.FIXED16, 0.0f, 1.0f).id;
+        GREEN = qualities.definePacked("green", Quality.Type.CONTINUOUS, 1.0f, "",
+                Quality.Storage.FIXED16, 0.0f, 1.0f).id;
+        BLUE = qualities.definePacked("blue", Quality.Type.CONTINUOUS, 1.0f, "",
+                Quality.Storage.FIXED16, 0.0f, 1.0f).id;
+        ALPHA = qualities.definePacked("alpha", Quality.Type.CONTINUOUS, 1.0f, "",
+                Quality.Storage.FIXED16, 0.0f, 1.0f).id;
+
+        // Where each particle was a step ago, so the renderer can blend between steps.
+        PREVIOUS_X = qualities.define("previous x", Quality.Type.CONTINUOUS, 0.0f, "length").id;
+        PREVIOUS_Y = qualities.define("previous y", Quality.Type.CONTINUOUS, 0.0f, "length").id;
+
+        // The field at each particle, added up from every force provider each step.
+        EX = qualities.define("field x", Quality.Type.CONTINUOUS, 0.0f, "force/charge").id;
+        EY = qualities.define("field y", Quality.Type.CONTINUOUS, 0.0f, "force/charge").id;
+
+        // Touches push the particles from the first step on.
+        pointers = new PointerField(0.05f, PointerField.Falloff.INVERSE, 0.05f);
+        addForce(pointers);
+
+        // Let the renderer draw directly from the memory we write positions into,
+        // and the surface hand its touches to the pointers.
+        frames = new FrameExchange(particles.capacity());
+        if(surfaces!=null){
+            surfaces.renderer.setParticleFrames(frames);
+            surfaces.pointers = pointers;
+        }
+    }
+
+    /**
+     * defineQuality
+     *
+     * Adds a new quality to every particle, or returns the existing one with that name.
+     * The returned id is what should be used to read and write it from then on.
+     */
+    public int defineQuality(String name, Quality.Type type, float defaultValue, String units){
+        return qualities.define(name, type, defaultValue, units).id;
+    }
+
+    /**
+     * setDefault
+     *
+     * Changes the default value of a quality. For sparse qualities like mass and charge
+     * this changes every particle that hasn't been given its own value, without touching them.
+     */
+    public void setDefault(int quality, float value){
+        particles.setDefault(quality, value);
+    }
+
+    /**
+     * definePackedQuality
+     *
+     * Adds a new quality stored in 16 bits per particle, as a half precision float or as
+     * fixed point between minimum and maximum, or returns the existing one with that name.
+     */
+    public int definePackedQuality(String name, Quality.Type type, float defaultValue, String units,
+                                   Quality.Storage storage, float minimum, float maximum){
+        return qualities.definePacked(name, type, defaultValue, units, storage, minimum, maximum).id;
+    }
+
+    /**
+     * quality
+     *
+     * Looks up the id of a quality by name. This is meant for setting things up,
+     * not for use inside loops over particles.
+     */
+    public int quality(String name){
+        return qualities.id(name);
+    }
+
+    /**
+     * trackHistory
+     *
+     * Starts keeping a history of every particle's position and up to maxOrders-1 of its
+     * derivatives, dropping orders whose change over a step falls below the threshold.
+     */
+    public ParticleHistory trackHistory(int maxOrders, float threshold){
+
+        if(history==null){
+            history = new ParticleHistory(this, X, Y, maxOrders, threshold);
+        }
+
+        return history;
+    }
+
+    /**
+     * trackNeighbors
+     *
+     * Starts sorting particles into a grid every step, with cells at least radius wide,
+     * so everything within radius of a particle is found in the cells next to it.
+     */
+    public SpatialGrid trackNeighbors(float radius){
+
+        if(neighbors==null){
+            neighbors = new SpatialGrid(radius);
+        }
+        else{
+            neighbors.ensureCellSize(radius);
+        }
+
+        return neighbors;
+    }
+
+    /**
+     * enableCollisions
+     *
+     * Gives every particle a radius, starting at the given one, and makes touching particles
+     * bounce off each other with the given restitution from then on.
+     */
+    public Collisions enableCollisions(float radius, float restitution){
+
+        if(collisions==null){
+            collisions = new Collisions(this, radius, restitution);
+        }
+
+        return collisions;
+    }
+
+    /**
+     * trackNeighborList
+     *
+     * Starts keeping a list of everything within cutoff of each particle, built with the given
+     * skin so it lasts a few steps. Asking again with a bigger cutoff or skin widens the lists.
+     */
+    public NeighborList trackNeighborList(float cutoff, float skin){
+
+        if(neighborList==null){
+            neighborList = new NeighborList(cutoff, skin);
+        }
+        else{
+            neighborList.ensureCutoff(cutoff, skin);
+        }
+
+        return neighborList;
+    }
+
+    /**
+     * enableSleeping
+     *
+     * Puts particles to sleep once their speed and acceleration have stayed under the given
+     * thresholds for the given number of steps in a row. Asking again changes the thresholds.
+     */
+    public SleepTracker enableSleeping(float speed, float acceleration, int steps){
+
+        if(sleep==null){
+            sleep = new SleepTracker(this, speed, acceleration, steps);
+        }
+        else{
+            sleep.setThresholds(speed, acceleration, steps);
+        }
+
+        return sleep;
+    }
+
+    /**
+     * defineSpecies
+     *
+     * Makes a new species whose particles all have the given charge and mass. Particles are
+     * given a species when they're added, and it shouldn't be changed afterwards.
+     */
+    public Species defineSpecies(String name, float charge, float mass){
+
+        if(species==null){
+            species = new SpeciesTable(this);
+        }
+
+        return species.define(name, charge, mass);
+    }
+
+    /**
+     * active
+     *
+     * Returns how many particles are awake and need pushing: particles 0..active()-1.
+     * Everyone is awake unless sleeping has been turned on.
+     */
+    public int active(){
+        return sleep==null ? particles.size() : sleep.awake();
+    }
+
+    /**
+     * addForce
+     *
+     * Adds something that pushes the particles around. It's asked for its field from the next step on.
+     */
+    public synchronized void addForce(ForceProvider force){
+
+        ForceProvider[] list = Arrays.copyOf(forces, forces.length+1);
+        list[forces.length] = force;
+        forces = list;
+        fieldEpoch++;
+        wakeAll();
+    }
+
+    /**
+     * removeForce
+     *
+     * Stops the given force from pushing the particles. Returns false if it wasn't there.
+     */
+    public synchronized boolean removeForce(ForceProvider force){
+
+        ForceProvider[] list = forces;
+        for(int i=0;i<list.length;i++){
+            if(list[i]==force){
+                ForceProvider[] rest = new ForceProvider[list.length-1];
+                System.arraycopy(list, 0, rest, 0, i);
+                System.arraycopy(list, i+1, rest, i, list.length-i-1);
+                forces = rest;
+                fieldEpoch++;
+                wakeAll();
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * wakeAll
+     *
+     * Wakes every sleeping particle at the start of the next step. Anything that changes what
+     * pushes the particles, outside of adding and removing forces, should call this.
+     */
+    public void wakeAll(){
+
+        SleepTracker tracker = sleep;
+        if(tracker!=null){
+            tracker.wakeAll();
+        }
+    }
+
+    /**
+     * addParticle
+     *
+     * Adds a particle at the given position with every other quality at its default,
+     * and returns a handle to it.
+     */
+    public Particle addParticle(float x, float y){
+        return addParticle(x, y, particles.getDefault(CHARGE));
+    }
+
+    /**
+     * addParticle
+     *
+     * Adds a particle of the given species at the given position, with every other quality at
+     * its default, and returns a handle to it. Only its species is stored; its charge and mass
+     * are the species', read through read(), and the charge and mass qualities are left alone.
+     */
+    public Particle addParticle(float x, float y, Species kind){
+
+        int handle = spawn(x, y, kind.charge);
+        particles.set(species.SPECIES, pool.index(handle), kind.id);
+
+        return new Particle(particles, pool, handle);
+    }
+
+    /**
+     * addParticle
+     *
+     * Adds a particle with the given position and charge, with every other quality at its
+     * default, and returns a handle to it.
+     */
+    public Particle addParticle(float x, float y, float charge){
+
+        int handle = spawn(x, y, charge);
+        particles.set(CHARGE, pool.index(handle), charge);
+
+        return new Particle(particles, pool, handle);
+    }
+
+    /**
+     * spawn
+     *
+     * Makes a new particle at the given position, colored for the given charge,
+     * and returns its handle.
+     */
+    private int spawn(float x, float y, float charge){
+
+        int handle = pool.spawn();
+        int id = pool.index(handle);
+        particles.set(X, id, x);
+        particles.set(Y, id, y);
+        particles.set(PREVIOUS_X, id, x);
+        particles.set(PREVIOUS_Y, id, y);
+
+        // Positive charges are drawn red and negative ones blue.
+        if(charge>=0){
+            setColor(id, 1.0f, 0.2f, 0.2f, 1.0f);
+        }
+        else{
+            setColor(id, 0.2f, 0.4f, 1.0f, 1.0f);
+        }
+
+        return handle;
+    }
+
+    /**
+     * setColor
+     *
+     * Changes the color the given particle is drawn with.
+     */
+    public void setColor(Particle particle, float r, float g, float b, float a){
+        setColor(pool.index(particle.handle), r, g, b, a);
+    }
+
+    /**
+     * setColor
+     *
+     * Changes the color of the particle at the given index and marks the frames' colors stale.
+     */
+    private void setColor(int id, float r, float g, float b, float a){
+
+        particles.set(RED, id, r);
+        particles.set(GREEN, id, g);
+        particles.set(BLUE, id, b);
+        particles.set(ALPHA, id, a);
+        colorVersion++;
+    }
+
+    /**
+     * removeParticle
+     *
+     * Kills the given particle. Returns false if it was already gone.
+     */
+    public boolean removeParticle(Particle particle){
+
+        if(!pool.kill(particle.handle)){
+            return false;
+        }
+
+        // The last particle moved into the hole, taking its color with it.
+        colorVersion++;
+
+        return true;
+    }
+
+    /**
+     * start
+     *
+     * Starts the simulation thread. From here until stop() the particles
+     * should only be touched from that thread.
+     */
+    public synchronized void start(){
+
+        if(running){
+            return;
+        }
+
+        running = true;
+        simulation = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                simulate();
+            }
+        }, "Simulation");
+        simulation.start();
+    }
+
+    /**
+     * stop
+     *
+     * Stops the simulation thread and waits for it to finish its current round.
+     */
+    public synchronized void stop(){
+
+        if(!running){
+            return;
+        }
+
+        running = false;
+        simulation.interrupt();
+        try {
+            simulation.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        simulation = null;
+
+        // Don't keep the workers around while we're paused.
+        if(runner!=null){
+            runner.shutdown();
+            runner = null;
+        }
+    }
+
+    /**
+     * simulate
+     *
+     * This is the simulation thread's loop. It adds up how much real time has passed,
+     * takes as many fixed steps as fit into it, publishes a frame, and then sleeps
+     * until the next step is due.
+     */
+    private void simulate(){
+
+        long previous = System.nanoTime();
+        lag = 0.0;
+
+        while(running){
+
+            long now = System.nanoTime();
+            lag += (now-previous)*1.0e-9;
+            previous = now;
+
+            // Take as many whole steps as we owe, but not so many we never catch up.
+            int steps = 0;
+            while(lag>=timestep && steps<maxSubsteps){
+                step(timestep);
+                lag -= timestep;
+                steps++;
+            }
+            if(steps==maxSubsteps && lag>timestep){
+                lag = timestep;
+            }
+
+            if(steps>0){
+                upload();
+            }
+
+            // Sleep until the next step is owed.
+            long wait = (long) ((timestep-lag)*1.0e9);
+            if(wait>0){
+                try {
+                    Thread.sleep(wait/1000000L, (int) (wait%1000000L));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * step
+     *
+     * Advances every particle by one step of dt seconds of simulated time
+     * with the current integrator.
+     */
+    public void step(float dt){
+
+        int n = particles.size();
+
+        updateWorkers();
+
+        // Every so often put neighbors back next to each other in memory if they've drifted apart.
+        if(reorderInterval>0 && n>=REORDER_MINIMUM && ++stepsSinceReorderCheck>=reorderInterval){
+            stepsSinceReorderCheck = 0;
+            if(morton.measure(particles.column(X), particles.column(Y), n)>reorderThreshold){
+                reorder(morton.sort());
+            }
+        }
+
+        if(sleep!=null){
+            sleep.update();
+        }
+
+        // Remember where everybody awake was, so the renderer can blend from there.
+        int awake = active();
+        System.arraycopy(particles.column(X), 0, particles.column(PREVIOUS_X), 0, awake);
+        System.arraycopy(particles.column(Y), 0, particles.column(PREVIOUS_Y), 0, awake);
+
+        // Anything about the forces that changed since the last step makes its field stale.
+        int changes = 0;
+        for(ForceProvider force : forces){
+            changes += force.changes();
+        }
+        if(changes!=forceChanges){
+            forceChanges = changes;
+            fieldEpoch++;
+        }
+
+        diagnostics.begin();
+        integrator.advance(this, dt);
+        if(sleep!=null){
+            sleep.hold();
+        }
+
+        // Bounces move particles after the push has worked out the field at them.
+        if(collisions!=null){
+            collisions.resolve();
+            if(collisions.pairCount()>0){
+                fieldEpoch++;
+            }
+        }
+
+        // The push adds up the diagnostics as it goes; anything else needs a pass of its own.
+        if(!diagnostics.measured()){
+            forEachChunk(measureLoop, active());
+        }
+        if(sleep!=null){
+            sleep.addSleepers(diagnostics);
+        }
+        diagnostics.end(time+dt);
+
+        if(history!=null){
+            history.record(0, n, dt);
+        }
+        time += dt;
+    }
+
+    /**
+     * reorder
+     *
+     * Sorts the particles along a Z curve right now, so ones close together in space are
+     * close together in memory. Handles keep pointing at the same particles, but indices
+     * change, so this should only be called between steps.
+     */
+    public void reorder(){
+
+        morton.measure(particles.column(X), particles.column(Y), particles.size());
+        reorder(morton.sort());
+    }
+
+    /**
+     * setReordering
+     *
+     * Changes how often, in steps, the manager checks whether particles have become scattered
+     * in memory, and how scattered they have to be before it sorts them: the fraction of
+     * particles that are out of order with the next, from 0 to about 0.5. An interval of 0
+     * stops it checking.
+     */
+    public void setReordering(int interval, float threshold){
+
+        reorderInterval = interval;
+        reorderThreshold = threshold;
+        stepsSinceReorderCheck = 0;
+    }
+
+    /**
+     * reorder
+     *
+     * Puts the particles in the given order, particle order[k] moving to index k, and lets
+     * everything that remembers particles by index know where they went. Handles keep
+     * pointing at the same particles. This is for integrators and the like that want
+     * particles grouped a certain way, and should only be called between steps or by them.
+     */
+    public void reorder(int[] order){
+
+        int n = particles.size();
+        pool.reorder(order);
+
+        if(rankScratch.length<n){
+            rankScratch = new int[particles.capacity()];
+        }
+        int[] rank = rankScratch;
+        for(int k=0;k<n;k++){
+            rank[order[k]] = k;
+        }
+
+        if(collisions!=null){
+            collisions.remap(rank);
+        }
+        if(neighborList!=null){
+            neighborList.invalidate();
+        }
+        colorVersion++;
+        reorders++;
+    }
+
+    /**
+     * fieldEpoch
+     *
+     * Returns a number that changes whenever the field at the particles might have changed
+     * without the push moving them: the forces or their settings changing, the integrator
+     * being swapped, or collisions moving particles. An integrator that reuses the field from
+     * the end of its last step should check this hasn't changed first.
+     */
+    public int fieldEpoch(){
+        return fieldEpoch;
+    }
+
+    /**
+     * fieldChanged
+     *
+     * Tells the integrators the field they worked out last is stale. Call this after moving
+     * particles or changing what pushes them in a way the manager can't see.
+     */
+    public void fieldChanged(){
+        fieldEpoch++;
+    }
+
+    /**
+     * reorders
+     *
+     * Returns how many times the particles have been put in a new order. Anything keeping
+     * its own arrays by particle index can compare this to know when they've gone stale.
+     */
+    public int reorders(){
+        return reorders;
+    }
+
+    /**
+     * computeFields
+     *
+     * Works out the field at every particle's current position, into the EX and EY columns.
+     * Integrators call this as many times a step as they need to.
+     */
+    public void computeFields(){
+        computeFields(0, particles.size());
+    }
+
+    /**
+     * computeFields
+     *
+     * Works out the field at particles from..to-1 only, leaving everyone else's alone.
+     * The forces are still built from every particle, so the field is the same as a full
+     * evaluation would give; it's just not added up for the rest.
+     */
+    public void computeFields(int from, int to){
+
+        int n = particles.size();
+
+        // Sort everybody into cells for anything that only looks at neighbors.
+        if(neighbors!=null){
+            neighbors.build(particles.column(X), particles.column(Y), n);
+        }
+        if(neighborList!=null){
+            neighborList.update(particles.column(X), particles.column(Y), n);
+        }
+
+        // Let every force build what it needs, then add up the field at every particle.
+        ForceProvider[] active = forces;
+        for(ForceProvider force : active){
+            force.prepare(this);
+        }
+        stepForces = active;
+        fieldOffset = from;
+        forEachChunk(fieldLoop, to-from);
+        stepForces = null;
+    }
+
+    /**
+     * accumulateFields
+     *
+     * Clears the field at particles from..to-1 and adds up every force's contribution to it.
+     */
+    private void accumulateFields(int from, int to, int worker){
+
+        Arrays.fill(particles.column(EX), from, to, 0.0f);
+        Arrays.fill(particles.column(EY), from, to, 0.0f);
+        for(ForceProvider force : stepForces){
+            force.accumulate(this, from, to, worker);
+        }
+    }
+
+    /**
+     * read
+     *
+     * Copies particles from..to-1's values of a quality into dst, starting at index 0, the way
+     * the store does, except that particles of a species get the species' charge and mass
+     * instead of their charge and mass qualities. Anything reading charges or masses should
+     * read them through here.
+     */
+    public void read(int quality, int from, int to, float[] dst){
+
+        particles.read(quality, from, to, dst);
+        SpeciesTable table = species;
+        if(table!=null && (quality==CHARGE || quality==MASS)){
+            table.fill(quality==CHARGE, from, to, dst);
+        }
+    }
+
+    /**
+     * chargeToMass
+     *
+     * Writes the charge to mass ratio of particles 0..n-1 into dst.
+     */
+    public void chargeToMass(float[] dst, int n){
+
+        read(CHARGE, 0, n, dst);
+        float[] m = massScratch;
+        for(int from=0;from<n;from+=CHUNK){
+            int to = Math.min(n, from+CHUNK);
+            read(MASS, from, to, m);
+            for(int i=from;i<to;i++){
+                dst[i] /= m[i-from];
+            }
+        }
+    }
+
+    /**
+     * setIntegrator
+     *
+     * Changes how the particles are moved forward in time, from the next step on.
+     */
+    public void setIntegrator(Integrator value){
+        integrator = value;
+        fieldEpoch++;
+    }
+
+    /**
+     * getIntegrator
+     *
+     * Returns what moves the particles forward in time.
+     */
+    public Integrator getIntegrator(){
+        return integrator;
+    }
+
+    /**
+     * forEachChunk
+     *
+     * Runs a loop over particles 0..n-1 a chunk at a time, across the workers if there are any.
+     */
+    public void forEachChunk(ParallelRunner.Task loop, int n){
+
+        if(runner!=null){
+            runner.run(loop, n, CHUNK);
+            return;
+        }
+
+        for(int from=0;from<n;from+=CHUNK){
+            loop.run(from, Math.min(n, from+CHUNK), 0);
+        }
+    }
+
+    /**
+     * updateWorkers
+     *
+     * Starts or stops worker threads if a different number has been asked for,
+     * and makes sure each one has its own scratch memory.
+     */
+    private void updateWorkers(){
+
+        int wanted = wantedWorkers;
+        if(workers()!=wanted){
+            if(runner!=null){
+                runner.shutdown();
+                runner = null;
+            }
+            if(wanted>1){
+                runner = new ParallelRunner(wanted);
+            }
+        }
+
+        pusher.ensureWorkers(wanted);
+        diagnostics.ensureWorkers(wanted, particles.capacity());
+    }
+
+    /**
+     * setParallel
+     *
+     * Spreads the work of each step over one thread per processor, or puts it
+     * back on the simulation thread alone.
+     */
+    public void setParallel(boolean parallel){
+        setWorkers(parallel ? Runtime.getRuntime().availableProcessors() : 1);
+    }
+
+    /**
+     * setWorkers
+     *
+     * Changes how many threads share the work of each step, counting the simulation thread.
+     * The change happens at the start of the next step.
+     */
+    public void setWorkers(int count){
+        wantedWorkers = Math.max(1, count);
+    }
+
+    /**
+     * workers
+     *
+     * Returns how many threads are sharing the work of the current step. Force providers use
+     * this to give each worker its own scratch memory.
+     */
+    public int workers(){
+        return runner==null ? 1 : runner.workers();
+    }
+
+    /**
+     * upload
+     *
+     * Writes every particle's current and previous positions into the back frame and
+     * publishes it to the renderer. This is the only copy the positions go through on their
+     * way to the screen, and it has to be called from the thread that runs the simulation.
+     */
+    public void upload(){
+
+        int n = particles.size();
+        ParticleVertexBuffer frame = frames.back();
+        frame.setCount(n);
+
+        // Each of the rotating frames needs the colors once after they change.
+        if(frame.colorVersion()!=colorVersion){
+            writeColors(frame, n);
+            frame.setColorVersion(colorVersion);
+        }
+
+        // Sleepers don't move, so each frame only needs them once after they change.
+        int moving = n;
+        if(sleep!=null){
+            if(frame.sleepVersion()==sleep.version() && sleep.current()){
+                moving = sleep.awake();
+            }
+            else{
+                frame.setSleepVersion(sleep.version());
+            }
+        }
+
+        frame.writePositions(particles.column(X), particles.column(Y), 0, moving);
+        frame.writePrevious(particles.column(PREVIOUS_X), particles.column(PREVIOUS_Y), 0, moving);
+
+        // The simulation is lagging real time by the leftover time, so the frame should
+        // finish blending to its newest step one step after that.
+        long stepNanos = (long) (timestep*1.0e9);
+        frame.setTiming(System.nanoTime() - (long) (lag*1.0e9), stepNanos);
+
+        frames.publish();
+    }
+
+    /**
+     * setTimestep
+     *
+     * Changes how much simulated time each step covers, in seconds.
+     */
+    public void setTimestep(float dt){
+        timestep = dt;
+    }
+
+    /**
+     * getTimestep
+     *
+     * Returns how much simulated time each step covers, in seconds.
+     */
+    public float getTimestep(){
+        return timestep;
+    }
+
+    /**
+     * setMaxSubsteps
+     *
+     * Changes the most steps taken in one round when the simulation falls behind.
+     */
+    public void setMaxSubsteps(int steps){
+        maxSubsteps = Math.max(1, steps);
+    }
+
+    /**
+     * getTime
+     *
+     * Returns how much simulated time has passed, in seconds.
+     */
+    public double getTime(){
+        return time;
+    }
+
+    /**
+     * writeColors
+     *
+     * Decodes the packed color qualities straight into the frame's color slots.
+     */
+    private void writeColors(ParticleVertexBuffer frame, int n){
+
+        FloatBuffer buffer = frame.colorBuffer();
+        int stride = ParticleVertexBuffer.COLOR_SIZE;
+        particles.upload(RED, 0, n, buffer, 0, stride);
+        particles.upload(GREEN, 0, n, buffer, 1, stride);
+        particles.upload(BLUE, 0, n, buffer, 2, stride);
+        particles.upload(ALPHA, 0, n, buffer, 3, stride);
     }
 
 }
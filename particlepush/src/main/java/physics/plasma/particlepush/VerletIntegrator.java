@@ -0,0 +1,76 @@
+package physics.plasma.particlepush;
+
+/**
+ * VerletIntegrator
+ *
+ * This is velocity Verlet, also called kick-drift-kick: half a step's kick with the field
+ * at the start of the step, a whole step's drift, the field at the new positions, and the
+ * other half kick with it. Positions and velocities stay in step with each other, which is
+ * handy for anything measuring energy, and the field worked out at the end of one step is
+ * the one the next step starts with, so it still only costs one evaluation a step.
+ *
+ * Kicks include the magnetic field as a Boris rotation, so a magnetic field still can't
+ * change a particle's speed. Only particles that are awake are moved.
+ */
+public class VerletIntegrator implements Integrator {
+
+    // Each particle's charge to mass ratio.
+    private float[] ratio = new float[0];
+
+    // How many particles there were, how many were awake, and the manager's field epoch when the
+    // fields were last worked out. The field left over from the last step is only good if nobody
+    // has been added, removed, woken or put to sleep since, and nothing else has changed it.
+    private int primedCount = -1;
+    private int primedActive;
+    private int primedEpoch;
+    private SystemManager primedSystem;
+
+    @Override
+    public void advance(SystemManager system, float dt){
+
+        ParticleStore store = system.particles;
+        int count = store.size();
+        int n = system.active();
+        if(ratio.length<count){
+            ratio = new float[store.capacity()];
+        }
+        int epoch = system.fieldEpoch();
+        system.chargeToMass(ratio, n);
+
+        if(primedSystem!=system || primedCount!=count || primedActive!=n || primedEpoch!=epoch){
+            system.computeFields(0, n);
+        }
+
+        float[] x = store.column(system.X);
+        float[] y = store.column(system.Y);
+        float[] vx = store.column(system.VX);
+        float[] vy = store.column(system.VY);
+        float[] ex = store.column(system.EX);
+        float[] ey = store.column(system.EY);
+        BorisPusher pusher = system.pusher;
+
+        pusher.kick(x, y, vx, vy, ex, ey, ratio, 0, n, 0.5f*dt);
+        for(int i=0;i<n;i++){
+            x[i] += vx[i]*dt;
+            y[i] += vy[i]*dt;
+        }
+
+        system.computeFields(0, n);
+        pusher.kick(x, y, vx, vy, ex, ey, ratio, 0, n, 0.5f*dt);
+
+        primedSystem = system;
+        primedCount = count;
+        primedActive = n;
+        primedEpoch = epoch;
+    }
+
+    /**
+     * reset
+     *
+     * Forgets the field left over from the last step, so the next step works it out afresh.
+     * Call this after changing anything that pushes the particles.
+     */
+    public void reset(){
+        primedSystem = null;
+    }
+}
@@ -0,0 +1,89 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the tree's field against summing over every pair directly.
+ */
+public class BarnesHutTreeTest {
+
+    private static final int N = 400;
+    private static final float SOFTENING = 0.01f;
+
+    @Test
+    public void zeroOpeningAngleMatchesTheDirectSum() throws Exception {
+        Random random = new Random(3);
+        float[] x = new float[N];
+        float[] y = new float[N];
+        float[] q = new float[N];
+        scatter(random, x, y, q);
+
+        BarnesHutTree tree = new BarnesHutTree(0, 1.0f, 0.0f, SOFTENING);
+        tree.build(x, y, q, N);
+        assertTrue(tree.nodeCount()>1);
+
+        float[] field = new float[2];
+        float[] direct = new float[2];
+        for(int i=0;i<N;i+=7){
+            tree.field(x[i], y[i], i, field);
+            direct(x, y, q, i, direct);
+            assertEquals(direct[0], field[0], 1.0e-3f*Math.abs(direct[0]) + 1.0e-2f);
+            assertEquals(direct[1], field[1], 1.0e-3f*Math.abs(direct[1]) + 1.0e-2f);
+        }
+    }
+
+    @Test
+    public void approximationStaysCloseToTheDirectSum() throws Exception {
+        Random random = new Random(5);
+        float[] x = new float[N];
+        float[] y = new float[N];
+        float[] q = new float[N];
+        scatter(random, x, y, q);
+
+        BarnesHutTree tree = new BarnesHutTree(0, 1.0f, 0.5f, SOFTENING);
+        tree.build(x, y, q, N);
+
+        // Compare the total error over every particle to the total field.
+        float[] field = new float[2];
+        float[] direct = new float[2];
+        double error = 0.0;
+        double size = 0.0;
+        for(int i=0;i<N;i++){
+            tree.field(x[i], y[i], i, field);
+            direct(x, y, q, i, direct);
+            error += Math.hypot(field[0]-direct[0], field[1]-direct[1]);
+            size += Math.hypot(direct[0], direct[1]);
+        }
+        assertTrue(error/size<0.02);
+    }
+
+    private static void scatter(Random random, float[] x, float[] y, float[] q){
+        for(int i=0;i<N;i++){
+            x[i] = random.nextFloat()-0.5f;
+            y[i] = random.nextFloat()-0.5f;
+            q[i] = (i%2==0) ? 1.0f : -1.0f;
+        }
+    }
+
+    private static void direct(float[] x, float[] y, float[] q, int self, float[] out){
+        double ex = 0.0;
+        double ey = 0.0;
+        for(int j=0;j<N;j++){
+            if(j==self){
+                continue;
+            }
+            double dx = x[self]-x[j];
+            double dy = y[self]-y[j];
+            double r2 = dx*dx + dy*dy + SOFTENING*SOFTENING;
+            double f = q[j]/(r2*Math.sqrt(r2));
+            ex += f*dx;
+            ey += f*dy;
+        }
+        out[0] = (float) ex;
+        out[1] = (float) ey;
+    }
+}
@@ -0,0 +1,62 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the Boris push gyrates particles in a magnetic field without changing
+ * their speed, and drifts them correctly in crossed fields.
+ */
+public class BorisPusherTest {
+
+    @Test
+    public void magneticFieldTurnsWithoutChangingSpeed() throws Exception {
+        BorisPusher pusher = new BorisPusher();
+        pusher.setUniformField(2.0f);
+
+        float[] x = {0.0f};
+        float[] y = {0.0f};
+        float[] vx = {1.0f};
+        float[] vy = {0.0f};
+        float[] zero = {0.0f};
+        float[] q = {1.0f};
+        float[] m = {1.0f};
+
+        // A large step on purpose; the speed should still hold exactly.
+        float dt = 0.3f;
+        float lowest = Float.MAX_VALUE;
+        for(int step=0;step<1000;step++){
+            pusher.push(x, y, vx, vy, zero, zero, q, m, 0, 1, dt);
+            assertEquals(1.0f, (float) Math.hypot(vx[0], vy[0]), 1.0e-4f);
+            lowest = Math.min(lowest, y[0]);
+        }
+
+        // A positive charge in a field out of the screen turns clockwise, down from +x,
+        // on a circle of radius v/(qB/m) = 0.5.
+        assertEquals(-1.0f, lowest, 0.05f);
+    }
+
+    @Test
+    public void crossedFieldsDriftAtEOverB() throws Exception {
+        BorisPusher pusher = new BorisPusher();
+        pusher.setUniformField(1.0f);
+
+        float[] x = {0.0f};
+        float[] y = {0.0f};
+        float[] vx = {0.0f};
+        float[] vy = {0.0f};
+        float[] ex = {0.0f};
+        float[] ey = {0.5f};
+        float[] q = {1.0f};
+        float[] m = {1.0f};
+
+        // E x B points along +x at E/B, averaged over whole gyrations.
+        float dt = 0.01f;
+        int steps = (int) Math.round(20.0*Math.PI/dt);
+        for(int step=0;step<steps;step++){
+            pusher.push(x, y, vx, vy, ex, ey, q, m, 0, 1, dt);
+        }
+        assertEquals(0.5f, x[0]/(steps*dt), 0.01f);
+    }
+}
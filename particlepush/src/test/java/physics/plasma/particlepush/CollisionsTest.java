@@ -0,0 +1,119 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that sweep and prune finds every touching pair, that bounces conserve momentum,
+ * and that the diagnostics see the energy they take away.
+ */
+public class CollisionsTest {
+
+    @Test
+    public void sweepFindsTheSamePairsAsBruteForce() throws Exception {
+        SystemManager system = new SystemManager(null);
+        system.setIntegrator(new Integrator() {
+            @Override
+            public void advance(SystemManager system, float dt) {
+            }
+        });
+        Collisions collisions = system.enableCollisions(0.02f, 1.0f);
+
+        Random random = new Random(17);
+        for(int i=0;i<300;i++){
+            system.addParticle(random.nextFloat(), random.nextFloat());
+        }
+
+        // Check a few times while particles move about and some are removed,
+        // so the incremental sort gets exercised.
+        for(int round=0;round<3;round++){
+            float[] x = system.particles.column(system.X);
+            float[] y = system.particles.column(system.Y);
+            int n = system.particles.size();
+            int expected = 0;
+            for(int a=0;a<n;a++){
+                for(int b=a+1;b<n;b++){
+                    float dx = x[a]-x[b];
+                    float dy = y[a]-y[b];
+                    if(dx*dx + dy*dy<0.04f*0.04f){
+                        expected++;
+                    }
+                }
+            }
+
+            system.step(0.01f);
+            assertEquals(expected, collisions.pairCount());
+
+            for(int i=0;i<n;i++){
+                x[i] = random.nextFloat();
+                y[i] = random.nextFloat();
+            }
+            system.pool.killIndex(0);
+        }
+    }
+
+    @Test
+    public void elasticHeadOnCollisionSwapsVelocities() throws Exception {
+        SystemManager system = new SystemManager(null);
+        system.enableCollisions(0.1f, 1.0f);
+        Particle left = system.addParticle(-0.15f, 0.0f, 0.0f);
+        Particle right = system.addParticle(0.15f, 0.0f, 0.0f);
+        left.set(system.VX, 1.0f);
+        right.set(system.VX, -0.5f);
+
+        for(int step=0;step<20;step++){
+            system.step(0.01f);
+        }
+
+        assertEquals(-0.5f, left.get(system.VX), 1.0e-5f);
+        assertEquals(1.0f, right.get(system.VX), 1.0e-5f);
+    }
+
+    @Test
+    public void diagnosticsSeeTheEnergyLostInABounce() throws Exception {
+        SystemManager system = new SystemManager(null);
+        Collisions collisions = system.enableCollisions(0.1f, 0.0f);
+        Particle left = system.addParticle(-0.15f, 0.0f, 0.0f);
+        Particle right = system.addParticle(0.15f, 0.0f, 0.0f);
+        left.set(system.VX, 1.0f);
+        right.set(system.VX, -1.0f);
+
+        for(int step=0;step<20 && collisions.pairCount()==0;step++){
+            system.step(0.01f);
+            if(collisions.pairCount()==0){
+                assertEquals(1.0, system.diagnostics.kineticEnergy(), 1.0e-5);
+            }
+        }
+
+        // They stick, and from the step they hit there's none left.
+        assertTrue(collisions.pairCount()>0);
+        assertEquals(0.0, system.diagnostics.kineticEnergy(), 1.0e-5);
+        system.step(0.01f);
+        assertEquals(0.0, system.diagnostics.kineticEnergy(), 1.0e-5);
+        assertEquals(0.0, system.diagnostics.get(Diagnostics.MOMENTUM_X), 1.0e-5);
+    }
+
+    @Test
+    public void diagnosticsSeeNoEnergyLostInAnElasticBounce() throws Exception {
+        SystemManager system = new SystemManager(null);
+        Collisions collisions = system.enableCollisions(0.1f, 1.0f);
+        Particle left = system.addParticle(-0.15f, 0.0f, 0.0f);
+        Particle right = system.addParticle(0.15f, 0.0f, 0.0f);
+        left.set(system.VX, 1.0f);
+        right.set(system.VX, -1.0f);
+
+        for(int step=0;step<20 && collisions.pairCount()==0;step++){
+            system.step(0.01f);
+            assertEquals(1.0, system.diagnostics.kineticEnergy(), 1.0e-5);
+        }
+
+        // They swap velocities, and the energy they had is all still there.
+        assertTrue(collisions.pairCount()>0);
+        assertEquals(-1.0f, left.get(system.VX), 1.0e-5f);
+        system.step(0.01f);
+        assertEquals(1.0, system.diagnostics.kineticEnergy(), 1.0e-5);
+    }
+}
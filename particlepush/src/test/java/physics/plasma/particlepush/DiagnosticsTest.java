@@ -0,0 +1,59 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the totals the push adds up against ones worked out by hand, and the time series' ring buffer.
+ */
+public class DiagnosticsTest {
+
+    @Test
+    public void pushAndSeparatePassAddUpTheSameTotals() throws Exception {
+        Integrator[] integrators = {new LeapfrogIntegrator(), new VerletIntegrator()};
+
+        for(Integrator integrator : integrators){
+            SystemManager system = new SystemManager(null);
+            system.setIntegrator(integrator);
+            Particle a = system.addParticle(0.0f, 0.0f, 1.0f);
+            Particle b = system.addParticle(1.0f, 0.0f, -1.0f);
+            Particle c = system.addParticle(0.0f, 1.0f, 2.0f);
+            a.set(system.VX, 1.0f);
+            b.set(system.VX, -1.0f);
+            b.set(system.MASS, 3.0f);
+            c.set(system.VY, 2.0f);
+
+            system.step(0.01f);
+
+            Diagnostics diagnostics = system.diagnostics;
+            assertEquals(0.5*1.0 + 0.5*3.0 + 0.5*4.0, diagnostics.kineticEnergy(), 1.0e-5);
+            assertEquals(1.0 - 3.0, diagnostics.get(Diagnostics.MOMENTUM_X), 1.0e-5);
+            assertEquals(2.0, diagnostics.get(Diagnostics.MOMENTUM_Y), 1.0e-5);
+            assertEquals(2.0, diagnostics.get(Diagnostics.CHARGE), 1.0e-5);
+            assertEquals(3.0, diagnostics.get(Diagnostics.COUNT), 0.0);
+            double bulk = 0.5*(4.0 + 4.0)/5.0;
+            assertEquals((4.0-bulk)/3.0, diagnostics.temperature(), 1.0e-5);
+        }
+    }
+
+    @Test
+    public void seriesKeepsTheLatestStepsOldestFirst() throws Exception {
+        Diagnostics diagnostics = new Diagnostics(4);
+        for(int step=1;step<=6;step++){
+            diagnostics.begin();
+            diagnostics.add(0, step, 0.0f, 0.0f, 0.0f, 1.0f, 1);
+            diagnostics.end(step);
+        }
+
+        float[] energy = new float[8];
+        assertEquals(4, diagnostics.series(Diagnostics.KINETIC_ENERGY, energy));
+        assertArrayEquals(new float[]{3.0f, 4.0f, 5.0f, 6.0f}, Arrays.copyOf(energy, 4), 0.0f);
+
+        float[] time = new float[2];
+        assertEquals(2, diagnostics.series(Diagnostics.TIME, time));
+        assertArrayEquals(new float[]{5.0f, 6.0f}, time, 0.0f);
+    }
+}
@@ -0,0 +1,125 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks both transform paths and the real transforms against a direct discrete Fourier transform,
+ * and the spectral Poisson solve against known solutions.
+ */
+public class FFTTest {
+
+    @Test
+    public void transformsMatchTheDirectSum() throws Exception {
+        Random random = new Random(13);
+        int[] lengths = {1, 2, 7, 8, 12, 15, 30, 64, 96};
+
+        for(int n : lengths){
+            float[] data = new float[2*n];
+            for(int k=0;k<2*n;k++){
+                data[k] = random.nextFloat()-0.5f;
+            }
+            float[] original = data.clone();
+
+            FFT fft = new FFT(n);
+            fft.forward(data);
+            for(int k=0;k<n;k++){
+                double re = 0.0;
+                double im = 0.0;
+                for(int j=0;j<n;j++){
+                    double angle = -2.0*Math.PI*j*k/n;
+                    re += original[2*j]*Math.cos(angle) - original[2*j+1]*Math.sin(angle);
+                    im += original[2*j]*Math.sin(angle) + original[2*j+1]*Math.cos(angle);
+                }
+                assertEquals(re, data[2*k], 1.0e-4*n);
+                assertEquals(im, data[2*k+1], 1.0e-4*n);
+            }
+
+            fft.inverse(data);
+            assertArrayEquals(original, data, 1.0e-5f);
+        }
+    }
+
+    @Test
+    public void realTransformsMatchTheDirectSum() throws Exception {
+        Random random = new Random(17);
+        int[] lengths = {1, 4, 6, 16, 48};
+
+        for(int n : lengths){
+            float[] real = new float[2*n];
+            for(int j=0;j<2*n;j++){
+                real[j] = random.nextFloat()-0.5f;
+            }
+
+            FFT fft = new FFT(n);
+            float[] spectrum = new float[2*n+2];
+            fft.forwardReal(real, spectrum);
+            for(int k=0;k<=n;k++){
+                double re = 0.0;
+                double im = 0.0;
+                for(int j=0;j<2*n;j++){
+                    double angle = -Math.PI*j*k/n;
+                    re += real[j]*Math.cos(angle);
+                    im += real[j]*Math.sin(angle);
+                }
+                assertEquals(re, spectrum[2*k], 1.0e-4*n);
+                assertEquals(im, spectrum[2*k+1], 1.0e-4*n);
+            }
+
+            float[] back = new float[2*n];
+            fft.inverseReal(spectrum, back);
+            assertArrayEquals(real, back, 1.0e-5f);
+        }
+    }
+
+    @Test
+    public void finiteDifferenceGreensFunctionMatchesTheStencil() throws Exception {
+        int nx = 24;
+        int ny = 15;
+        float h = 1.0f/nx;
+        float k = (float) (2.0*Math.PI);
+        float[] source = new float[nx*ny];
+        for(int j=0;j<ny;j++){
+            for(int i=0;i<nx;i++){
+                source[j*nx+i] = (float) Math.sin(k*i*h);
+            }
+        }
+
+        float[] potential = new float[nx*ny];
+        new SpectralSolver(SpectralSolver.Operator.FINITE_DIFFERENCE, SpectralSolver.Smoothing.NONE, 0.0f)
+                .solve(source, potential, nx, ny, h, h);
+
+        float scale = (float) ((2.0 - 2.0*Math.cos(k*h))/(h*h));
+        for(int j=0;j<ny;j++){
+            for(int i=0;i<nx;i++){
+                assertEquals(source[j*nx+i]/scale, potential[j*nx+i], 1.0e-5f);
+            }
+        }
+    }
+
+    @Test
+    public void spectralGreensFunctionIsExactForAWave() throws Exception {
+        int n = 32;
+        float h = 1.0f/n;
+        double kx = 2.0*Math.PI;
+        double ky = 4.0*Math.PI;
+        float[] source = new float[n*n];
+        for(int j=0;j<n;j++){
+            for(int i=0;i<n;i++){
+                source[j*n+i] = (float) (Math.cos(kx*i*h)*Math.sin(ky*j*h));
+            }
+        }
+
+        float[] potential = new float[n*n];
+        new SpectralSolver(SpectralSolver.Operator.SPECTRAL, SpectralSolver.Smoothing.NONE, 0.0f)
+                .solve(source, potential, n, n, h, h);
+
+        float k2 = (float) (kx*kx + ky*ky);
+        for(int m=0;m<n*n;m++){
+            assertEquals(source[m]/k2, potential[m], 1.0e-6f);
+        }
+    }
+}
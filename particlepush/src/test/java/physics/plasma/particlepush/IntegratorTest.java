@@ -0,0 +1,248 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs every integrator on a harmonic oscillator, whose exact motion is known.
+ */
+public class IntegratorTest {
+
+    // A field pulling every particle back to the origin, so a unit charge and mass
+    // goes around once every 2 pi seconds.
+    private static final ForceProvider SPRING = new ForceProvider() {
+        @Override
+        public void prepare(SystemManager system) {
+        }
+
+        @Override
+        public void accumulate(SystemManager system, int from, int to, int worker) {
+            float[] x = system.particles.column(system.X);
+            float[] y = system.particles.column(system.Y);
+            float[] ex = system.particles.column(system.EX);
+            float[] ey = system.particles.column(system.EY);
+            for(int i=from;i<to;i++){
+                ex[i] -= x[i];
+                ey[i] -= y[i];
+            }
+        }
+
+        @Override
+        public int changes() {
+            return 0;
+        }
+    };
+
+    @Test
+    public void everyIntegratorFollowsTheOscillator() throws Exception {
+        Integrator[] integrators = {new LeapfrogIntegrator(), new VerletIntegrator(),
+                new RK4Integrator(), new AdaptiveIntegrator(1.0e-4f, 1.0e-4f), new BlockIntegrator(4, 1.0f, 1.0f)};
+        float[] tolerances = {0.05f, 0.01f, 1.0e-3f, 1.0e-2f, 0.01f};
+
+        for(int k=0;k<integrators.length;k++){
+            SystemManager system = new SystemManager(null);
+            system.addForce(SPRING);
+            system.setIntegrator(integrators[k]);
+            Particle particle = system.addParticle(1.0f, 0.0f);
+            particle.set(system.VY, 1.0f);
+
+            // One whole period should bring it back where it started.
+            float dt = 0.05f;
+            int steps = (int) Math.round(2.0*Math.PI/dt);
+            for(int step=0;step<steps;step++){
+                system.step(dt);
+            }
+            float t = steps*dt;
+            assertEquals(Math.cos(t), particle.get(system.X), tolerances[k]);
+            assertEquals(Math.sin(t), particle.get(system.Y), tolerances[k]);
+        }
+    }
+
+    @Test
+    public void rungeKuttaIntegratorsGiveTheSameAnswerOnManyThreads() throws Exception {
+        for(int k=0;k<2;k++){
+            SystemManager[] systems = new SystemManager[2];
+            for(int s=0;s<2;s++){
+                systems[s] = new SystemManager(null);
+                systems[s].addForce(SPRING);
+                systems[s].setIntegrator(k==0 ? new RK4Integrator() : new AdaptiveIntegrator(1.0e-4f, 1.0e-4f));
+                systems[s].setWorkers(s==0 ? 1 : 4);
+
+                // Enough particles for several chunks.
+                for(int i=0;i<1000;i++){
+                    Particle particle = systems[s].addParticle(1.0f + i*0.001f, 0.0f);
+                    particle.set(systems[s].VY, 1.0f);
+                }
+            }
+
+            for(int step=0;step<20;step++){
+                systems[0].step(0.05f);
+                systems[1].step(0.05f);
+            }
+            float[] serial = systems[0].particles.column(systems[0].X);
+            float[] parallel = systems[1].particles.column(systems[1].X);
+            for(int i=0;i<1000;i++){
+                assertEquals(serial[i], parallel[i], 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void symplecticIntegratorsKeepEnergyBounded() throws Exception {
+        SystemManager system = new SystemManager(null);
+        system.addForce(SPRING);
+        system.setIntegrator(new VerletIntegrator());
+        Particle particle = system.addParticle(1.0f, 0.0f);
+
+        // A big step, run for a hundred periods.
+        float worst = 0.0f;
+        for(int step=0;step<2000;step++){
+            system.step(0.3f);
+            float x = particle.get(system.X);
+            float vx = particle.get(system.VX);
+            worst = Math.max(worst, Math.abs(0.5f*(x*x + vx*vx) - 0.5f));
+        }
+        assertTrue(worst<0.02f);
+    }
+
+    @Test
+    public void adaptiveIntegratorSplitsStepsToMeetItsTolerance() throws Exception {
+        SystemManager system = new SystemManager(null);
+        system.addForce(SPRING);
+        AdaptiveIntegrator adaptive = new AdaptiveIntegrator(1.0e-7f, 1.0e-7f);
+        system.setIntegrator(adaptive);
+        Particle particle = system.addParticle(1.0f, 0.0f);
+
+        system.step(0.5f);
+        assertTrue(adaptive.steps()>1);
+        assertEquals(Math.cos(0.5), particle.get(system.X), 1.0e-5f);
+    }
+
+    @Test
+    public void adaptiveIntegratorKeepsItsToleranceOverManySteps() throws Exception {
+        SystemManager system = new SystemManager(null);
+        system.addForce(SPRING);
+        AdaptiveIntegrator adaptive = new AdaptiveIntegrator(1.0e-6f, 1.0e-6f);
+        system.setIntegrator(adaptive);
+        Particle particle = system.addParticle(1.0f, 0.0f);
+
+        system.step(20.0f);
+        assertTrue(adaptive.steps()>64);
+        assertEquals(Math.cos(20.0), particle.get(system.X), 1.0e-3f);
+    }
+
+    @Test
+    public void blockStepsOnlyRefineParticlesThatNeedIt() throws Exception {
+        SystemManager system = new SystemManager(null);
+        system.pointers.setDefaults(-1.0f, PointerField.Falloff.INVERSE_SQUARE, 0.0f);
+        system.pointers.touch(0, 0.0f, 0.0f);
+        BlockIntegrator block = new BlockIntegrator(6, 0.2f, 0.01f);
+        system.setIntegrator(block);
+
+        // Everybody falls towards the pointer, but only one particle is close enough
+        // to need small steps, going around it in a circle.
+        for(int i=0;i<100;i++){
+            double angle = 2.0*Math.PI*i/100;
+            system.addParticle((float) Math.cos(angle), (float) Math.sin(angle));
+        }
+        Particle close = system.addParticle(0.1f, 0.0f);
+        close.set(system.VY, (float) Math.sqrt(1.0/0.1));
+
+        for(int step=0;step<20;step++){
+            system.step(0.01f);
+            float x = close.get(system.X);
+            float y = close.get(system.Y);
+            assertEquals(0.1f, (float) Math.sqrt(x*x + y*y), 0.005f);
+        }
+
+        assertEquals(3, block.deepestLevel());
+        assertEquals(3, block.level(system.pool.index(close.handle)));
+        assertEquals(7 + 101, block.evaluations());
+        assertEquals(8, block.sourceBuilds());
+    }
+
+    @Test
+    public void blocksAreOnlySortedAgainWhenAParticleNeedsAFinerStep() throws Exception {
+        SystemManager system = new SystemManager(null);
+        system.pointers.setDefaults(-1.0f, PointerField.Falloff.INVERSE_SQUARE, 0.0f);
+        system.pointers.touch(0, 0.0f, 0.0f);
+        BlockIntegrator block = new BlockIntegrator(6, 0.2f, 0.01f);
+        system.setIntegrator(block);
+
+        // One particle flies away from the pointer, needing coarser and coarser steps,
+        // past one that stays close and a ring that stays far.
+        Particle escaping = system.addParticle(0.03f, 0.0f);
+        escaping.set(system.VX, 20.0f);
+        for(int i=0;i<20;i++){
+            double angle = 2.0*Math.PI*i/20;
+            system.addParticle((float) Math.cos(angle), (float) Math.sin(angle));
+        }
+        Particle close = system.addParticle(0.0f, 0.1f);
+        close.set(system.VX, (float) -Math.sqrt(1.0/0.1));
+
+        system.step(0.01f);
+        int reorders = system.reorders();
+        assertEquals(5, block.level(system.pool.index(escaping.handle)));
+        for(int step=1;step<40;step++){
+            system.step(0.01f);
+        }
+
+        // It just kept taking the fine steps rather than everybody being sorted again.
+        assertTrue(escaping.get(system.X)>0.5f);
+        assertEquals(reorders, system.reorders());
+        assertEquals(5, block.level(system.pool.index(escaping.handle)));
+    }
+
+    @Test
+    public void verletWorksTheFieldOutAgainWhenAPointerMoves() throws Exception {
+        SystemManager reused = new SystemManager(null);
+        SystemManager fresh = new SystemManager(null);
+        SystemManager[] systems = {reused, fresh};
+        Particle[] particles = new Particle[2];
+        for(int k=0;k<2;k++){
+            systems[k].pointers.setDefaults(-1.0f, PointerField.Falloff.SPRING, 0.0f);
+            systems[k].pointers.touch(0, 0.0f, 0.0f);
+            systems[k].setIntegrator(new VerletIntegrator());
+            particles[k] = systems[k].addParticle(1.0f, 0.0f);
+            systems[k].step(0.1f);
+        }
+
+        // Moving the finger has to be noticed the same as starting over with a new integrator.
+        reused.pointers.touch(0, 0.5f, 0.0f);
+        fresh.pointers.touch(0, 0.5f, 0.0f);
+        fresh.setIntegrator(new VerletIntegrator());
+        reused.step(0.1f);
+        fresh.step(0.1f);
+
+        assertEquals(particles[1].get(fresh.X), particles[0].get(reused.X), 0.0f);
+        assertEquals(particles[1].get(fresh.VX), particles[0].get(reused.VX), 0.0f);
+    }
+
+    @Test
+    public void blockStepsWorkTheFieldOutAgainWhenAPointerMoves() throws Exception {
+        SystemManager reused = new SystemManager(null);
+        SystemManager fresh = new SystemManager(null);
+        SystemManager[] systems = {reused, fresh};
+        Particle[] particles = new Particle[2];
+        BlockIntegrator[] blocks = new BlockIntegrator[2];
+        for(int k=0;k<2;k++){
+            systems[k].pointers.setDefaults(-1.0f, PointerField.Falloff.SPRING, 0.0f);
+            systems[k].pointers.touch(0, 0.0f, 0.0f);
+            blocks[k] = new BlockIntegrator(4, 1.0f, 1.0f);
+            systems[k].setIntegrator(blocks[k]);
+            particles[k] = systems[k].addParticle(1.0f, 0.0f);
+            systems[k].step(0.1f);
+        }
+
+        reused.pointers.touch(0, 0.5f, 0.0f);
+        fresh.pointers.touch(0, 0.5f, 0.0f);
+        blocks[1].reset();
+        reused.step(0.1f);
+        fresh.step(0.1f);
+
+        assertEquals(particles[1].get(fresh.X), particles[0].get(reused.X), 0.0f);
+        assertEquals(particles[1].get(fresh.VX), particles[0].get(reused.VX), 0.0f);
+        assertEquals(blocks[1].sourceBuilds(), blocks[0].sourceBuilds());
+    }
+}
@@ -0,0 +1,72 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that Z curve sorting orders the keys and that reordering keeps every particle's qualities and handle.
+ */
+public class MortonOrderTest {
+
+    @Test
+    public void sortingLeavesNothingOutOfOrder() throws Exception {
+        Random random = new Random(5);
+        int n = 1000;
+        float[] x = new float[n];
+        float[] y = new float[n];
+        for(int i=0;i<n;i++){
+            x[i] = random.nextFloat();
+            y[i] = random.nextFloat();
+        }
+
+        MortonOrder morton = new MortonOrder();
+        assertTrue(morton.measure(x, y, n)>0.4f);
+
+        int[] order = morton.sort();
+        int[] rank = morton.rank();
+        float[] sx = new float[n];
+        float[] sy = new float[n];
+        for(int k=0;k<n;k++){
+            assertEquals(k, rank[order[k]]);
+            sx[k] = x[order[k]];
+            sy[k] = y[order[k]];
+        }
+
+        assertEquals(0.0f, morton.measure(sx, sy, n), 0.0f);
+    }
+
+    @Test
+    public void reorderingKeepsHandlesAndQualities() throws Exception {
+        SystemManager system = new SystemManager(null);
+        Random random = new Random(9);
+        int n = 300;
+        int[] handles = new int[n];
+        float[] x = new float[n];
+        float[] charge = new float[n];
+        float[] red = new float[n];
+        for(int i=0;i<n;i++){
+            x[i] = random.nextFloat();
+            charge[i] = (i%7==0) ? -2.0f : 1.0f;
+            Particle particle = system.addParticle(x[i], random.nextFloat(), charge[i]);
+            handles[i] = particle.handle;
+            system.particles.set(system.RED, system.pool.index(handles[i]), (i%4)/4.0f);
+            red[i] = system.particles.get(system.RED, system.pool.index(handles[i]));
+        }
+
+        system.reorder();
+
+        boolean moved = false;
+        for(int i=0;i<n;i++){
+            int index = system.pool.index(handles[i]);
+            moved |= index!=i;
+            assertEquals(x[i], system.particles.get(system.X, index), 0.0f);
+            assertEquals(charge[i], system.particles.get(system.CHARGE, index), 0.0f);
+            assertEquals(red[i], system.particles.get(system.RED, index), 0.0f);
+            assertEquals(handles[i], system.pool.handle(index));
+        }
+        assertTrue(moved);
+    }
+}
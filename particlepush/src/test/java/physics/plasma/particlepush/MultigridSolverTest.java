@@ -0,0 +1,102 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the multigrid solver against known solutions of the five point stencil
+ * for grounded and for insulating walls.
+ */
+public class MultigridSolverTest {
+
+    private static final int N = 65;
+    private static final float H = 1.0f/(N-1);
+
+    @Test
+    public void groundedBoxMatchesTheExactSolution() throws Exception {
+        float[] source = new float[N*N];
+        for(int j=0;j<N;j++){
+            for(int i=0;i<N;i++){
+                source[j*N+i] = (float) (Math.sin(Math.PI*i*H)*Math.sin(Math.PI*j*H));
+            }
+        }
+
+        MultigridSolver solver = new MultigridSolver(N, N);
+        assertTrue(solver.levels()>3);
+        solver.setCycles(8, 2, 2);
+        float[] potential = new float[N*N];
+        solver.solve(source, potential, N, N, H, H);
+
+        float scale = (float) (2.0*(2.0 - 2.0*Math.cos(Math.PI*H))/(H*H));
+        for(int k=0;k<N*N;k++){
+            assertEquals(source[k]/scale, potential[k], 1.0e-5f);
+        }
+    }
+
+    @Test
+    public void insulatingWallsKeepTheSlopeFlat() throws Exception {
+        float[] source = new float[N*N];
+        for(int j=0;j<N;j++){
+            for(int i=0;i<N;i++){
+                source[j*N+i] = (float) Math.cos(Math.PI*i*H);
+            }
+        }
+
+        MultigridSolver solver = new MultigridSolver(N, N);
+        solver.setBoundary(MultigridSolver.Boundary.NEUMANN, MultigridSolver.Boundary.NEUMANN,
+                MultigridSolver.Boundary.NEUMANN, MultigridSolver.Boundary.NEUMANN);
+        solver.setCycles(20, 2, 2);
+        float[] potential = new float[N*N];
+        solver.solve(source, potential, N, N, H, H);
+
+        float scale = (float) ((2.0 - 2.0*Math.cos(Math.PI*H))/(H*H));
+        for(int i=0;i<N;i++){
+            assertEquals(source[17*N+i]/scale, potential[17*N+i], 1.0e-4f);
+        }
+    }
+
+    @Test
+    public void sealedBoxesNeutralizeANetCharge() throws Exception {
+        float[] source = new float[N*N];
+        for(int j=0;j<N;j++){
+            for(int i=0;i<N;i++){
+                source[j*N+i] = 3.0f + (float) Math.cos(Math.PI*i*H);
+            }
+        }
+        float[] original = source.clone();
+
+        MultigridSolver solver = new MultigridSolver(N, N);
+        solver.setBoundary(MultigridSolver.Boundary.NEUMANN, MultigridSolver.Boundary.NEUMANN,
+                MultigridSolver.Boundary.NEUMANN, MultigridSolver.Boundary.NEUMANN);
+        solver.setCycles(20, 2, 2);
+        float[] potential = new float[N*N];
+        solver.solve(source, potential, N, N, H, H);
+
+        // Only the part of the source with no net charge has a solution, and that's the one found.
+        float scale = (float) ((2.0 - 2.0*Math.cos(Math.PI*H))/(H*H));
+        for(int i=0;i<N;i++){
+            assertEquals((float) Math.cos(Math.PI*i*H)/scale, potential[17*N+i], 1.0e-4f);
+        }
+        assertArrayEquals(original, source, 0.0f);
+
+        // And solving again from there stays put rather than drifting.
+        solver.solve(source, potential, N, N, H, H);
+        assertEquals(1.0f/scale, potential[17*N], 1.0e-4f);
+    }
+
+    @Test
+    public void electrodesHoldTheirPotential() throws Exception {
+        MultigridSolver solver = new MultigridSolver(N, N);
+        solver.fix(N/2, N/2, 1.0f);
+        float[] potential = new float[N*N];
+        solver.solve(new float[N*N], potential, N, N, H, H);
+
+        // Everything between the electrode and the grounded walls is in between the two.
+        assertEquals(1.0f, potential[(N/2)*N+N/2], 0.0f);
+        assertEquals(0.0f, potential[0], 0.0f);
+        float near = potential[(N/2)*N+N/2+2];
+        float far = potential[(N/2)*N+N-4];
+        assertTrue(near<1.0f && far>0.0f && near>far);
+    }
+}
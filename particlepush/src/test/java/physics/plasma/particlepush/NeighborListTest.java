@@ -0,0 +1,79 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that neighbor lists keep every close pair while particles drift, and only rebuild when they must.
+ */
+public class NeighborListTest {
+
+    @Test
+    public void listsKeepEveryPairWithinTheCutoff() throws Exception {
+        Random random = new Random(23);
+        int n = 400;
+        float cutoff = 0.08f;
+        float[] x = new float[n];
+        float[] y = new float[n];
+        for(int i=0;i<n;i++){
+            x[i] = random.nextFloat();
+            y[i] = random.nextFloat();
+        }
+
+        NeighborList list = new NeighborList(cutoff, 0.04f);
+        for(int step=0;step<30;step++){
+
+            list.update(x, y, n);
+            int[] offsets = list.offsets();
+            int[] neighbors = list.neighbors();
+
+            for(int i=0;i<n;i++){
+                boolean[] listed = new boolean[n];
+                for(int m=offsets[i];m<offsets[i+1];m++){
+                    listed[neighbors[m]] = true;
+                }
+                for(int j=0;j<n;j++){
+                    float dx = x[i]-x[j];
+                    float dy = y[i]-y[j];
+                    if(j!=i && dx*dx + dy*dy<=cutoff*cutoff){
+                        assertTrue(listed[j]);
+                    }
+                }
+            }
+
+            // Drift everybody a little.
+            for(int i=0;i<n;i++){
+                x[i] += 0.004f*(random.nextFloat()-0.5f);
+                y[i] += 0.004f*(random.nextFloat()-0.5f);
+            }
+        }
+
+        assertEquals(30, list.updates());
+        assertTrue(list.builds()<10);
+    }
+
+    @Test
+    public void movingPastHalfTheSkinRebuilds() throws Exception {
+        float[] x = {0.0f, 0.5f, 1.0f};
+        float[] y = {0.0f, 0.0f, 0.0f};
+        NeighborList list = new NeighborList(0.2f, 0.1f);
+
+        assertTrue(list.update(x, y, 3));
+        assertEquals(0, list.offsets()[3]);
+
+        x[1] = 0.54f;
+        assertFalse(list.update(x, y, 3));
+
+        x[1] = 0.9f;
+        assertTrue(list.update(x, y, 3));
+        assertEquals(1, list.offsets()[3]-list.offsets()[2]);
+        assertEquals(1, list.neighbors()[list.offsets()[2]]);
+
+        list.invalidate();
+        assertTrue(list.update(x, y, 3));
+        assertTrue(list.update(x, y, 2));
+    }
+}
@@ -0,0 +1,41 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the half precision and fixed point packing of 16 bit columns.
+ */
+public class PackedColumnTest {
+
+    @Test
+    public void halfFloatsRoundTripExactlyRepresentableValues() throws Exception {
+        float[] values = {0.0f, 1.0f, -2.5f, 65504.0f, 0.000060975552f, 5.9604645e-8f};
+        for(float value : values){
+            assertEquals(value, PackedColumn.toFloat(PackedColumn.toHalf(value)), 0.0f);
+        }
+    }
+
+    @Test
+    public void halfFloatsRoundToNearestAndOverflowToInfinity() throws Exception {
+        assertEquals(1.0f, PackedColumn.toFloat(PackedColumn.toHalf(1.0002f)), 0.0f);
+        assertEquals(1.0009765625f, PackedColumn.toFloat(PackedColumn.toHalf(1.0008f)), 0.0f);
+        assertTrue(Float.isInfinite(PackedColumn.toFloat(PackedColumn.toHalf(1.0e6f))));
+        assertTrue(Float.isNaN(PackedColumn.toFloat(PackedColumn.toHalf(Float.NaN))));
+    }
+
+    @Test
+    public void fixedPointCoversItsRangeAndClamps() throws Exception {
+        PackedColumn column = new PackedColumn(Quality.Storage.FIXED16, 0.5f, 0.0f, 1.0f, 4);
+        column.fillDefault(0, 4);
+        column.set(1, 1.0f);
+        column.set(2, 2.0f);
+        column.set(3, -1.0f);
+
+        assertEquals(0.5f, column.get(0), 1.0f/65535.0f);
+        assertEquals(1.0f, column.get(1), 0.0f);
+        assertEquals(1.0f, column.get(2), 0.0f);
+        assertEquals(0.0f, column.get(3), 0.0f);
+    }
+}
@@ -0,0 +1,77 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the runner covers every particle exactly once and reports failures.
+ */
+public class ParallelRunnerTest {
+
+    @Test
+    public void everyParticleIsVisitedOnce() throws Exception {
+        final int n = 10000;
+        final AtomicIntegerArray visits = new AtomicIntegerArray(n);
+        ParallelRunner runner = new ParallelRunner(4);
+
+        for(int round=0;round<5;round++){
+            runner.run(new ParallelRunner.Task() {
+                @Override
+                public void run(int from, int to, int worker) {
+                    assertTrue(worker>=0 && worker<4);
+                    for(int i=from;i<to;i++){
+                        visits.incrementAndGet(i);
+                    }
+                }
+            }, n, 64);
+        }
+        runner.shutdown();
+
+        for(int i=0;i<n;i++){
+            assertEquals(5, visits.get(i));
+        }
+    }
+
+    @Test
+    public void failuresOnWorkersAreThrownToTheCaller() throws Exception {
+        ParallelRunner runner = new ParallelRunner(3);
+        try {
+            runner.run(new ParallelRunner.Task() {
+                @Override
+                public void run(int from, int to, int worker) {
+                    if(from==640){
+                        throw new IllegalStateException("chunk");
+                    }
+                }
+            }, 1000, 64);
+            fail("expected the failure to come back");
+        } catch (IllegalStateException e) {
+            assertEquals("chunk", e.getMessage());
+        }
+        runner.shutdown();
+    }
+
+    @Test
+    public void errorsOnWorkersDoNotHangTheCaller() throws Exception {
+        ParallelRunner runner = new ParallelRunner(3);
+        for(int round=0;round<20;round++){
+            try {
+                runner.run(new ParallelRunner.Task() {
+                    @Override
+                    public void run(int from, int to, int worker) {
+                        if(from%128==0){
+                            throw new StackOverflowError("chunk");
+                        }
+                    }
+                }, 1000, 64);
+                fail("expected the error to come back");
+            } catch (StackOverflowError e) {
+                assertEquals("chunk", e.getMessage());
+            }
+        }
+        runner.shutdown();
+    }
+}
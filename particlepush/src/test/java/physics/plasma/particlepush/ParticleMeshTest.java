@@ -0,0 +1,80 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks charge deposition, the relaxation solver, and the field particles get back.
+ */
+public class ParticleMeshTest {
+
+    @Test
+    public void depositionConservesChargeForBothShapes() throws Exception {
+        float[] x = {0.13f, 0.71f, 0.999f, 0.5f};
+        float[] y = {0.27f, 0.02f, 0.64f, 0.5f};
+        float[] q = {1.0f, 2.0f, -0.5f, 3.0f};
+
+        for(ParticleMesh.Shape shape : ParticleMesh.Shape.values()){
+            ParticleMesh mesh = new ParticleMesh(0, 0.0f, 0.0f, 1.0f, 1.0f, 16, 16,
+                    shape, new RelaxationSolver(1, 1.0f));
+            mesh.deposit(x, y, q, 4);
+
+            // With the background taken off, the density over the box adds up to nothing,
+            // and a particle's point holds its charge less its share of the background.
+            double sum = 0.0;
+            for(float value : mesh.density()){
+                sum += value;
+            }
+            assertEquals(0.0, sum, 1.0e-2);
+        }
+
+        ParticleMesh mesh = new ParticleMesh(0, 0.0f, 0.0f, 1.0f, 1.0f, 16, 16,
+                ParticleMesh.Shape.CIC, new RelaxationSolver(1, 1.0f));
+        mesh.deposit(new float[]{0.25f}, new float[]{0.5f}, new float[]{1.0f}, 1);
+        float area = 1.0f/256.0f;
+        assertEquals((1.0f-1.0f/256.0f)/area, mesh.density()[8*16+4], 1.0e-3f);
+    }
+
+    @Test
+    public void relaxationSolvesAPlaneWave() throws Exception {
+        int n = 32;
+        float h = 1.0f/n;
+        float k = (float) (2.0*Math.PI);
+        float[] source = new float[n*n];
+        float[] potential = new float[n*n];
+        for(int j=0;j<n;j++){
+            for(int i=0;i<n;i++){
+                source[j*n+i] = (float) Math.sin(k*i*h);
+            }
+        }
+
+        new RelaxationSolver(2000, 1.8f).solve(source, potential, n, n, h, h);
+
+        // The discrete Laplacian of sin(k x) is -(2 - 2 cos(k h))/h^2 times it.
+        float scale = (float) ((2.0 - 2.0*Math.cos(k*h))/(h*h));
+        for(int i=0;i<n;i++){
+            assertEquals(source[i]/scale, potential[5*n+i], 1.0e-3f);
+        }
+    }
+
+    @Test
+    public void oppositeChargesPullTogether() throws Exception {
+        ParticleMesh mesh = new ParticleMesh(0, 0.0f, 0.0f, 1.0f, 1.0f, 32, 32,
+                ParticleMesh.Shape.TSC, new RelaxationSolver(500, 1.8f));
+        float[] x = {0.4f, 0.6f};
+        float[] y = {0.5f, 0.5f};
+        float[] q = {1.0f, -1.0f};
+        mesh.deposit(x, y, q, 2);
+        mesh.solve();
+
+        float[] ex = new float[2];
+        float[] ey = new float[2];
+        mesh.interpolate(x, y, ex, ey, 0, 2, 0);
+
+        // The positive one is pushed right along the field, the negative one left against it.
+        assertTrue(q[0]*ex[0]>0.0f);
+        assertTrue(q[1]*ex[1]<0.0f);
+        assertEquals(0.0f, ey[0], 1.0e-3f*Math.abs(ex[0]));
+    }
+}
@@ -0,0 +1,70 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that pool handles follow their particles and go stale once they're killed.
+ */
+public class ParticlePoolTest {
+
+    @Test
+    public void handlesFollowParticlesWhenTheStoreIsRepacked() throws Exception {
+        ParticleStore store = new ParticleStore();
+        int x = store.addColumn(0.0f);
+        ParticlePool pool = new ParticlePool(store);
+
+        int[] handles = new int[4];
+        int first = pool.spawn(4, handles);
+        for(int i=0;i<4;i++){
+            store.set(x, first+i, 10.0f*i);
+        }
+
+        assertTrue(pool.kill(handles[1]));
+
+        assertEquals(3, store.size());
+        assertEquals(30.0f, store.get(x, pool.index(handles[3])), 0.0f);
+        assertEquals(20.0f, store.get(x, pool.index(handles[2])), 0.0f);
+        assertEquals(0.0f, store.get(x, pool.index(handles[0])), 0.0f);
+    }
+
+    @Test
+    public void killedHandlesStayDeadWhenTheirSlotIsReused() throws Exception {
+        ParticleStore store = new ParticleStore();
+        store.addColumn(0.0f);
+        ParticlePool pool = new ParticlePool(store);
+
+        int old = pool.spawn();
+        pool.kill(old);
+        int reused = pool.spawn();
+
+        assertFalse(pool.isAlive(old));
+        assertTrue(pool.isAlive(reused));
+        assertNotEquals(old, reused);
+        assertFalse(pool.kill(old));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void deadParticlesCantBeReadOrWritten() throws Exception {
+        ParticleStore store = new ParticleStore();
+        int x = store.addColumn(0.0f);
+        ParticlePool pool = new ParticlePool(store);
+        Particle particle = new Particle(store, pool, pool.spawn());
+        pool.kill(particle.handle);
+
+        try{
+            particle.get(x);
+            fail("Reading a dead particle should throw.");
+        }
+        catch(IllegalStateException expected){
+        }
+        try{
+            particle.set(x, 1.0f);
+            fail("Writing a dead particle should throw.");
+        }
+        catch(IllegalStateException expected){
+        }
+    }
+}
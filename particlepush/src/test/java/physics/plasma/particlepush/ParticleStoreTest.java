@@ -0,0 +1,78 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the column store keeps values, defaults, and ids straight as it grows.
+ */
+public class ParticleStoreTest {
+
+    @Test
+    public void newParticlesTakeColumnDefaults() throws Exception {
+        ParticleStore store = new ParticleStore(4);
+        int x = store.addColumn(0.0f);
+        int mass = store.addColumn(2.0f);
+
+        int id = store.add();
+        store.set(x, id, 3.0f);
+
+        assertEquals(1, store.size());
+        assertEquals(3.0f, store.get(x, id), 0.0f);
+        assertEquals(2.0f, store.get(mass, id), 0.0f);
+    }
+
+    @Test
+    public void growingKeepsExistingValues() throws Exception {
+        ParticleStore store = new ParticleStore(2);
+        int x = store.addColumn(0.0f);
+
+        int first = store.add(100);
+        for(int i=0;i<100;i++){
+            store.set(x, first+i, i);
+        }
+
+        assertTrue(store.capacity()>=100);
+        for(int i=0;i<100;i++){
+            assertEquals(i, store.column(x)[i], 0.0f);
+        }
+    }
+
+    @Test
+    public void columnsAddedLaterAreFilledForExistingParticles() throws Exception {
+        ParticleStore store = new ParticleStore();
+        store.addColumn(0.0f);
+        store.add(5);
+
+        int charge = store.addColumn(-1.0f);
+
+        for(int i=0;i<5;i++){
+            assertEquals(-1.0f, store.get(charge, i), 0.0f);
+        }
+    }
+
+    @Test
+    public void redefiningAQualityDifferentlyIsRejected() throws Exception {
+        QualitySchema schema = new QualitySchema(new ParticleStore());
+        Quality red = schema.definePacked("red", Quality.Type.CONTINUOUS, 1.0f, "",
+                Quality.Storage.FIXED16, 0.0f, 1.0f);
+        Quality mass = schema.define("mass", Quality.Type.CONTINUOUS, 1.0f, "mass");
+
+        assertSame(red, schema.definePacked("red", Quality.Type.CONTINUOUS, 1.0f, "",
+                Quality.Storage.FIXED16, 0.0f, 1.0f));
+        assertSame(mass, schema.define("mass", Quality.Type.CONTINUOUS, 1.0f, "mass"));
+        try {
+            schema.definePacked("red", Quality.Type.CONTINUOUS, 1.0f, "", Quality.Storage.FIXED16, 0.0f, 2.0f);
+            fail("expected a different range to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            schema.define("mass", Quality.Type.CONTINUOUS, 1.0f, "kg");
+            fail("expected different units to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
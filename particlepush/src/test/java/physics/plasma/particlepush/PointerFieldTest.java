@@ -0,0 +1,60 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that touches push particles with the right field and that pointers come and go with fingers.
+ */
+public class PointerFieldTest {
+
+    @Test
+    public void everyPointerAddsItsField() throws Exception {
+        SystemManager system = new SystemManager(null);
+        system.addParticle(1.0f, 0.0f);
+        system.addParticle(0.0f, 2.0f);
+
+        system.pointers.setDefaults(0.5f, PointerField.Falloff.INVERSE, 0.0f);
+        system.pointers.touch(3, 0.0f, 0.0f);
+        Pointer second = system.pointers.touch(7, 0.0f, 0.0f);
+        second.setFalloff(PointerField.Falloff.INVERSE_SQUARE);
+        system.computeFields();
+
+        float[] ex = system.particles.column(system.EX);
+        float[] ey = system.particles.column(system.EY);
+        assertEquals(0.5f + 0.5f, ex[0], 1.0e-6f);
+        assertEquals(0.0f, ey[0], 1.0e-6f);
+        assertEquals(0.5f/2.0f + 0.5f/4.0f, ey[1], 1.0e-6f);
+
+        // Once both fingers lift, nothing is pushed any more.
+        system.pointers.release(3);
+        system.pointers.release(7);
+        system.computeFields();
+        assertEquals(0.0f, ex[0], 0.0f);
+        assertEquals(0.0f, ey[1], 0.0f);
+    }
+
+    @Test
+    public void pointersFollowTheirTouches() throws Exception {
+        PointerField field = new PointerField(1.0f, PointerField.Falloff.SPRING, 0.0f);
+
+        Pointer first = field.touch(0, 0.0f, 0.0f);
+        assertSame(first, field.touch(0, 0.5f, 0.25f));
+        assertEquals(0.5f, first.x(), 0.0f);
+        assertEquals(0.25f, first.y(), 0.0f);
+
+        for(int id=1;id<PointerField.MAX_POINTERS;id++){
+            assertNotNull(field.touch(id, 0.0f, 0.0f));
+        }
+        assertNull(field.touch(PointerField.MAX_POINTERS, 0.0f, 0.0f));
+        assertEquals(PointerField.MAX_POINTERS, field.count());
+
+        field.release(4);
+        assertEquals(PointerField.MAX_POINTERS-1, field.count());
+        assertNotNull(field.touch(PointerField.MAX_POINTERS, 0.0f, 0.0f));
+
+        field.releaseAll();
+        assertEquals(0, field.count());
+    }
+}
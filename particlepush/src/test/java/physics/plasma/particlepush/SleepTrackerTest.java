@@ -0,0 +1,155 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that still particles fall asleep and stay put, and that bumps, collisions and pointers wake them.
+ */
+public class SleepTrackerTest {
+
+    @Test
+    public void stillParticlesFallAsleepAndBumpsWakeThem() throws Exception {
+        SystemManager system = new SystemManager(null);
+        int n = 50;
+        int[] handles = new int[n];
+        for(int i=0;i<n;i++){
+            handles[i] = system.addParticle(0.02f*i, 0.5f).handle;
+        }
+        SleepTracker sleep = system.enableSleeping(0.01f, 0.01f, 5);
+
+        for(int k=0;k<4;k++){
+            system.step(0.01f);
+        }
+        assertEquals(n, system.active());
+        system.step(0.01f);
+        assertEquals(0, system.active());
+        assertEquals(n, sleep.fellAsleep());
+        assertEquals(n, system.diagnostics.get(Diagnostics.COUNT), 0.0);
+
+        // Give one sleeper a push; it wakes on the next step, moves, and nobody else does.
+        int bumped = system.pool.index(handles[7]);
+        system.particles.set(system.VX, bumped, 1.0f);
+        system.step(0.01f);
+        assertEquals(1, system.active());
+        assertEquals(1, sleep.wokeUp());
+        assertEquals(handles[7], system.pool.handle(0));
+        assertEquals(0.14f + 0.01f, system.particles.get(system.X, 0), 1.0e-5f);
+
+        for(int i=0;i<n;i++){
+            if(i!=7){
+                int index = system.pool.index(handles[i]);
+                assertTrue(index>=1);
+                assertEquals(0.02f*i, system.particles.get(system.X, index), 0.0f);
+                assertEquals(0.02f*i, system.particles.get(system.PREVIOUS_X, index), 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void pointersAndNewForcesWakeSleepers() throws Exception {
+        SystemManager system = new SystemManager(null);
+        int n = 20;
+        int[] handles = new int[n];
+        for(int i=0;i<n;i++){
+            handles[i] = system.addParticle(0.1f*i, 0.0f).handle;
+        }
+        SleepTracker sleep = system.enableSleeping(0.01f, 0.01f, 2);
+        sleep.setWaking(0.15f, 8);
+        system.step(0.01f);
+        system.step(0.01f);
+        assertEquals(0, system.active());
+
+        // A finger near particle 10 wakes it and its two neighbors.
+        system.pointers.touch(0, 1.0f, 0.0f);
+        system.step(0.01f);
+        assertEquals(3, system.active());
+        for(int k=0;k<3;k++){
+            int handle = system.pool.handle(k);
+            assertTrue(handle==handles[9] || handle==handles[10] || handle==handles[11]);
+        }
+
+        // Changing the forces wakes everybody.
+        system.pointers.releaseAll();
+        system.addForce(new PointerField(0.0f, PointerField.Falloff.SPRING, 0.0f));
+        system.step(0.01f);
+        assertEquals(n, system.active());
+    }
+
+    @Test
+    public void oneParticleFallingAsleepDoesNotReorderTheStore() throws Exception {
+        SystemManager system = new SystemManager(null);
+        Particle still = system.addParticle(0.0f, 0.0f);
+        for(int i=1;i<20;i++){
+            system.addParticle(0.0f, 0.2f*i).set(system.VX, 1.0f);
+        }
+        SleepTracker sleep = system.enableSleeping(0.01f, 0.01f, 3);
+        int reorders = system.reorders();
+
+        for(int k=0;k<3;k++){
+            system.step(0.01f);
+        }
+        assertEquals(1, sleep.fellAsleep());
+
+        // It waits at the front, held still, until enough others join it.
+        for(int k=0;k<10;k++){
+            system.step(0.01f);
+        }
+        assertEquals(reorders, system.reorders());
+        assertEquals(20, system.active());
+        assertEquals(0.0f, still.get(system.X), 0.0f);
+        assertEquals(0.0f, still.get(system.VX), 0.0f);
+    }
+
+    @Test
+    public void collisionsWakeTheSleepersTheyMove() throws Exception {
+        SystemManager system = new SystemManager(null);
+        system.enableCollisions(0.05f, 1.0f);
+        Particle still = system.addParticle(0.0f, 0.0f);
+        Particle bullet = system.addParticle(-0.5f, 0.0f);
+        bullet.set(system.VX, 2.0f);
+        SleepTracker sleep = system.enableSleeping(0.01f, 0.01f, 2);
+        system.step(0.01f);
+        system.step(0.01f);
+        assertEquals(1, system.active());
+
+        // The step the bullet hits, the frames are told the sleepers changed,
+        // and the one it hit is awake on the next.
+        int version = sleep.version();
+        for(int k=0;k<100 && system.collisions.pairCount()==0;k++){
+            version = sleep.version();
+            system.step(0.01f);
+        }
+        assertTrue(system.collisions.pairCount()>0);
+        assertNotEquals(version, sleep.version());
+        system.step(0.01f);
+        assertEquals(2, system.active());
+        assertTrue(still.get(system.X)>0.0f);
+    }
+
+    @Test
+    public void particlesWaitingToMoveBackDoNotCreep() throws Exception {
+        SystemManager system = new SystemManager(null);
+        system.pointers.setDefaults(-0.01f, PointerField.Falloff.SPRING, 0.0f);
+        system.pointers.touch(0, 0.0f, 0.0f);
+        Particle still = system.addParticle(1.0f, 0.0f);
+        for(int i=1;i<20;i++){
+            system.addParticle(0.0f, 0.2f*i).set(system.VX, 1.0f);
+        }
+        system.enableSleeping(0.1f, 0.1f, 3);
+        for(int k=0;k<3;k++){
+            system.step(0.1f);
+        }
+        float x = still.get(system.X);
+
+        // The pointer pulls it too gently to wake it, and it's pushed with everybody else
+        // at the front, but it doesn't go anywhere.
+        for(int k=0;k<10;k++){
+            system.step(0.1f);
+        }
+        assertEquals(20, system.active());
+        assertEquals(x, still.get(system.X), 0.0f);
+        assertEquals(0.0f, still.get(system.VX), 0.0f);
+    }
+}
@@ -0,0 +1,99 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that sparse columns only keep the particles that differ from the default.
+ */
+public class SparseColumnTest {
+
+    @Test
+    public void overridesAreFoundAcrossWords() throws Exception {
+        SparseColumn column = new SparseColumn(1.0f, 300);
+        column.set(200, 5.0f);
+        column.set(3, 2.0f);
+        column.set(64, 3.0f);
+
+        assertEquals(3, column.overrideCount());
+        assertEquals(2.0f, column.get(3), 0.0f);
+        assertEquals(3.0f, column.get(64), 0.0f);
+        assertEquals(5.0f, column.get(200), 0.0f);
+        assertEquals(1.0f, column.get(4), 0.0f);
+    }
+
+    @Test
+    public void defaultChangesEveryoneWithoutAnOverride() throws Exception {
+        SparseColumn column = new SparseColumn(1.0f, 100);
+        column.set(10, 4.0f);
+        column.setDefault(-1.0f);
+
+        assertEquals(-1.0f, column.get(0), 0.0f);
+        assertEquals(4.0f, column.get(10), 0.0f);
+    }
+
+    @Test
+    public void settingTheDefaultRemovesTheOverride() throws Exception {
+        SparseColumn column = new SparseColumn(1.0f, 100);
+        column.set(10, 4.0f);
+        column.set(20, 6.0f);
+        column.set(10, 1.0f);
+
+        assertEquals(1, column.overrideCount());
+        assertFalse(column.isOverridden(10));
+        assertEquals(6.0f, column.get(20), 0.0f);
+    }
+
+    @Test
+    public void readMatchesGet() throws Exception {
+        SparseColumn column = new SparseColumn(0.5f, 500);
+        for(int i=0;i<500;i+=37){
+            column.set(i, i);
+        }
+
+        float[] block = new float[150];
+        column.read(100, 250, block);
+        for(int i=100;i<250;i++){
+            assertEquals(column.get(i), block[i-100], 0.0f);
+        }
+    }
+
+    @Test
+    public void countsStayRightAcrossBlocksThroughGrowthAndReorders() throws Exception {
+        int n = 20000;
+        SparseColumn column = new SparseColumn(0.0f, 100);
+        column.ensureCapacity(n);
+        float[] expected = new float[n];
+        Random random = new Random(5);
+        for(int k=0;k<3000;k++){
+            int id = random.nextInt(n);
+            float value = random.nextInt(4);
+            column.set(id, value);
+            expected[id] = value;
+        }
+        column.ensureCapacity(3*n);
+
+        int[] order = new int[n];
+        for(int round=0;round<2;round++){
+            for(int k=0;k<n;k++){
+                order[k] = n-1-k;
+            }
+            column.permute(order, n);
+            float[] reversed = new float[n];
+            for(int k=0;k<n;k++){
+                reversed[k] = expected[n-1-k];
+            }
+            expected = reversed;
+        }
+
+        float[] block = new float[n];
+        column.read(0, n, block);
+        for(int i=0;i<n;i++){
+            assertEquals(expected[i], column.get(i), 0.0f);
+            assertEquals(expected[i], block[i], 0.0f);
+        }
+    }
+}
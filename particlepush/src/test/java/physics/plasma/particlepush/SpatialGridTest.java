@@ -0,0 +1,87 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the grid's counting sort and its neighbor queries against brute force.
+ */
+public class SpatialGridTest {
+
+    @Test
+    public void everyParticleLandsInItsOwnCellOnce() throws Exception {
+        Random random = new Random(7);
+        int n = 300;
+        float[] x = new float[n];
+        float[] y = new float[n];
+        for(int i=0;i<n;i++){
+            x[i] = random.nextFloat()*2.0f;
+            y[i] = random.nextFloat();
+        }
+
+        SpatialGrid grid = new SpatialGrid(0.1f);
+        grid.build(x, y, n);
+
+        int[] start = grid.cellStart();
+        int[] sorted = grid.sorted();
+        int cells = grid.columns()*grid.rows();
+        assertEquals(n, start[cells]);
+
+        boolean[] seen = new boolean[n];
+        for(int c=0;c<cells;c++){
+            for(int k=start[c];k<start[c+1];k++){
+                int i = sorted[k];
+                assertFalse(seen[i]);
+                seen[i] = true;
+                assertEquals(c, grid.cell(x[i], y[i]));
+            }
+        }
+    }
+
+    @Test
+    public void queriesFindExactlyTheParticlesInRange() throws Exception {
+        Random random = new Random(11);
+        int n = 500;
+        float[] x = new float[n];
+        float[] y = new float[n];
+        for(int i=0;i<n;i++){
+            x[i] = random.nextFloat()-0.5f;
+            y[i] = random.nextFloat()-0.5f;
+        }
+
+        SpatialGrid grid = new SpatialGrid(0.05f);
+        grid.build(x, y, n);
+
+        int[] found = new int[n];
+        for(int trial=0;trial<20;trial++){
+            float px = random.nextFloat()-0.5f;
+            float py = random.nextFloat()-0.5f;
+            float radius = 0.02f + 0.1f*random.nextFloat();
+
+            int count = grid.query(px, py, radius, found);
+            int[] expected = new int[n];
+            int expectedCount = 0;
+            int closest = -1;
+            float best = radius*radius;
+            for(int i=0;i<n;i++){
+                float d2 = (x[i]-px)*(x[i]-px) + (y[i]-py)*(y[i]-py);
+                if(d2<=radius*radius){
+                    expected[expectedCount++] = i;
+                }
+                if(d2<=best){
+                    best = d2;
+                    closest = i;
+                }
+            }
+
+            int[] actual = Arrays.copyOf(found, count);
+            Arrays.sort(actual);
+            assertArrayEquals(Arrays.copyOf(expected, expectedCount), actual);
+            assertEquals(closest, grid.nearest(px, py, radius));
+        }
+    }
+}
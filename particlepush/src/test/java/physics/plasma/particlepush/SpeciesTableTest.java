@@ -0,0 +1,118 @@
+package physics.plasma.particlepush;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that species are pushed in blocks the same as particle by particle, that subcycling takes smaller steps,
+ * and that species particles get their charge and mass from their species.
+ */
+public class SpeciesTableTest {
+
+    @Test
+    public void speciesBlocksPushLikeSeparateParticles() throws Exception {
+        SystemManager blocks = new SystemManager(null);
+        SystemManager plain = new SystemManager(null);
+        blocks.pusher.setUniformField(3.0f);
+        plain.pusher.setUniformField(3.0f);
+        Species electron = blocks.defineSpecies("electron", -1.0f, 0.01f);
+        Species ion = blocks.defineSpecies("ion", 1.0f, 1.0f);
+
+        Random random = new Random(3);
+        int n = 600;
+        int[] blockHandles = new int[n];
+        int[] plainHandles = new int[n];
+        for(int i=0;i<n;i++){
+            float x = random.nextFloat();
+            float y = random.nextFloat();
+            float vx = random.nextFloat()-0.5f;
+            Species kind = (i%3==0) ? ion : electron;
+            Particle a = blocks.addParticle(x, y, kind);
+            a.set(blocks.VX, vx);
+            Particle b = plain.addParticle(x, y, kind.charge);
+            b.set(plain.MASS, kind.mass);
+            b.set(plain.VX, vx);
+            blockHandles[i] = a.handle;
+            plainHandles[i] = b.handle;
+        }
+
+        for(int k=0;k<5;k++){
+            blocks.step(0.01f);
+            plain.step(0.01f);
+        }
+
+        float[] ids = blocks.particles.column(blocks.species.SPECIES);
+        for(int i=1;i<n;i++){
+            assertTrue(ids[i-1]<=ids[i]);
+        }
+        for(int i=0;i<n;i++){
+            int a = blocks.pool.index(blockHandles[i]);
+            int b = plain.pool.index(plainHandles[i]);
+            assertEquals(plain.particles.get(plain.X, b), blocks.particles.get(blocks.X, a), 1.0e-5f);
+            assertEquals(plain.particles.get(plain.VY, b), blocks.particles.get(blocks.VY, a), 1.0e-4f);
+        }
+        assertEquals(plain.diagnostics.kineticEnergy(), blocks.diagnostics.kineticEnergy(), 1.0e-3);
+        assertEquals(plain.diagnostics.get(Diagnostics.CHARGE), blocks.diagnostics.get(Diagnostics.CHARGE), 1.0e-3);
+    }
+
+    @Test
+    public void subcycledSpeciesTakeSmallerSteps() throws Exception {
+        SystemManager cycled = new SystemManager(null);
+        SystemManager fine = new SystemManager(null);
+        cycled.pusher.setUniformField(50.0f);
+        fine.pusher.setUniformField(50.0f);
+        Species electron = cycled.defineSpecies("electron", -1.0f, 0.01f);
+        Species ion = cycled.defineSpecies("ion", 1.0f, 1.0f);
+        electron.setSubcycles(4);
+
+        Particle e = cycled.addParticle(0.0f, 0.0f, electron);
+        Particle i = cycled.addParticle(1.0f, 0.0f, ion);
+        e.set(cycled.VX, 1.0f);
+        i.set(cycled.VX, 1.0f);
+        Particle reference = fine.addParticle(0.0f, 0.0f, electron.charge);
+        reference.set(fine.MASS, electron.mass);
+        reference.set(fine.VX, 1.0f);
+
+        for(int k=0;k<3;k++){
+            cycled.step(0.01f);
+            for(int c=0;c<4;c++){
+                fine.step(0.0025f);
+            }
+        }
+
+        assertEquals(reference.get(fine.X), e.get(cycled.X), 1.0e-5f);
+        assertEquals(reference.get(fine.Y), e.get(cycled.Y), 1.0e-5f);
+        assertTrue(i.get(cycled.X)>1.0f && i.get(cycled.X)<1.03f);
+        assertEquals(2.0, cycled.diagnostics.get(Diagnostics.COUNT), 0.0);
+    }
+
+    @Test
+    public void speciesChargesAndMassesAreLookedUpNotStored() throws Exception {
+        SystemManager system = new SystemManager(null);
+        system.setIntegrator(new VerletIntegrator());
+        Species electron = system.defineSpecies("electron", -1.0f, 0.01f);
+        Particle e = system.addParticle(0.0f, 0.0f, electron);
+        e.set(system.VX, 2.0f);
+        system.addParticle(1.0f, 0.0f, 3.0f);
+
+        // The species particle's own charge and mass are left at their defaults.
+        int index = system.pool.index(e.handle);
+        assertEquals(system.particles.getDefault(system.CHARGE), e.get(system.CHARGE), 0.0f);
+        assertEquals(system.particles.getDefault(system.MASS), e.get(system.MASS), 0.0f);
+
+        float[] values = new float[1];
+        system.read(system.CHARGE, index, index+1, values);
+        assertEquals(-1.0f, values[0], 0.0f);
+        float[] ratio = new float[2];
+        system.chargeToMass(ratio, 2);
+        assertEquals(-100.0f, ratio[index], 1.0e-3f);
+
+        system.step(0.01f);
+        assertEquals(2.0, system.diagnostics.get(Diagnostics.CHARGE), 1.0e-6);
+        assertEquals(1.01, system.diagnostics.get(Diagnostics.MASS), 1.0e-6);
+        assertEquals(0.5*0.01*4.0, system.diagnostics.kineticEnergy(), 1.0e-4);
+    }
+}